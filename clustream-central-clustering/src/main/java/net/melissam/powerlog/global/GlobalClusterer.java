@@ -24,10 +24,18 @@ import net.melissam.powerlog.clustering.CluStream;
 import net.melissam.powerlog.clustering.Cluster;
 import net.melissam.powerlog.clustering.ClustreamModifiedKMeansClusterer;
 import net.melissam.powerlog.clustering.FeatureVector;
+import net.melissam.powerlog.clustering.InitialisationType;
 import net.melissam.powerlog.clustering.MicroCluster;
+import net.melissam.powerlog.clustering.ModelSnapshot;
+import net.melissam.powerlog.clustering.NSWNearestClusterSearch;
+import net.melissam.powerlog.clustering.NearestClusterSearchType;
+import net.melissam.powerlog.clustering.PlacementAction;
+import net.melissam.powerlog.clustering.StorageBacking;
+import net.melissam.powerlog.clustering.StoragePrecision;
 import net.melissam.powerlog.evaluation.SSQEvaluation;
 import net.melissam.powerlog.messaging.MicroClusterMessage;
 import net.melissam.powerlog.normalisation.SlidingWindowStatisticalDataNormaliser;
+import net.melissam.powerlog.utils.StreamListener;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.commons.configuration.ConfigurationException;
@@ -43,7 +51,7 @@ import com.google.gson.Gson;
  * @author melissam
  *
  */
-public class GlobalClusterer {
+public class GlobalClusterer implements StreamListener {
 	
 	// the clustering learner
 	private CluStream learner;
@@ -91,6 +99,17 @@ public class GlobalClusterer {
 		initNumber = config.getInteger("initNumber", 1000);
 		
 		setupLeaner(config.getInteger("maxClusters", 100), config.getInteger("maximalBoundaryFactor", 2), config.getInteger("relevanceThreshold", 1000), initNumber);
+		learner.setNearestClusterSearchType(NearestClusterSearchType.fromName(config.getString("nearestClusterSearch", "linear")));
+		learner.setSearchWidth(config.getInteger("nsw.searchWidth", NSWNearestClusterSearch.DEFAULT_SEARCH_WIDTH));
+		learner.setInitialisationType(InitialisationType.fromName(config.getString("initialisation", "kmeans")));
+		learner.setSeedRadius(config.getDouble("seedRadius", 0.0));
+		learner.setDecayRate(config.getDouble("decayRate", 0.0));
+		learner.setEvictionInterval(config.getInteger("evictionInterval", 0));
+		learner.setLineageCap(config.getInteger("lineageCap", 0));
+		learner.setStoragePrecision(StoragePrecision.fromName(config.getString("storagePrecision", "double")));
+		learner.setStorageBacking(StorageBacking.fromName(config.getString("storageBacking", "heap")), new File(config.getString("storageFile", "microclusters.store")));
+		learner.setBackgroundInitialisation(config.getBoolean("backgroundInitialisation", true));
+		learner.setStreamListener(this);
 
 		// set up stream and snapshot configuration
 		// streamSpeed = config.getInteger("streamSpeed", 2000);
@@ -187,7 +206,7 @@ public class GlobalClusterer {
 						
 						// create a feature vector from the centroid of the micro-cluster sent from
 						// the remote instance
-						FeatureVector fv = new FeatureVector(++microClustersReceived);
+						FeatureVector fv = new FeatureVector(++microClustersReceived, microCluster.getDimension());
 						fv.setTimestamp(timestamp);
 						fv.addAll(microCluster.getCenter());
 						
@@ -211,7 +230,7 @@ public class GlobalClusterer {
 								if (evaluate) points.add(buffered);
 								
 								// give it to the learner and handle the cluster assignment
-								handlePlacement(learner.cluster(buffered), buffered);						
+								handlePlacement(learner.process(buffered), buffered);						
 							
 							}
 							
@@ -224,7 +243,7 @@ public class GlobalClusterer {
 						normaliser.normalise(fv);
 						
 						// give it to the current feature to learner
-						handlePlacement(learner.cluster(fv), fv);
+						handlePlacement(learner.process(fv), fv);
 						
 						// keep feature for later if we are evaluating
 						if (evaluate) points.add(fv);
@@ -260,14 +279,19 @@ public class GlobalClusterer {
 		}catch(JMSException ex){
 			LOG.error("Error whilst closing JMS connection.", ex);
 		}			
+		
+		// place any features still buffered whilst the clusters were initialised
+		learner.awaitInitialisation();
 
-		LOG.info("clusters=" + jsonWriter.toJson(learner.getClusters()));
-		LOG.info("Starting macro-clustering phase using {} micro-clusters.", learner.getClusters().size());
+		// macro-clustering works on a published version of the model, which does not change underneath it
+		ModelSnapshot model = learner.publish();
+		LOG.info("clusters=" + jsonWriter.toJson(model.getClusters()));
+		LOG.info("Starting macro-clustering phase using {} micro-clusters (version {}).", model.size(), model.getVersion());
 		
 		long start = System.currentTimeMillis();
 		
 		ClustreamModifiedKMeansClusterer clusterer = new ClustreamModifiedKMeansClusterer();
-		Map<Cluster, List<MicroCluster>> macroClusters = clusterer.doMacroClusterCreation(learner.getClusters(), 5);
+		Map<Cluster, List<MicroCluster>> macroClusters = clusterer.doMacroClusterCreation(model.getClusters(), 5);
 		LOG.info("{} macro clusters in {}ms", macroClusters.size(), System.currentTimeMillis() - start);		
 		saveResultsToFile(macroClusters);
 		
@@ -360,30 +384,47 @@ public class GlobalClusterer {
 	}
 	
 	
-	private void handlePlacement(Map<FeatureVector, Integer> placement, FeatureVector placed){
+	@Override
+	public void onItemReceived(FeatureVector featureVector){
+		// nothing to do until the feature is placed
+	}
+	
+	
+	@Override
+	public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
 		
 		// record the cluster id the feature was added to
-		if (placement != null && !placement.isEmpty()){
+		featureVector.setInitialCluster(clusterId);
+		LOG.info("fv=" + jsonWriter.toJson(featureVector));
+		
+	}
+		
+	@Override
+	public void onClusterEvicted(int clusterId){
+		LOG.debug("Micro-cluster " + clusterId + " was evicted.");
+	}
+	
+	
+	private void handlePlacement(boolean placed, FeatureVector featureVector){
+		
+		// placements have already been logged by the listener
+		if (placed){
 			
-			FeatureVector fv = null;
-			for (Entry<FeatureVector, Integer> entry : placement.entrySet()){
-				fv = entry.getKey();
-				fv.setInitialCluster(entry.getValue());
-				LOG.info("fv=" + jsonWriter.toJson(fv));
-			}
-
 			// decide whether it is time to take a snapshot of the clusters
 			if (microClustersReceived % 2000 == 0){
 			
-				List<MicroCluster> clusters = learner.getClusters();
-				LOG.info("snapshot-time={}, clusters=" + jsonWriter.toJson(clusters));
+				ModelSnapshot snapshot = learner.publish();
+				LOG.info("snapshot-time={}, version={}, clusters={}", microClustersReceived, snapshot.getVersion(), jsonWriter.toJson(snapshot.getClusters()));
+				
+				// checkpoint the cluster features, if they are mapped on a file
+				learner.flush();
 				
 				// later save for macro-clustering
 				
 			}
 			
 		}else{
-			LOG.info("featureVector={} used for initialisation.", placed.getId());
+			LOG.info("featureVector={} used for initialisation.", featureVector.getId());
 		}
 	}
 }
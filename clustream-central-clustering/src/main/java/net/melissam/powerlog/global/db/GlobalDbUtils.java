@@ -52,7 +52,7 @@ public class GlobalDbUtils extends DbUtils {
 			
 			stmt.setInt(1, featureVector.getId());
 			stmt.setLong(2, featureVector.getTimestamp());
-			stmt.setLong(3, origin.getIdList().get(0));
+			stmt.setLong(3, origin.getId());
 			stmt.setString(4, gsonWriter.toJson(origin.getIdList()));
 			stmt.setString(5,  gsonWriter.toJson(origin.getSumOfValues()));
 			stmt.setString(6, gsonWriter.toJson(origin.getSumOfSquaresOfValues()));
@@ -120,7 +120,7 @@ public class GlobalDbUtils extends DbUtils {
 				int mc = 0;
 				for (MicroCluster cluster : microClusters){
 					
-					sb.append("(").append(timestamp).append(",").append(cluster.getIdList().get(0)).append(",")
+					sb.append("(").append(timestamp).append(",").append(cluster.getId()).append(",")
 								.append(gsonWriter.toJson(cluster.getIdList())).append(",").append(gsonWriter.toJson(cluster.getSumOfValues()))
 								.append(",").append(gsonWriter.toJson(cluster.getSumOfSquaresOfValues())).append(",").append((long)cluster.getSize())
 								.append(")");
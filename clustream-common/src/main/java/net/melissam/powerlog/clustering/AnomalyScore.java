@@ -0,0 +1,98 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * How far a point lies from the micro-cluster model, as scored by an {@link AnomalyScorer}.
+ *
+ * A score can be reused for many points, so that scoring does not allocate.
+ *
+ * @author melissam
+ *
+ */
+public class AnomalyScore {
+
+	/** Id of the closest micro-cluster, -1 if the model is empty. */
+	private int clusterId;
+
+	/** Distance of the point from the centroid of the closest micro-cluster. */
+	private double distance;
+
+	/** Maximum boundary of the closest micro-cluster. */
+	private double radius;
+
+	/** Scratch space for the distances of the point to the pivots of the scorer. */
+	private double[] pivotDistances;
+
+
+	public AnomalyScore(){
+		this.pivotDistances = new double[AnomalyScorer.MAX_PIVOTS];
+		set(-1, Double.POSITIVE_INFINITY, 0.0);
+	}
+
+
+	/**
+	 * Returns the id of the micro-cluster closest to the point.
+	 * @return The id of the closest micro-cluster, -1 if the model has no micro-clusters.
+	 */
+	public int getClusterId(){
+		return clusterId;
+	}
+
+
+	/**
+	 * Returns the distance of the point from the centroid of the closest micro-cluster.
+	 * @return The distance to the closest micro-cluster.
+	 */
+	public double getDistance(){
+		return distance;
+	}
+
+
+	/**
+	 * Returns the maximum boundary of the closest micro-cluster, the distance within which the learner would absorb
+	 * the point into it.
+	 * @return The radius of the closest micro-cluster.
+	 */
+	public double getRadius(){
+		return radius;
+	}
+
+
+	/**
+	 * Returns the distance of the point from the closest micro-cluster in units of its maximum boundary. Points within
+	 * the boundary score less than 1, and the further a point lies outside it the more anomalous it is.
+	 * @return The normalised distance, infinite if the closest micro-cluster has no extent and the point is not on it.
+	 */
+	public double getNormalisedDistance(){
+		if (radius > 0) return distance / radius;
+		return distance == 0 ? 0.0 : Double.POSITIVE_INFINITY;
+	}
+
+
+	/**
+	 * Returns whether the point falls within the maximum boundary of the closest micro-cluster, that is whether the
+	 * learner would absorb it rather than start a new micro-cluster for it.
+	 * @return true if the point is included in the model.
+	 */
+	public boolean isIncluded(){
+		return distance < radius;
+	}
+
+
+	@Override
+	public String toString(){
+		return "{clusterId=" + clusterId + ", distance=" + distance + ", radius=" + radius + ", included=" + isIncluded() + "}";
+	}
+
+
+	double[] getPivotDistances(){
+		return pivotDistances;
+	}
+
+
+	void set(int clusterId, double distance, double radius){
+		this.clusterId = clusterId;
+		this.distance = distance;
+		this.radius = radius;
+	}
+
+}
@@ -0,0 +1,210 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores points for how anomalous they are against a fixed set of micro-clusters, without changing them.
+ *
+ * A point is scored against its closest micro-cluster: the distance from its centroid, that distance in units of the
+ * micro-cluster's maximum boundary, and whether the point falls within the boundary, which is when the learner would
+ * absorb it. The boundary of a micro-cluster with a single point is the distance to the closest other micro-cluster, as
+ * in the learner.
+ *
+ * Everything a score needs is worked out when the scorer is created and laid out in flat arrays: the centroids, the
+ * boundaries, the distances of every centroid to a few pivot centroids spread over the model, and the order of the
+ * dimensions by decreasing variance. A point's distances to the pivots give a first closest micro-cluster and, by the
+ * triangle inequality, a lower bound on its distance to every other micro-cluster, so most micro-clusters are rejected
+ * without computing any distance; the distances that are computed are added up by decreasing variance of the dimensions
+ * and abandoned once they pass the closest distance found. A scorer never changes afterwards, so any number of threads
+ * can score points at once. Scorers are normally taken from a published version of the model, see
+ * {@link ModelSnapshot#getScorer()}.
+ *
+ * @author melissam
+ *
+ */
+public class AnomalyScorer {
+
+	/** Largest number of pivots. */
+	static final int MAX_PIVOTS = 8;
+
+	/** Lower bounds are made this much smaller, so that rounding does not reject the closest micro-cluster. */
+	private static final double BOUND_SLACK = 1e-9;
+
+	/** Number of micro-clusters. */
+	private final int count;
+
+	/** Dimension of the micro-clusters, 0 if there are none. */
+	private final int dimension;
+
+	/** Centroid of each micro-cluster, one after the other. */
+	private final double[] centers;
+
+	/** Maximum boundary of each micro-cluster. */
+	private final double[] radii;
+
+	/** Id of each micro-cluster. */
+	private final int[] ids;
+
+	/** The dimensions by decreasing variance of all the points of the micro-clusters. */
+	private final int[] order;
+
+	/** The micro-clusters whose centroids are the pivots. */
+	private final int[] pivots;
+
+	/** Distance of each centroid to each pivot, the pivots of a micro-cluster one after the other. */
+	private final double[] pivotDistances;
+
+
+	/**
+	 * Creates a scorer for the given micro-clusters, which are only read while the scorer is created.
+	 *
+	 * @param clusters	The micro-clusters to score points against.
+	 */
+	public AnomalyScorer(List<MicroCluster> clusters){
+
+		this.count = clusters.size();
+		this.dimension = count > 0 ? clusters.get(0).getDimension() : 0;
+
+		this.centers = new double[count * dimension];
+		this.radii = new double[count];
+		this.ids = new int[count];
+
+		DimensionOrder dimensionOrder = new DimensionOrder(dimension);
+		double[] center = new double[dimension];
+		for (int c = 0; c < count; c++){
+
+			MicroCluster cluster = clusters.get(c);
+			cluster.getCenter(center);
+			System.arraycopy(center, 0, centers, c * dimension, dimension);
+			radii[c] = cluster.getRadius();
+			ids[c] = cluster.getId();
+
+			dimensionOrder.add(cluster.getSize(), cluster.getSumOfValues(), cluster.getSumOfSquaresOfValues(), 0);
+		}
+
+		dimensionOrder.refresh();
+		this.order = dimensionOrder.getOrder().clone();
+
+		// the boundary of a micro-cluster with a single point is the distance to its nearest neighbour
+		for (int c = 0; c < count; c++){
+			if (clusters.get(c).getSize() == 1){
+				radii[c] = nearestNeighbourDistance(c);
+			}
+		}
+
+		// pivots spread over the model, each the furthest centroid from the pivots before it
+		this.pivots = new int[Math.min(MAX_PIVOTS, count)];
+		this.pivotDistances = new double[count * pivots.length];
+		double[] pivotDistance = new double[count];
+		Arrays.fill(pivotDistance, Double.MAX_VALUE);
+		for (int k = 0; k < pivots.length; k++){
+
+			int pivot = 0;
+			for (int c = 1; k > 0 && c < count; c++){
+				if (pivotDistance[c] > pivotDistance[pivot]) pivot = c;
+			}
+			pivots[k] = pivot;
+
+			for (int c = 0; c < count; c++){
+				double distance = Math.sqrt(DistanceKernels.squaredDistance(centers, c * dimension, centers, pivot * dimension, dimension));
+				pivotDistances[c * pivots.length + k] = distance;
+				pivotDistance[c] = Math.min(pivotDistance[c], distance);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Returns the number of micro-clusters points are scored against.
+	 * @return The number of micro-clusters.
+	 */
+	public int size(){
+		return count;
+	}
+
+
+	/**
+	 * Score a point.
+	 *
+	 * @param point	The point, of the dimension of the micro-clusters.
+	 * @return The score of the point.
+	 */
+	public AnomalyScore score(double[] point){
+
+		AnomalyScore score = new AnomalyScore();
+		score(point, score);
+		return score;
+	}
+
+
+	/**
+	 * Score a point into a score which is reused, so that scoring does not allocate.
+	 *
+	 * @param point	The point, of the dimension of the micro-clusters.
+	 * @param score	Filled with the score of the point.
+	 */
+	public void score(double[] point, AnomalyScore score){
+
+		if (count == 0){
+			score.set(-1, Double.POSITIVE_INFINITY, 0.0);
+			return;
+		}
+
+		// the distances to the pivots, the closest of which is the first closest micro-cluster
+		int p = pivots.length;
+		double[] toPivots = score.getPivotDistances();
+		int nearest = -1;
+		double minDistance = Double.MAX_VALUE;
+		for (int k = 0; k < p; k++){
+			double distance = DistanceKernels.squaredDistance(point, 0, centers, pivots[k] * dimension, dimension);
+			toPivots[k] = Math.sqrt(distance);
+			if (distance < minDistance){
+				minDistance = distance;
+				nearest = pivots[k];
+			}
+		}
+
+		double minRoot = Math.sqrt(minDistance);
+		for (int c = 0, offset = 0; c < count; c++, offset += dimension){
+
+			// the distance to the centroid is no less than the difference of the distances of both to any pivot
+			int row = c * p;
+			boolean rejected = false;
+			for (int k = 0; k < p && !rejected; k++){
+				rejected = Math.abs(toPivots[k] - pivotDistances[row + k]) * (1 - BOUND_SLACK) > minRoot;
+			}
+			if (rejected || c == nearest) continue;
+
+			double distance = DistanceKernels.boundedSquaredDistance(point, 0, centers, offset, order, minDistance);
+
+			if (distance < minDistance){
+				minDistance = distance;
+				minRoot = Math.sqrt(distance);
+				nearest = c;
+			}
+		}
+
+		score.set(ids[nearest], minRoot, radii[nearest]);
+
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	private double nearestNeighbourDistance(int cluster){
+
+		double minDistance = Double.MAX_VALUE;
+		int offset = cluster * dimension;
+		for (int c = 0; c < count; c++){
+			if (c != cluster){
+				minDistance = Math.min(minDistance, DistanceKernels.boundedSquaredDistance(centers, offset, centers, c * dimension, order, minDistance));
+			}
+		}
+
+		return count > 1 ? Math.sqrt(minDistance) : 0.0;
+
+	}
+
+}
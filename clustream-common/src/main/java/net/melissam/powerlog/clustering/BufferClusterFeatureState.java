@@ -0,0 +1,314 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Cluster feature state held outside the heap, in a direct buffer or in a buffer mapped on a file.
+ *
+ * The buffer starts with a header of {@link #HEADER_BYTES} bytes, 3 ints: {@link #MAGIC}, the dimension and the number 
+ * of slots in use as of the last flush. A record for each slot follows, of 4 + 2 * dimension doubles: the id of the 
+ * micro-cluster, its size, CF1t, CF2t, CF1x and CF2x. Everything is in the byte order of the platform. A mapped file 
+ * therefore holds, after a flush, the cluster features of every micro-cluster in the store, and can be read back 
+ * without the learner.
+ *
+ * A buffer holds at most 2GB, which is about 3.7 million micro-clusters of dimension 34.
+ *
+ * @author melissam
+ *
+ */
+final class BufferClusterFeatureState extends ClusterFeatureState {
+
+	/** First int of the header. */
+	static final int MAGIC = 0x504c4346;
+
+	/** Size of the header. */
+	static final int HEADER_BYTES = 16;
+
+	/** Where the number of slots in use is kept in the header. */
+	private static final int COUNT_POSITION = 8;
+
+	/** Doubles in the record of a slot before CF1x. */
+	private static final int FIXED = 4;
+
+	/** The file the buffer is mapped on, null for a direct buffer. */
+	private final File file;
+
+	/** Number of doubles in the record of a slot. */
+	private final int stride;
+
+	/** The buffer, with the header. */
+	private ByteBuffer buffer;
+
+	/** The records of the slots. */
+	private DoubleBuffer records;
+
+	/** Number of slots there is room for. */
+	private int capacity;
+
+
+	/**
+	 * Creates the state in a buffer, mapped on a file if one is given. The file is overwritten.
+	 *
+	 * @param dimension	The dimension of the micro-clusters.
+	 * @param capacity	The initial number of slots.
+	 * @param file		The file to map, null for a direct buffer.
+	 */
+	BufferClusterFeatureState(int dimension, int capacity, File file){
+
+		super(dimension);
+
+		this.file = file;
+		this.stride = FIXED + 2 * dimension;
+
+		if (file != null){
+			try (RandomAccessFile _file = new RandomAccessFile(file, "rw")){
+				_file.setLength(0);
+			}catch(IOException ex){
+				throw new IllegalStateException("Cannot create the micro-cluster store file " + file + ".", ex);
+			}
+		}
+
+		this.buffer = allocate(capacity);
+		this.buffer.putInt(0, MAGIC);
+		this.buffer.putInt(4, dimension);
+		this.buffer.putInt(COUNT_POSITION, 0);
+		this.records = records(buffer);
+		this.capacity = capacity;
+
+	}
+
+
+	@Override
+	int getCapacity(){
+		return capacity;
+	}
+
+
+	@Override
+	void grow(int capacity, int used){
+
+		if (file != null){
+
+			// the records stay where they are in the file, the mapping is only extended
+			this.buffer = allocate(capacity);
+
+		}else{
+
+			ByteBuffer inUse = buffer.duplicate();
+			inUse.limit(HEADER_BYTES + used * stride * 8);
+			inUse.position(0);
+
+			ByteBuffer _buffer = allocate(capacity);
+			_buffer.put(inUse);
+			this.buffer = _buffer;
+		}
+
+		this.records = records(buffer);
+		this.capacity = capacity;
+
+	}
+
+
+	@Override
+	void set(int slot, int id, double size, double[] sumOfValues, double[] sumOfSquaresOfValues, double sumOfTimestamps, double sumOfSquaresOfTimestamps){
+
+		int base = slot * stride;
+
+		records.put(base, id);
+		records.put(base + 1, size);
+		records.put(base + 2, sumOfTimestamps);
+		records.put(base + 3, sumOfSquaresOfTimestamps);
+		base += FIXED;
+		for (int i = 0; i < dimension; i++){
+			records.put(base + i, sumOfValues[i]);
+			records.put(base + dimension + i, sumOfSquaresOfValues[i]);
+		}
+
+	}
+
+
+	@Override
+	void move(int from, int to){
+
+		int fromBase = from * stride, toBase = to * stride;
+		for (int i = 0; i < stride; i++){
+			records.put(toBase + i, records.get(fromBase + i));
+		}
+
+	}
+
+
+	@Override
+	double getSize(int slot){
+		return records.get(slot * stride + 1);
+	}
+
+
+	@Override
+	double getSumOfTimestamps(int slot){
+		return records.get(slot * stride + 2);
+	}
+
+
+	@Override
+	double getSumOfSquaresOfTimestamps(int slot){
+		return records.get(slot * stride + 3);
+	}
+
+
+	@Override
+	double getSumOfValues(int slot, int i){
+		return records.get(slot * stride + FIXED + i);
+	}
+
+
+	@Override
+	double getSumOfSquaresOfValues(int slot, int i){
+		return records.get(slot * stride + FIXED + dimension + i);
+	}
+
+
+	@Override
+	void copySumOfValues(int slot, double[] values){
+
+		int base = slot * stride + FIXED;
+		for (int i = 0; i < dimension; i++){
+			values[i] = records.get(base + i);
+		}
+
+	}
+
+
+	@Override
+	void copySumOfSquaresOfValues(int slot, double[] values){
+
+		int base = slot * stride + FIXED + dimension;
+		for (int i = 0; i < dimension; i++){
+			values[i] = records.get(base + i);
+		}
+
+	}
+
+
+	@Override
+	double add(int slot, double[] point){
+
+		int base = slot * stride;
+		int values = base + FIXED, squares = values + dimension;
+		for (int i = 0; i < dimension; i++){
+			double value = point[i];
+			records.put(values + i, records.get(values + i) + value);
+			records.put(squares + i, records.get(squares + i) + value * value);
+		}
+
+		double size = records.get(base + 1) + 1;
+		records.put(base + 1, size);
+		return size;
+	}
+
+
+	@Override
+	double add(int slot, double size, double[] sumOfValues, double[] sumOfSquaresOfValues){
+
+		int base = slot * stride;
+		int values = base + FIXED, squares = values + dimension;
+		for (int i = 0; i < dimension; i++){
+			records.put(values + i, records.get(values + i) + sumOfValues[i]);
+			records.put(squares + i, records.get(squares + i) + sumOfSquaresOfValues[i]);
+		}
+
+		double _size = records.get(base + 1) + size;
+		records.put(base + 1, _size);
+		return _size;
+	}
+
+
+	@Override
+	double add(int slot, int other){
+
+		int base = slot * stride, otherBase = other * stride;
+		int values = base + FIXED, squares = values + dimension;
+		int otherValues = otherBase + FIXED, otherSquares = otherValues + dimension;
+		for (int i = 0; i < dimension; i++){
+			records.put(values + i, records.get(values + i) + records.get(otherValues + i));
+			records.put(squares + i, records.get(squares + i) + records.get(otherSquares + i));
+		}
+
+		double size = records.get(base + 1) + records.get(otherBase + 1);
+		records.put(base + 1, size);
+		return size;
+	}
+
+
+	@Override
+	void addTimestamps(int slot, double sumOfTimestamps, double sumOfSquaresOfTimestamps){
+
+		int base = slot * stride;
+		records.put(base + 2, records.get(base + 2) + sumOfTimestamps);
+		records.put(base + 3, records.get(base + 3) + sumOfSquaresOfTimestamps);
+
+	}
+
+
+	@Override
+	void scale(int slot, double factor){
+
+		// every cluster feature but the id
+		int base = slot * stride;
+		for (int i = 1; i < stride; i++){
+			records.put(base + i, records.get(base + i) * factor);
+		}
+
+	}
+
+
+	/**
+	 * Write the number of slots in use to the header and, for a mapped file, force the buffer out to the file.
+	 */
+	@Override
+	void flush(int count){
+
+		buffer.putInt(COUNT_POSITION, count);
+		if (buffer instanceof MappedByteBuffer) ((MappedByteBuffer)buffer).force();
+
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	// A buffer with room for the header and the given number of slots, mapped on the file if there is one
+	private ByteBuffer allocate(int capacity){
+
+		long bytes = HEADER_BYTES + (long)capacity * stride * 8;
+		if (bytes > Integer.MAX_VALUE){
+			throw new IllegalStateException("A micro-cluster store buffer cannot hold " + capacity + " micro-clusters of dimension " + dimension + ".");
+		}
+
+		if (file == null) return ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder());
+
+		// the mapping stays valid once the file is closed
+		try (RandomAccessFile _file = new RandomAccessFile(file, "rw")){
+			return _file.getChannel().map(MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+		}catch(IOException ex){
+			throw new IllegalStateException("Cannot map the micro-cluster store file " + file + ".", ex);
+		}
+
+	}
+
+
+	private static DoubleBuffer records(ByteBuffer buffer){
+
+		ByteBuffer records = buffer.duplicate();
+		records.position(HEADER_BYTES);
+		return records.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+
+	}
+
+}
@@ -0,0 +1,582 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the two closest micro-clusters, so that CluStream can find the pair to merge without comparing
+ * every micro-cluster against every other one. The nearest neighbour distance of each micro-cluster is also what
+ * CluStream takes as the maximum boundary of a micro-cluster holding a single point.
+ *
+ * Each micro-cluster holds a pointer to its nearest neighbour and the distance to it, and the pointers are kept up to
+ * date as the model changes:
+ * <ul>
+ * <li>a micro-cluster that moved (or is new) has its own nearest neighbour recomputed, and becomes the nearest
+ * neighbour of any micro-cluster it is now closer to;</li>
+ * <li>a micro-cluster whose nearest neighbour moved away or was removed has its nearest neighbour recomputed.</li>
+ * </ul>
+ * The micro-clusters pointing at each micro-cluster are chained in a list, so those left without a valid nearest
+ * neighbour are found without looking at the others, and the micro-clusters are kept in a heap on the distance to
+ * their nearest neighbour. Comparing each micro-cluster with every other one, a change costs O(q.d), plus O(q.d) for
+ * each micro-cluster left without a valid nearest neighbour, rather than O(q^2.d) for a full search; looking up the
+ * nearest neighbour distance of a micro-cluster or the closest pair costs O(1).
+ *
+ * Given the {@link NSWNearestClusterSearch} of the model, the nearest neighbours are approximate and no change scans
+ * the micro-clusters: the nearest neighbour of a micro-cluster is the one found by searching the graph, and a
+ * micro-cluster that moved or is new becomes the nearest neighbour only of the micro-clusters it is linked with in the
+ * graph. A change then costs a graph search for the micro-cluster and for each micro-cluster left without a valid
+ * nearest neighbour, plus O(d) for each of its links, and the cost per change grows with the size of the graph search
+ * rather than with q. The closest pair is the closest of the approximate pairs.
+ *
+ * @author melissam
+ *
+ */
+public class ClosestPairTracker {
+
+	/** Initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Micro-cluster held in each slot, null if the slot is free. */
+	private MicroCluster[] items;
+
+	/** Center of the micro-cluster in each slot, as of its last change. */
+	private double[][] centers;
+
+	/** Slot of the nearest neighbour of each slot, -1 if there is none. */
+	private int[] nearest;
+
+	/** Distance to the nearest neighbour of each slot. */
+	private double[] nearestDistance;
+
+	/**
+	 * The slots whose nearest neighbour is each slot, as a doubly linked list through the slots: the first slot
+	 * pointing at each slot, and the next and previous slots pointing at the same slot, -1 for none.
+	 */
+	private int[] pointedFirst;
+	private int[] pointedNext;
+	private int[] pointedPrevious;
+
+	/** Whether the nearest neighbour of the slot has to be recomputed. */
+	private boolean[] stale;
+
+	/** Slots whose nearest neighbour has to be recomputed. */
+	private int[] staleSlots;
+	private int staleCount;
+
+	/** The live slots, as a binary heap on the distance to their nearest neighbour, and the position of each slot in it. */
+	private int[] heap;
+	private int[] heapIndex;
+	private int heapSize;
+
+	/** Slot of each micro-cluster. */
+	private Map<MicroCluster, Integer> slots;
+
+	/** Number of slots that have ever been used. */
+	private int slotCount;
+
+	/** Slots that can be reused. */
+	private int[] freeSlots;
+	private int freeCount;
+
+	/**
+	 * Slots freed since the last lookup, which are only reused after it, so that the slots, and the micro-cluster
+	 * picked from pairs at the same distance, are the same as if the pointers were only brought up to date on lookup.
+	 */
+	private int[] releasedSlots;
+	private int releasedCount;
+
+	/** The graph to search for nearest neighbours, null to compare each micro-cluster with every other one. */
+	private final NSWNearestClusterSearch search;
+
+	/** Scratch space for the micro-clusters linked with a micro-cluster in the graph. */
+	private MicroCluster[] neighbours;
+
+	/** The closest pair found by the last call to {@link #findClosestPair()}. */
+	private MicroCluster first;
+	private MicroCluster second;
+	private double distance;
+
+
+	/**
+	 * Creates a tracker of the exact nearest neighbours, comparing each micro-cluster that changes with every other one.
+	 */
+	public ClosestPairTracker(){
+		this(null);
+	}
+
+
+	/**
+	 * Creates a tracker of approximate nearest neighbours found by searching a graph of the micro-clusters, which must
+	 * be told of each change before the tracker.
+	 *
+	 * @param search	The graph of the micro-clusters, null to compare each micro-cluster with every other one.
+	 */
+	public ClosestPairTracker(NSWNearestClusterSearch search){
+
+		this.search = search;
+		this.neighbours = new MicroCluster[4 * NSWNearestClusterSearch.DEFAULT_CONNECTIONS];
+
+		this.items = new MicroCluster[INITIAL_CAPACITY];
+		this.centers = new double[INITIAL_CAPACITY][];
+		this.nearest = new int[INITIAL_CAPACITY];
+		this.nearestDistance = new double[INITIAL_CAPACITY];
+		this.pointedFirst = new int[INITIAL_CAPACITY];
+		this.pointedNext = new int[INITIAL_CAPACITY];
+		this.pointedPrevious = new int[INITIAL_CAPACITY];
+		this.stale = new boolean[INITIAL_CAPACITY];
+		this.staleSlots = new int[INITIAL_CAPACITY];
+		this.heap = new int[INITIAL_CAPACITY];
+		this.heapIndex = new int[INITIAL_CAPACITY];
+		this.freeSlots = new int[INITIAL_CAPACITY];
+		this.releasedSlots = new int[INITIAL_CAPACITY];
+
+		this.slots = new IdentityHashMap<MicroCluster, Integer>();
+
+	}
+
+
+	/**
+	 * A micro-cluster has been added to the model.
+	 *
+	 * @param cluster The new micro-cluster.
+	 */
+	public void add(MicroCluster cluster){
+
+		int slot = allocateSlot();
+
+		items[slot] = cluster;
+		if (centers[slot] == null) centers[slot] = new double[cluster.getDimension()];
+		nearest[slot] = -1;
+		nearestDistance[slot] = Double.MAX_VALUE;
+		pointedFirst[slot] = -1;
+		stale[slot] = false;
+		slots.put(cluster, slot);
+
+		heapIndex[slot] = heapSize;
+		heap[heapSize++] = slot;
+		siftUp(heapIndex[slot]);
+
+		cluster.getCenter(centers[slot]);
+		moved(slot);
+
+	}
+
+
+	/**
+	 * A micro-cluster has been removed from the model.
+	 *
+	 * @param cluster The micro-cluster that was deleted or merged into another one.
+	 */
+	public void remove(MicroCluster cluster){
+
+		Integer _slot = slots.remove(cluster);
+		if (_slot == null) return;
+
+		int slot = _slot;
+		items[slot] = null;
+		heapRemove(slot);
+		setNearest(slot, -1, Double.MAX_VALUE);
+
+		// the micro-clusters which had it as their nearest neighbour need a new one
+		for (int other = pointedFirst[slot]; other != -1; other = pointedNext[other]){
+			markStale(other);
+		}
+		repairStale();
+
+		releasedSlots[releasedCount++] = slot;
+
+	}
+
+
+	/**
+	 * The centroid of a micro-cluster has moved.
+	 *
+	 * @param cluster The micro-cluster that absorbed a point or another micro-cluster.
+	 */
+	public void update(MicroCluster cluster){
+
+		Integer _slot = slots.get(cluster);
+		if (_slot == null) return;
+
+		int slot = _slot;
+		cluster.getCenter(centers[slot]);
+		moved(slot);
+
+	}
+
+
+	/**
+	 * Find the two closest micro-clusters, which is the micro-cluster closest to its nearest neighbour.
+	 *
+	 * @return true if a pair was found, false if there are less than 2 micro-clusters.
+	 */
+	public boolean findClosestPair(){
+
+		releaseSlots();
+
+		if (heapSize == 0 || nearest[heap[0]] == -1){
+			first = second = null;
+			distance = Double.MAX_VALUE;
+			return false;
+		}
+
+		int closest = heap[0];
+		first = items[closest];
+		second = items[nearest[closest]];
+		distance = nearestDistance[closest];
+		return true;
+
+	}
+
+
+	/**
+	 * Returns the distance from a micro-cluster to its nearest other micro-cluster, which is kept up to date as the
+	 * micro-clusters change, so the lookup is O(1).
+	 *
+	 * @param cluster	A micro-cluster in the model.
+	 * @return The distance to the nearest other micro-cluster, Double.MAX_VALUE if there is none.
+	 */
+	public double getNearestDistance(MicroCluster cluster){
+
+		Integer slot = slots.get(cluster);
+		if (slot == null) return Double.MAX_VALUE;
+
+		releaseSlots();
+		return nearest[slot] != -1 ? nearestDistance[slot] : Double.MAX_VALUE;
+
+	}
+
+
+	/**
+	 * Returns the first micro-cluster of the closest pair.
+	 * @return The first micro-cluster of the closest pair.
+	 */
+	public MicroCluster getFirst(){
+		return first;
+	}
+
+
+	/**
+	 * Returns the second micro-cluster of the closest pair.
+	 * @return The second micro-cluster of the closest pair.
+	 */
+	public MicroCluster getSecond(){
+		return second;
+	}
+
+
+	/**
+	 * Returns the distance between the closest pair of micro-clusters.
+	 * @return The distance between the closest pair of micro-clusters.
+	 */
+	public double getDistance(){
+		return distance;
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	/**
+	 * A slot moved, or is new: find its nearest neighbour, make it the nearest neighbour of any slot it is now closer
+	 * to, and find new nearest neighbours for the slots it moved away from.
+	 */
+	private void moved(int slot){
+
+		if (search != null){
+			movedInGraph(slot);
+			return;
+		}
+
+		double[] center = centers[slot];
+
+		int _nearest = -1;
+		double _nearestDistance = Double.MAX_VALUE;
+
+		for (int other = 0; other < slotCount; other++){
+
+			if (other == slot || items[other] == null) continue;
+
+			double d = distance(center, centers[other]);
+
+			if (d < _nearestDistance){
+				_nearestDistance = d;
+				_nearest = other;
+			}
+
+			if (d < nearestDistance[other]){
+				setNearest(other, slot, d);
+			}else if (nearest[other] == slot && d > nearestDistance[other]){
+				// the micro-cluster moved away, so something else may be closer now
+				markStale(other);
+			}
+		}
+
+		setNearest(slot, _nearest, _nearestDistance);
+		repairStale();
+
+	}
+
+
+	/**
+	 * A slot moved, or is new, with the nearest neighbours found in the graph: the slots pointing at it are still
+	 * pointing at their nearest neighbour if it came closer, the slots it is linked with are pointed at it if it is now
+	 * their nearest neighbour, and it is pointed at the nearest neighbour found by searching the graph.
+	 */
+	private void movedInGraph(int slot){
+
+		double[] center = centers[slot];
+
+		for (int other = pointedFirst[slot]; other != -1; other = pointedNext[other]){
+			double d = distance(centers[other], center);
+			if (d > nearestDistance[other]) markStale(other);
+			else setNearest(other, slot, d);
+		}
+
+		int count = search.getNeighbours(items[slot], neighbours);
+		if (count > neighbours.length){
+			neighbours = new MicroCluster[Math.max(count, 2 * neighbours.length)];
+			count = search.getNeighbours(items[slot], neighbours);
+		}
+
+		for (int i = 0; i < count; i++){
+			Integer other = slots.get(neighbours[i]);
+			neighbours[i] = null;
+			if (other == null || other == slot) continue;
+
+			double d = distance(centers[other], center);
+			if (d < nearestDistance[other]) setNearest(other, slot, d);
+		}
+
+		searchNearest(slot);
+		repairStale();
+
+	}
+
+
+	// Point a slot at the nearest other micro-cluster found in the graph, and point that one back if it is closer
+	private void searchNearest(int slot){
+
+		MicroCluster cluster = search.nearestOther(items[slot], centers[slot]);
+		Integer other = cluster != null ? slots.get(cluster) : null;
+
+		if (other == null){
+			setNearest(slot, -1, Double.MAX_VALUE);
+			return;
+		}
+
+		double d = distance(centers[slot], centers[other]);
+		setNearest(slot, other, d);
+		if (d < nearestDistance[other]) setNearest(other, slot, d);
+
+	}
+
+
+	// Point a slot at its nearest neighbour, moving it from the list of the slots pointing at the old one
+	private void setNearest(int slot, int neighbour, double d){
+
+		int previous = nearest[slot];
+		if (previous != neighbour){
+
+			if (previous != -1){
+				int next = pointedNext[slot];
+				int before = pointedPrevious[slot];
+				if (before != -1) pointedNext[before] = next;
+				else pointedFirst[previous] = next;
+				if (next != -1) pointedPrevious[next] = before;
+			}
+
+			nearest[slot] = neighbour;
+
+			if (neighbour != -1){
+				int next = pointedFirst[neighbour];
+				pointedNext[slot] = next;
+				pointedPrevious[slot] = -1;
+				if (next != -1) pointedPrevious[next] = slot;
+				pointedFirst[neighbour] = slot;
+			}
+		}
+
+		double old = nearestDistance[slot];
+		nearestDistance[slot] = d;
+
+		int position = heapIndex[slot];
+		if (position != -1){
+			if (d < old) siftUp(position);
+			else if (d > old) siftDown(position);
+		}
+
+	}
+
+
+	private void releaseSlots(){
+
+		for (int i = 0; i < releasedCount; i++){
+			freeSlots[freeCount++] = releasedSlots[i];
+		}
+		releasedCount = 0;
+
+	}
+
+
+	private void markStale(int slot){
+
+		if (!stale[slot]){
+			stale[slot] = true;
+			staleSlots[staleCount++] = slot;
+		}
+
+	}
+
+
+	// Recompute the nearest neighbours which are no longer valid
+	private void repairStale(){
+
+		while (staleCount > 0){
+			int slot = staleSlots[--staleCount];
+			stale[slot] = false;
+			if (items[slot] != null) recompute(slot);
+		}
+
+	}
+
+
+	private void recompute(int slot){
+
+		if (search != null){
+			searchNearest(slot);
+			return;
+		}
+
+		double[] center = centers[slot];
+
+		int _nearest = -1;
+		double _nearestDistance = Double.MAX_VALUE;
+
+		for (int other = 0; other < slotCount; other++){
+
+			if (other == slot || items[other] == null) continue;
+
+			double d = distance(center, centers[other]);
+			if (d < _nearestDistance){
+				_nearestDistance = d;
+				_nearest = other;
+			}
+		}
+
+		setNearest(slot, _nearest, _nearestDistance);
+
+	}
+
+
+	// Whether a slot comes before another in the heap: closer to its nearest neighbour, or the lower slot on a tie
+	private boolean before(int slot, int other){
+		return nearestDistance[slot] < nearestDistance[other] || (nearestDistance[slot] == nearestDistance[other] && slot < other);
+	}
+
+
+	private void siftUp(int position){
+
+		int slot = heap[position];
+		while (position > 0){
+			int parent = (position - 1) >>> 1;
+			if (!before(slot, heap[parent])) break;
+			heap[position] = heap[parent];
+			heapIndex[heap[position]] = position;
+			position = parent;
+		}
+		heap[position] = slot;
+		heapIndex[slot] = position;
+
+	}
+
+
+	private void siftDown(int position){
+
+		int slot = heap[position];
+		while (true){
+			int child = 2 * position + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) ++child;
+			if (!before(heap[child], slot)) break;
+			heap[position] = heap[child];
+			heapIndex[heap[position]] = position;
+			position = child;
+		}
+		heap[position] = slot;
+		heapIndex[slot] = position;
+
+	}
+
+
+	private void heapRemove(int slot){
+
+		int position = heapIndex[slot];
+		heapIndex[slot] = -1;
+
+		int last = heap[--heapSize];
+		if (position == heapSize) return;
+
+		heap[position] = last;
+		heapIndex[last] = position;
+		siftUp(position);
+		siftDown(heapIndex[last]);
+
+	}
+
+
+	private int allocateSlot(){
+
+		if (freeCount > 0) return freeSlots[--freeCount];
+
+		if (slotCount == items.length){
+
+			int capacity = items.length * 2;
+
+			MicroCluster[] _items = new MicroCluster[capacity];
+			System.arraycopy(items, 0, _items, 0, slotCount);
+			items = _items;
+
+			double[][] _centers = new double[capacity][];
+			System.arraycopy(centers, 0, _centers, 0, slotCount);
+			centers = _centers;
+
+			nearest = grow(nearest, capacity, slotCount);
+
+			double[] _nearestDistance = new double[capacity];
+			System.arraycopy(nearestDistance, 0, _nearestDistance, 0, slotCount);
+			nearestDistance = _nearestDistance;
+
+			pointedFirst = grow(pointedFirst, capacity, slotCount);
+			pointedNext = grow(pointedNext, capacity, slotCount);
+			pointedPrevious = grow(pointedPrevious, capacity, slotCount);
+
+			boolean[] _stale = new boolean[capacity];
+			System.arraycopy(stale, 0, _stale, 0, slotCount);
+			stale = _stale;
+
+			staleSlots = grow(staleSlots, capacity, staleCount);
+			heap = grow(heap, capacity, heapSize);
+			heapIndex = grow(heapIndex, capacity, slotCount);
+			freeSlots = grow(freeSlots, capacity, freeCount);
+			releasedSlots = grow(releasedSlots, capacity, releasedCount);
+		}
+
+		return slotCount++;
+
+	}
+
+
+	private static int[] grow(int[] array, int capacity, int used){
+
+		int[] _array = new int[capacity];
+		System.arraycopy(array, 0, _array, 0, used);
+		return _array;
+
+	}
+
+
+	private static double distance(double[] p1, double[] p2){
+		return DistanceKernels.distance(p1, p2);
+	}
+
+}
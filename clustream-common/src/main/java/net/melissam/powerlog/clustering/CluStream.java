@@ -1,13 +1,20 @@
 package net.melissam.powerlog.clustering;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
 
-import net.melissam.powerlog.utils.MathUtils;
+import net.melissam.powerlog.utils.StreamListener;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,7 +27,7 @@ import com.google.gson.Gson;
  * @author melissam
  *
  */
-public class CluStream{
+public class CluStream implements OnlineClusterer{
 
 	/** Maximum number of clusters to exist at any given time. */
 	private int maxClusters;
@@ -34,27 +41,158 @@ public class CluStream{
 	/** Create clusters. */
 	private List<MicroCluster> clusters;
 	
+	/** Cluster feature state of the micro-clusters, laid out contiguously. Created at initialisation. */
+	private MicroClusterStore store;
+	
 	/** Threshold to use for chosing which micro-clusters can be eliminated. */
 	private int relevanceThreshold;
 	
 	/** Timestamp to keep track of after initialisation. */
 	private long timestamp;
 	
-	/** The points to initialise clusters on. */
+	/** Whether the learner stamps each feature vector with its own clock, or uses the timestamps it is given. */
+	private boolean assignTimestamps;
+	
+	/** The points to initialise clusters on, created when the first one arrives and dropped after initialisation. */
 	private List<FeatureVector> initialisationPoints;
 	
+	/** How the first micro-clusters are created. */
+	private InitialisationType initialisationType;
+	
+	/** Distance from its center within which a micro-cluster takes in points whilst seeding online. */
+	private double seedRadius;
+	
 	/** The number of points to use for initialisation. */
 	private int initNumber;
 	
 	/** Whether the clusters have been initialised or not. */
 	private boolean initialised;
 	
+	/** Whether the initial k-means runs on a background thread rather than holding up the point that triggers it. */
+	private boolean backgroundInitialisation;
+	
+	/** The initial k-means running in the background, null if it is not running. */
+	private FutureTask<List<MicroCluster>> initialisation;
+	
+	/** The k-means clusterer run by the background initialisation, which holds the initial placements. */
+	private CluStreamKMeansClusterer initialisationClusterer;
+	
+	/** Points which arrived while the clusters were initialised in the background, in order, not yet placed. */
+	private ArrayDeque<FeatureVector> bufferedPoints;
+	
+	/** Number of buffered points placed for every point that arrives, once the background initialisation is done. */
+	private static final int BUFFERED_POINTS_PER_POINT = 4;
+	
 	/** Number of features received. */
 	private int numFeatures;
 	
 	/** Cluster sequence number, serves as id. */
 	private int clusterSequence;
 	
+	/** Ids are given as sequence number * idMultiplier + idOffset, so that the ids of several learners do not collide. */
+	private int idMultiplier;
+	private int idOffset;
+	
+	/** The type of search used to find the closest micro-cluster to a point. */
+	private NearestClusterSearchType nearestClusterSearchType;
+	
+	/** Finds the closest micro-cluster to a point. */
+	private NearestClusterSearch nearestClusterSearch;
+	
+	/** Number of closest micro-clusters an approximate search keeps, which sets its recall. */
+	private int searchWidth;
+	
+	/** Keeps track of the closest pair of micro-clusters for merging. */
+	private ClosestPairTracker closestPairTracker;
+	
+	/** Micro-clusters ordered by relevance stamp, for finding the eldest one. Null when evicting by sweeps. */
+	private RelevanceStampHeap relevanceStampHeap;
+	
+	/** Time units between sweeps evicting all the micro-clusters which are no longer relevant, 0 to evict one at a time. */
+	private int evictionInterval;
+	
+	/** Timestamp from which the next sweep is due. */
+	private long nextSweep;
+	
+	/** Whether online seeding is over, after which micro-clusters dropped by a sweep are not seeded again. */
+	private boolean seeded;
+	
+	/** Placements of the last point, reused so that clustering a point does not allocate. */
+	private Placements placement;
+	
+	/** Whether placements are collected in the placement map, false when points are only reported to the listener. */
+	private boolean collectPlacements;
+	
+	/** Told about every point received and placed, may be null. */
+	private StreamListener streamListener;
+	
+	/** Scratch space for the coordinates of the point being clustered. */
+	private double[] point;
+	
+	
+	/** Number of points of a batch whose distances are computed together. */
+	private static final int BATCH_BLOCK_SIZE = 1024;
+	
+	/** Pool used to compute the distances of a batch in parallel. */
+	private ForkJoinPool batchPool;
+	
+	/** Points of the current block, one after the other. */
+	private double[] batchPoints;
+	
+	/** Order of the dimensions the distances of the current block are added up in. */
+	private int[] batchOrder;
+	
+	/** Squared distance of each point of the current block to each micro-cluster center, as the store compares them. */
+	private double[] batchDistances;
+	
+	/** Micro-cluster of each column of the distance matrix. */
+	private MicroCluster[] batchColumns;
+	
+	/** Column of each micro-cluster in the distance matrix. */
+	private Map<MicroCluster, Integer> batchColumnIndex = new IdentityHashMap<MicroCluster, Integer>();
+	
+	/** Whether the micro-cluster of a column has changed since the distances were computed. */
+	private boolean[] batchColumnChanged;
+	
+	/** Micro-clusters which changed, or were created, while placing the current block. */
+	private List<MicroCluster> batchChangedClusters = new ArrayList<MicroCluster>();
+	
+	/** Whether a block is being placed. */
+	private boolean batching;
+	
+	/** The last version of the model published. */
+	private volatile ModelSnapshot published;
+	
+	/** Number of versions of the model published. */
+	private long snapshotVersion;
+	
+	/** Publish a version of the model after this many points, 0 to only publish when asked. */
+	private int snapshotInterval;
+	
+	/** Points clustered since the last version was published. */
+	private int pointsSinceSnapshot;
+	
+	/** Rate at which the points of the micro-clusters fade, 0 if they do not, see {@link DecayingMicroCluster}. */
+	private double decayRate;
+	
+	/** Largest number of ids kept in the lineage of a micro-cluster, 0 for no limit. */
+	private int lineageCap;
+	
+	/** Keeps the ids taken out of lineages, may be null. */
+	private LineageStore lineageStore;
+	
+	/** Precision the centroids of the micro-clusters are kept in. */
+	private StoragePrecision storagePrecision;
+	
+	/** Memory the cluster features of the micro-clusters are kept in. */
+	private StorageBacking storageBacking;
+	
+	/** File the cluster features are mapped on, for a mapped backing. */
+	private File storageFile;
+	
+	/** Whether other threads absorb points into the store concurrently, see {@link ConcurrentCluStream}. */
+	private boolean concurrent;
+	
 	/** Class logger. */
 	private static final Logger LOG = LogManager.getLogger(CluStream.class);
 		
@@ -76,155 +214,1101 @@ public class CluStream{
 		this.clusters = new ArrayList<MicroCluster>();
 		
 		this.timestamp = 0;
+		this.assignTimestamps = true;
 		this.relevanceThreshold = relevanceThreshold;
 		
 		// initialisation properties
 		this.initNumber = initNumber;
-		this.initialisationPoints = new ArrayList<FeatureVector>(initNumber); 
+		this.initialisationType = InitialisationType.KMEANS;
+		this.seedRadius = 0.0;
+		this.backgroundInitialisation = false;
+		this.bufferedPoints = new ArrayDeque<FeatureVector>();
 		
 		this.numFeatures = 0;
 		this.clusterSequence = 0;
+		this.idMultiplier = 1;
+		this.idOffset = 0;
+		
+		// the search is created at initialisation, once the dimension of the points is known
+		this.nearestClusterSearchType = NearestClusterSearchType.LINEAR;
+		this.storagePrecision = StoragePrecision.DOUBLE;
+		this.storageBacking = StorageBacking.HEAP;
+		this.searchWidth = NSWNearestClusterSearch.DEFAULT_SEARCH_WIDTH;
+		
+		this.closestPairTracker = new ClosestPairTracker();
+		this.relevanceStampHeap = new RelevanceStampHeap();
+		this.placement = new Placements();
+		this.published = ModelSnapshot.EMPTY;
 
 	}
 	
 	
+	/**
+	 * Choose how the closest micro-cluster to a point is found. Must be called before the clusters are initialised.
+	 * 
+	 * @param type	The type of nearest micro-cluster search to use.
+	 */
+	@Override
+	public void setNearestClusterSearchType(NearestClusterSearchType type){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The nearest cluster search cannot be changed after initialisation.");
+		}
+		
+		this.nearestClusterSearchType = type;
+		
+	}
+	
+	
+	/**
+	 * Set the number of closest micro-clusters the approximate {@link NearestClusterSearchType#NSW} search keeps while 
+	 * searching. Wider searches miss the nearest micro-cluster less often but compute more distances.
+	 * 
+	 * @param searchWidth	The search width.
+	 */
+	@Override
+	public void setSearchWidth(int searchWidth){
+		
+		this.searchWidth = searchWidth;
+		if (nearestClusterSearch instanceof NSWNearestClusterSearch){
+			((NSWNearestClusterSearch)nearestClusterSearch).setSearchWidth(searchWidth);
+		}
+		
+	}
+	
+	
+	/**
+	 * Returns the type of search used to find the closest micro-cluster to a point.
+	 * @return The type of nearest micro-cluster search.
+	 */
+	@Override
+	public NearestClusterSearchType getNearestClusterSearchType(){
+		return this.nearestClusterSearchType;
+	}
+	
+	
+	/**
+	 * Choose how the first micro-clusters are created. Must be called before the first point is clustered.
+	 * 
+	 * With {@link InitialisationType#KMEANS} (the default) the first initNumber points are buffered and clustered with 
+	 * k-means. With {@link InitialisationType#ONLINE} nothing is buffered and the first point is placed straight away: 
+	 * until there are maxClusters micro-clusters, a point joins the closest micro-cluster if it is within the seed 
+	 * radius of its center and otherwise starts a new one. From then on the usual maximal boundary, deletion and merging 
+	 * refine the seeded micro-clusters.
+	 * 
+	 * @param initialisationType	How the first micro-clusters are created.
+	 */
+	@Override
+	public void setInitialisationType(InitialisationType initialisationType){
+		
+		if (initialised || initialisation != null || initialisationPoints != null){
+			throw new IllegalStateException("The initialisation cannot be changed after it has started.");
+		}
+		
+		this.initialisationType = initialisationType;
+		
+	}
+	
+	
+	/**
+	 * Returns how the first micro-clusters are created.
+	 * @return The initialisation type.
+	 */
+	@Override
+	public InitialisationType getInitialisationType(){
+		return this.initialisationType;
+	}
+	
+	
+	/**
+	 * Set the distance from its center within which a micro-cluster takes in points whilst seeding online. 
+	 * With the default of 0 each of the first maxClusters distinct points seeds its own micro-cluster.
+	 * 
+	 * @param seedRadius	The seed radius.
+	 */
+	@Override
+	public void setSeedRadius(double seedRadius){
+		this.seedRadius = seedRadius;
+	}
+	
+	
+	/**
+	 * Choose whether the initial k-means runs on a background thread (false by default). 
+	 * 
+	 * When it does, the points which arrive while it runs are buffered rather than placed, and are reported as placed 
+	 * once the initial micro-clusters are in. The buffered points are then placed a few at a time, ahead of each point 
+	 * that arrives, so neither the initialisation nor catching up holds up the stream. Until they have all been placed 
+	 * the points are taken one at a time, batches included. {@link #awaitInitialisation()} places them all at once.
+	 * 
+	 * @param backgroundInitialisation	true to run the initial k-means on a background thread.
+	 */
+	@Override
+	public void setBackgroundInitialisation(boolean backgroundInitialisation){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The initialisation cannot be changed after it has started.");
+		}
+		
+		this.backgroundInitialisation = backgroundInitialisation;
+		
+	}
+	
+	
+	/**
+	 * Wait for the initial k-means running in the background to finish, and place all the points buffered meanwhile.
+	 * Does nothing if the clusters are not being initialised in the background. 
+	 */
+	@Override
+	public void awaitInitialisation(){
+		
+		if (initialisation != null){
+			
+			try{
+				
+				initialisation.get();
+				
+			}catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted whilst waiting for the initial micro-clusters.", ex);
+			}catch(ExecutionException ex){
+				throw new IllegalStateException("Error whilst creating the initial micro-clusters.", ex.getCause());
+			}
+			
+			finishInitialisation();
+		}
+		
+		placeBufferedPoints(bufferedPoints.size());
+		
+	}
+	
+	
+	/**
+	 * Set the rate at which the points of the micro-clusters fade (0, the default, for no fading). With a decay rate 
+	 * lambda the micro-clusters are {@link DecayingMicroCluster}s, in which a point which arrived dt time units ago 
+	 * weighs 2^(-lambda * dt), so old micro-clusters lose their weight even when nothing evicts them. The decay is only 
+	 * applied to a micro-cluster when it takes in a point or another micro-cluster. Published versions of the model 
+	 * hold micro-clusters decayed to the time they are published, so every micro-cluster which was not updated at that 
+	 * time is copied. Must be called before the clusters are initialised.
+	 * 
+	 * @param decayRate	The decay rate, 0 for no decay.
+	 */
+	@Override
+	public void setDecayRate(double decayRate){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The decay rate cannot be changed after initialisation.");
+		}
+		
+		this.decayRate = decayRate;
+		
+	}
+	
+	
+	/**
+	 * Choose how micro-clusters which are no longer relevant are evicted. Must be called before the clusters are 
+	 * initialised.
+	 * 
+	 * By default (an interval of 0) a point which starts a new micro-cluster evicts the micro-cluster with the eldest 
+	 * relevance stamp if it is below the relevance threshold, and otherwise makes room by merging the 2 closest 
+	 * micro-clusters. This needs the micro-clusters kept in order of relevance stamp as they change.
+	 * 
+	 * With an interval, a single sweep every interval time units (points, unless the learner is given timestamps) 
+	 * evicts all the micro-clusters whose relevance stamp is below the threshold at once, and nothing is kept in order 
+	 * of relevance stamp in between. The room they leave is taken by the next points which start new micro-clusters, 
+	 * in the slots they freed in the store, and points only make room by merging once it is full again. 
+	 * 
+	 * @param evictionInterval	The number of time units between sweeps, 0 to evict one micro-cluster at a time.
+	 */
+	@Override
+	public void setEvictionInterval(int evictionInterval){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The eviction cannot be changed after initialisation.");
+		}
+		
+		this.evictionInterval = evictionInterval;
+		this.relevanceStampHeap = evictionInterval > 0 ? null : new RelevanceStampHeap();
+		
+	}
+	
+	
+	/**
+	 * Bound the lineage of the micro-clusters, the ids of the micro-clusters merged into each one (see {@link Lineage}). 
+	 * When a merge takes a lineage past the cap, its older ids are handed to the lineage store, if there is one, and only 
+	 * the micro-cluster's own id and the most recent ones are kept, so merging and sending micro-clusters costs no more 
+	 * as they merge over time.
+	 * 
+	 * @param lineageCap	The largest number of ids to keep in a lineage, 0 (the default) for no limit.
+	 */
+	@Override
+	public void setLineageCap(int lineageCap){
+		this.lineageCap = lineageCap;
+	}
+	
+	
+	/**
+	 * Set where the ids taken out of lineages bounded by the lineage cap are kept.
+	 * 
+	 * @param lineageStore	The lineage store, null to drop the ids.
+	 */
+	@Override
+	public void setLineageStore(LineageStore lineageStore){
+		this.lineageStore = lineageStore;
+	}
+	
+	
+	/**
+	 * Choose the precision the centroids of the micro-clusters are kept in (double, by default). Single precision halves 
+	 * the memory the nearest micro-cluster search streams through, at the cost of distances within 2^-24 times the norm 
+	 * of the centroid of the exact ones, see {@link MicroClusterStore}. The cluster features stay in double precision. 
+	 * Copies of the micro-clusters, such as those of a model snapshot, are then serialised in single precision too, 
+	 * which halves the size of the micro-clusters sent. Must be called before the clusters are initialised.
+	 * 
+	 * @param storagePrecision	The precision of the centroids.
+	 */
+	@Override
+	public void setStoragePrecision(StoragePrecision storagePrecision){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The storage precision cannot be changed after initialisation.");
+		}
+		
+		this.storagePrecision = storagePrecision;
+		
+	}
+	
+	
+	/**
+	 * Choose the memory the cluster features of the micro-clusters are kept in (the heap, by default). Kept in a direct 
+	 * buffer or a buffer mapped on a file, they add nothing to the heap for the garbage collector to go through, and the 
+	 * heap only holds the micro-clusters' centroids and their other state. Kept in a mapped file, they can be 
+	 * checkpointed by {@link #flush()}. Must be called before the clusters are initialised.
+	 * 
+	 * @param storageBacking	The memory to keep the cluster features in.
+	 * @param file				The file to map them on for {@link StorageBacking#MAPPED}, which is overwritten.
+	 */
+	@Override
+	public void setStorageBacking(StorageBacking storageBacking, File file){
+		
+		if (initialised || initialisation != null){
+			throw new IllegalStateException("The storage backing cannot be changed after initialisation.");
+		}
+		if (storageBacking == StorageBacking.MAPPED && file == null){
+			throw new IllegalArgumentException("A mapped storage backing needs a file.");
+		}
+		
+		this.storageBacking = storageBacking;
+		this.storageFile = file;
+		
+	}
+	
+	
+	/**
+	 * Choose whether the learner stamps each feature vector with the next tick of its own clock (the default), or 
+	 * uses the timestamp already set on the feature vector. The latter lets several learners share one clock.
+	 * 
+	 * @param assignTimestamps	false to use the timestamps of the feature vectors, which must not decrease.
+	 */
+	public void setAssignTimestamps(boolean assignTimestamps){
+		this.assignTimestamps = assignTimestamps;
+	}
+	
+	
 	/**
 	 * Cluster the given feature and return the cluster assignment.
 	 * 
+	 * Once the clusters are initialised, absorbing a point into an existing micro-cluster does not allocate. 
+	 * The returned map is reused and is only valid until the next call.
+	 * 
 	 * @param featureVector The feature vector to cluster.
-	 * @return	The cluster assignment for the feature.
+	 * @return	The cluster assignments made, null if the feature was kept for initialisation and nothing was placed.
 	 */
+	@Override
 	public Map<FeatureVector, Integer> cluster(FeatureVector featureVector) {
 		
 		// return a mapping of where the feature vector was placed
 		// we need to return a map so we can return the initial placements after kMeans clustering
-		Map<FeatureVector, Integer> placement = new HashMap<FeatureVector, Integer>();
+		placement.clear();
+		collectPlacements = true;
+		
+		// buffered points placed whilst this one is held back are still returned
+		boolean placed = clusterPoint(featureVector);
+		pointsClustered(1);
+		if (!placed && placement.isEmpty()){
+			return null;
+		}
+		
+		return placement;
+	}
+	
+	
+	@Override
+	public void setStreamListener(StreamListener streamListener){
+		this.streamListener = streamListener;
+	}
+	
+	
+	/**
+	 * Cluster the given feature, reporting where it was placed only to the stream listener.
+	 * 
+	 * @param featureVector The feature vector to cluster.
+	 * @return false if the feature was kept for initialisation.
+	 */
+	@Override
+	public boolean process(FeatureVector featureVector){
+		collectPlacements = false;
+		boolean placed = clusterPoint(featureVector);
+		pointsClustered(1);
+		return placed;
+	}
+	
+	
+	/**
+	 * Cluster a block of feature vectors and return their cluster assignments.
+	 * 
+	 * The distances of all the points to all the micro-clusters are computed in parallel, reading the centroids from the 
+	 * store as its linear search does, and the points are then placed one at a time, in order. A micro-cluster which 
+	 * changes while the block is being placed has its distance recomputed for the points that follow, so with the 
+	 * linear search the placements are the same as calling {@link #cluster(FeatureVector)} for each point, whatever the 
+	 * storage precision. The returned map is reused and is only valid until the next call.
+	 * 
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 * @return	The cluster assignments of the features, including the initial placements if the clusters were initialised. 
+	 */
+	@Override
+	public Map<FeatureVector, Integer> clusterBatch(List<FeatureVector> featureVectors){
+		
+		placement.clear();
+		collectPlacements = true;
+		
+		batch(featureVectors);
+		
+		return placement;
+	}
+	
+	
+	/**
+	 * Cluster a block of feature vectors as {@link #clusterBatch(List)} does, reporting where they were placed only 
+	 * to the stream listener.
+	 * 
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 */
+	@Override
+	public void processBatch(List<FeatureVector> featureVectors){
+		collectPlacements = false;
+		batch(featureVectors);
+	}
+	
+	
+	// Cluster a batch of points
+	private void batch(List<FeatureVector> featureVectors){
+		
+		// until the clusters are initialised, and the points buffered meanwhile are placed, the points are taken one at a time
+		int next = 0;
+		while (next < featureVectors.size() && (!initialised || !bufferedPoints.isEmpty())){
+			clusterPoint(featureVectors.get(next++));
+		}
+		
+		// bound the size of the distance matrix
+		while (next < featureVectors.size()){
+			int end = Math.min(featureVectors.size(), next + BATCH_BLOCK_SIZE);
+			clusterBlock(featureVectors, next, end);
+			next = end;
+		}
+		
+		pointsClustered(featureVectors.size());
+		
+	}
+	
+	/**
+	 * Return the current set of micro-clusters.
+	 * @return The current set of micro-clusters.
+	 */
+	@Override
+	public List<MicroCluster> getClusters(){
+		return this.clusters;
+	}
+	
+	
+	/**
+	 * Return a copy of the current set of micro-clusters which does not change as more points are clustered.
+	 * The live micro-clusters keep their cluster features in the learner's store, so this is what should be 
+	 * logged, serialised or sent. The copies are shared with the published versions of the model, see 
+	 * {@link #publish()}, so they must not be changed.
+	 * 
+	 * @return A copy of the current set of micro-clusters.
+	 */
+	@Override
+	public List<MicroCluster> snapshot(){
+		return publish().getClusters();
+	}
+	
+	
+	/**
+	 * Publish a new version of the model. Micro-clusters which have not changed since the last version keep the copy 
+	 * made then, so only the micro-clusters which absorbed points or were merged since are copied.
+	 * 
+	 * @return The new version of the model.
+	 */
+	@Override
+	public ModelSnapshot publish(){
+		
+		List<MicroCluster> copies = new ArrayList<MicroCluster>(clusters.size());
+		for (MicroCluster cluster : clusters){
+			copies.add(cluster.getPublishedCopy(timestamp));
+		}
+		
+		published = new ModelSnapshot(++snapshotVersion, timestamp, copies);
+		pointsSinceSnapshot = 0;
+		
+		return published;
+	}
+	
+	
+	@Override
+	public ModelSnapshot getSnapshot(){
+		return published;
+	}
+	
+	
+	@Override
+	public void setSnapshotInterval(int snapshotInterval){
+		this.snapshotInterval = snapshotInterval;
+	}
+	
+	
+	/**
+	 * Write the cluster features of the micro-clusters out to the file they are mapped on, so that it holds a checkpoint 
+	 * of them (see {@link MicroClusterStore#flush()}). Does nothing if they are not mapped on a file or the clusters 
+	 * are not initialised yet.
+	 */
+	@Override
+	public void flush(){
+		if (initialised) store.flush();
+	}
+	
+	
+	// Cluster a single point, returns false if the point was kept for initialisation
+	private boolean clusterPoint(FeatureVector featureVector){
 		
 		// let's choose a cluster to add this feature vector to
-		featureVector.setTimestamp(++timestamp);	
+		tick(featureVector);	
+		if (streamListener != null) streamListener.onItemReceived(featureVector);
+		
+		if (!initialised && initialisationType == InitialisationType.ONLINE){
+			
+			// the first point seeds the first micro-cluster
+			initialiseStore(featureVector.getDimension());
+			initialised = true;
+			placed(featureVector, addCluster(featureVector), PlacementAction.NEW, 0.0);
+			return true;
+		}
 		
 		if (!initialised){
 			
 			// first check if all initial clusters have been created
-			if (this.initialisationPoints.size() < initNumber){
+			if (initialisationPoints == null) initialisationPoints = new ArrayList<FeatureVector>(initNumber);
+			if (initialisation == null && this.initialisationPoints.size() < initNumber){
 				initialisationPoints.add(featureVector);
 				LOG.debug("featurevector={} will be used for initialisation.", featureVector.getId());
-				return null;
+				return false;
 			}
 		
-			// otherwise let's use a kmeans algorithm on the initial clusters
-			CluStreamKMeansClusterer kmeans = new CluStreamKMeansClusterer(t, m);
-			clusters.addAll(kmeans.cluster(initialisationPoints, maxClusters));		
-			clusterSequence = clusters.get(clusters.size()-1).getIdList().get(0);			
-			placement.putAll(kmeans.getPlacements());
-			
-			initialised = true;
-			
-			LOG.info("{} clusters initialised.", this.clusters.size());
-			LOG.info("initialClusters={}", new Gson().toJson(this.clusters));
+			if (!backgroundInitialisation){
+				
+				// otherwise let's use a kmeans algorithm on the initial clusters
+				CluStreamKMeansClusterer kmeans = new CluStreamKMeansClusterer(t, m);
+				initialise(kmeans, createInitialClusters(kmeans));
+				
+			}else{
+				
+				// hold the point back until the initial clusters are in
+				if (initialisation == null) startInitialisation();
+				
+				if (!initialisation.isDone()){
+					bufferedPoints.add(featureVector);
+					return false;
+				}
+				finishInitialisation();
+			}
 		
 		}				
 		
-		// keep track of the distance of the feature vector to each cluster
-		TreeMap<Double, MicroCluster> distances = new TreeMap<Double, MicroCluster>();
-		// compute the distances
-		for(MicroCluster cluster : clusters){			
-			distances.put(cluster.getDistance(featureVector.getPoint()), cluster);
+		// points buffered during initialisation are placed first, so the points are still placed in order of arrival
+		if (!bufferedPoints.isEmpty()){
+			bufferedPoints.add(featureVector);
+			placeBufferedPoints(BUFFERED_POINTS_PER_POINT);
+			return bufferedPoints.isEmpty();
 		}
 		
 		// take the closest micro-cluster
-		Entry<Double, MicroCluster> closest = distances.firstEntry();
+		sweepIfDue(featureVector);
+		MicroCluster closest = nearestClusterSearch.nearest(featureVector.getValues());
+		place(featureVector, closest, nearestClusterSearch.getNearestDistance());
 		
-		double radius = 0.0;
-		if (closest.getValue().getSize() == 0){
+		return true;
+	}
+	
+	
+	// Run the initial k-means on the initialisation points and log the initial clusters
+	private List<MicroCluster> createInitialClusters(CluStreamKMeansClusterer kmeans){
+		
+		List<MicroCluster> initialClusters = kmeans.cluster(initialisationPoints, maxClusters);
+		
+		LOG.info("{} clusters initialised.", initialClusters.size());
+		LOG.info("initialClusters={}", new Gson().toJson(initialClusters));
+		
+		return initialClusters;
+	}
+	
+	
+	// Start the initial k-means on a background thread
+	private void startInitialisation(){
+		
+		initialisationClusterer = new CluStreamKMeansClusterer(t, m);
+		initialisation = new FutureTask<List<MicroCluster>>(new Callable<List<MicroCluster>>(){
+			@Override
+			public List<MicroCluster> call(){
+				return createInitialClusters(initialisationClusterer);
+			}
+		});
+		
+		Thread thread = new Thread(initialisation, "clustream-initialisation");
+		thread.setDaemon(true);
+		thread.start();
+		
+		LOG.debug("Initialising {} clusters in the background.", maxClusters);
+	}
+	
+	
+	// Switch to the micro-clusters created by the background k-means, which must be done
+	private void finishInitialisation(){
+		
+		try{
 			
-			// take the radius to be the distance to the nearest neighbour
+			initialise(initialisationClusterer, initialisation.get());
 			
-			radius = Double.MAX_VALUE;
-			double[] center = closest.getValue().getCenter();
-			for ( MicroCluster cluster : clusters ) {
-				
-				if ( cluster == closest ) {
-					continue;
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted whilst waiting for the initial micro-clusters.", ex);
+		}catch(ExecutionException ex){
+			throw new IllegalStateException("Error whilst creating the initial micro-clusters.", ex.getCause());
+		}
+		
+		initialisation = null;
+		initialisationClusterer = null;
+	}
+	
+	
+	// Take in the initial micro-clusters and report the initial placements
+	private void initialise(CluStreamKMeansClusterer kmeans, List<MicroCluster> initialClusters){
+		
+		clusters.addAll(initialClusters);		
+		if (decayRate > 0){
+			
+			// the initial points are taken to be of full weight as of the last of them
+			long initialised = initialisationPoints.get(initialisationPoints.size() - 1).getTimestamp();
+			for (int i = 0; i < clusters.size(); i++){
+				clusters.set(i, new DecayingMicroCluster(clusters.get(i), decayRate, initialised));
+			}
+		}
+		clusterSequence = clusters.get(clusters.size()-1).getId();			
+		if (idMultiplier != 1 || idOffset != 0){
+			for (MicroCluster cluster : clusters){
+				cluster.renumber(idMultiplier, idOffset);
+			}
+		}
+		for (Entry<FeatureVector, Integer> initialPlacement : kmeans.getPlacements().entrySet()){
+			// the k-means clusterer numbers its clusters from 1
+			MicroCluster cluster = clusters.get(initialPlacement.getValue() - 1);
+			placed(initialPlacement.getKey(), cluster.getId(), PlacementAction.NEW, cluster.getDistance(initialPlacement.getKey().getValues()));
+		}
+		
+		// from now on the cluster features live in the store
+		initialiseStore(clusters.get(0).getDimension());
+		
+		for (MicroCluster cluster : clusters){
+			indexCluster(cluster);
+		}
+		
+		initialisationPoints = null;
+		initialised = true;
+	}
+	
+	
+	// Create the store and the structures that index the micro-clusters
+	private void initialiseStore(int dimension){
+		
+		store = new MicroClusterStore(dimension, storagePrecision, storageBacking, storageFile);
+		store.setConcurrent(concurrent);
+		nearestClusterSearch = createNearestClusterSearch();
+		
+		// with the graph search, the nearest neighbours of the micro-clusters are found in the graph rather than by a scan
+		if (nearestClusterSearch instanceof NSWNearestClusterSearch){
+			closestPairTracker = new ClosestPairTracker((NSWNearestClusterSearch)nearestClusterSearch);
+		}
+		
+		// scratch space for the hot path
+		point = new double[dimension];
+	}
+	
+	
+	// Whether micro-clusters are still being seeded online
+	private boolean seeding(){
+		return initialisationType == InitialisationType.ONLINE && !seeded && clusters.size() < maxClusters;
+	}
+	
+	
+	// Place up to the given number of the points buffered during initialisation, in order of arrival
+	private void placeBufferedPoints(int count){
+		
+		for (int i = 0; i < count && !bufferedPoints.isEmpty(); i++){
+			FeatureVector featureVector = bufferedPoints.poll();
+			sweepIfDue(featureVector);
+			MicroCluster closest = nearestClusterSearch.nearest(featureVector.getValues());
+			place(featureVector, closest, nearestClusterSearch.getNearestDistance());
+		}
+	}
+	
+	
+	// Publish a version of the model if enough points were clustered since the last one
+	private void pointsClustered(int points){
+		
+		if (snapshotInterval > 0){
+			pointsSinceSnapshot += points;
+			if (pointsSinceSnapshot >= snapshotInterval) publish();
+		}
+	}
+	
+	
+	// Advance the clock to the arrival of the feature vector
+	private void tick(FeatureVector featureVector){
+		if (assignTimestamps) featureVector.setTimestamp(++timestamp);
+		else timestamp = featureVector.getTimestamp();
+	}
+	
+	
+	// Cluster the points in [from, to) of a batch, after initialisation
+	private void clusterBlock(List<FeatureVector> featureVectors, int from, int to){
+		
+		int size = to - from;
+		int columns = store.size();
+		int dimension = point.length;
+		
+		if (batchPoints == null || batchPoints.length < size * dimension){
+			batchPoints = new double[BATCH_BLOCK_SIZE * dimension];
+		}
+		if (batchColumns == null || batchColumns.length < columns){
+			batchColumns = new MicroCluster[columns];
+			batchColumnChanged = new boolean[columns];
+		}
+		if (batchDistances == null || batchDistances.length < size * columns){
+			batchDistances = new double[BATCH_BLOCK_SIZE * columns];
+		}
+		if (batchOrder == null){
+			batchOrder = new int[dimension];
+		}
+		if (batchPool == null){
+			batchPool = new ForkJoinPool();
+		}
+		
+		// take a copy of the points, the columns are the micro-clusters in the slots of the store
+		for (int p = 0; p < size; p++){
+			featureVectors.get(from + p).getPoint(point);
+			System.arraycopy(point, 0, batchPoints, p * dimension, dimension);
+		}
+		
+		for (int c = 0; c < columns; c++){
+			MicroCluster cluster = store.get(c);
+			batchColumns[c] = cluster;
+			batchColumnChanged[c] = false;
+			batchColumnIndex.put(cluster, c);
+		}
+		
+		// placement phase, in order
+		batching = true;
+		for (int p = 0; p < size; p++){
+			
+			FeatureVector featureVector = featureVectors.get(from + p);
+			tick(featureVector);
+			if (streamListener != null) streamListener.onItemReceived(featureVector);
+			sweepIfDue(featureVector);
+			
+			// distance phase, in parallel, reading the centroids from the store and adding the dimensions up in the 
+			// order a search of the store would; the order is looked up for each point as the search would, and if it 
+			// was sorted again the distances of the rest of the block are added up again in the new order
+			int[] order = store.lookUpOrder();
+			if (p == 0 || !Arrays.equals(order, batchOrder)){
+				System.arraycopy(order, 0, batchOrder, 0, dimension);
+				batchPool.invoke(new DistanceMatrixTask(store, batchPoints, batchColumns, batchColumnChanged, batchOrder, batchDistances, columns, dimension, p, size));
+			}
+			
+			// the closest micro-cluster as the store's search finds it, the lowest slot on a tie
+			MicroCluster closest = null;
+			double closestDistance = Double.MAX_VALUE;
+			int closestSlot = Integer.MAX_VALUE;
+			
+			// micro-clusters which have not changed since the distances were computed
+			int row = p * columns;
+			for (int c = 0; c < columns; c++){
+				if (batchColumnChanged[c]) continue;
+				double distance = batchDistances[row + c];
+				if (distance < closestDistance || (distance == closestDistance && batchColumns[c].getSlot() < closestSlot)){
+					closestDistance = distance;
+					closest = batchColumns[c];
+					closestSlot = closest.getSlot();
 				}
-
-				double distance = cluster.getDistance(center);
-				radius = Math.min( distance, radius );
 			}
 			
+			// micro-clusters which changed or were created during this block
+			for (int i = 0; i < batchChangedClusters.size(); i++){
+				MicroCluster cluster = batchChangedClusters.get(i);
+				int slot = cluster.getSlot();
+				double distance = store.getSquaredDistance(slot, batchPoints, p * dimension, batchOrder);
+				if (distance < closestDistance || (distance == closestDistance && slot < closestSlot)){
+					closestDistance = distance;
+					closest = cluster;
+					closestSlot = slot;
+				}
+			}
+			
+			// the distance is given as the store gives it for its search
+			System.arraycopy(batchPoints, p * dimension, point, 0, dimension);
+			place(featureVector, closest, closest.getDistance(point));
+		}
+		batching = false;
+		
+		batchColumnIndex.clear();
+		batchChangedClusters.clear();
+		for (int c = 0; c < columns; c++){
+			batchColumns[c] = null;
+		}
+		
+	}
+	
+	
+	// Place a point in the closest micro-cluster, or create a new micro-cluster for it
+	private void place(FeatureVector featureVector, MicroCluster closest, double closestDistance){
+		
+		double radius = 0.0;
+		if (seeding()){
+			
+			// leader clustering: the point joins the closest micro-cluster if it is within the seed radius
+			radius = seedRadius;
+			
+		}else if (closest.getSize() == 1){
+			
+			// take the radius to be the distance to the nearest neighbour, which the closest pair tracker keeps up to date
+			radius = closestPairTracker.getNearestDistance(closest);
+			
 		}else{
-			radius = closest.getValue().getRadius();
+			radius = closest.getRadius();
 		}
 		
 		// if the point's distance is within the maximum boundary of the cluster, then we can add the point
-		if (closest.getKey() < radius){
-			closest.getValue().addFeatureVector(featureVector);
-			placement.put(featureVector, closest.getValue().getIdList().get(0));
+		if (closestDistance < radius){
+			closest.addFeatureVector(featureVector);
+			clusterChanged(closest);
+			placed(featureVector, closest.getId(), PlacementAction.ABSORBED, closestDistance);
 		}else{
 			
+			// whilst seeding there is room for a new micro-cluster
+			if (seeding()){
+				placed(featureVector, addCluster(featureVector), PlacementAction.NEW, closestDistance);
+				return;
+			}
+			
+			// a sweep left room for a new micro-cluster, the micro-clusters it deleted were reported by the sweep
+			if (relevanceStampHeap == null && clusters.size() < maxClusters){
+				placed(featureVector, addCluster(featureVector), PlacementAction.NEW, closestDistance);
+				return;
+			}
+			
 			// decide to delete old cluster or merge 2 clusters
 			
 			// old clusters are those before the relevanceThreshold
 			long threshold = featureVector.getTimestamp() - relevanceThreshold;
 			
-			// get the timestamp of each micro-cluster
-			double eldestTimestamp = clusters.get(0).getAverageTimestamp();
-			int eldestCluster = 0;
-			for (int i=1; i<clusters.size(); i++){
-				double timestamp = clusters.get(i).getAverageTimestamp();
-				if (timestamp < eldestTimestamp){
-					eldestTimestamp = timestamp;
-					eldestCluster = i;
-				}
-			}
+			// the relevance stamps are kept in a heap, so the eldest one is at the top
+			double eldestTimestamp = relevanceStampHeap != null ? relevanceStampHeap.peekStamp() : Double.MAX_VALUE;
 			
 			// the micro-cluster with the eldest relevance timestamp below the threshold
 			if (eldestTimestamp < threshold){
 				
 				// we can delete the eldest cluster and create a new one
-				clusters.remove(eldestCluster);
-				clusters.add(new MicroCluster(++clusterSequence, featureVector.getPoint(), featureVector.getTimestamp(), t, m));
-				
-				placement.put(featureVector, clusterSequence);
+				MicroCluster eldest = relevanceStampHeap.peek();
+				removeCluster(eldest);
+				if (streamListener != null) streamListener.onClusterEvicted(eldest.getId());
+				placed(featureVector, addCluster(featureVector), PlacementAction.EVICTED, closestDistance);
 				
 			}else{
 				
 				// all the clusters are within the threshold, merge the 2 closest clusters
-				int closestCluster1 = 0;
-				int closestCluster2 = 0;
-				double minDistance = Double.MAX_VALUE;
-				for ( int i = 0; i < clusters.size(); i++ ) {
-					double[] center1 = clusters.get(i).getCenter();
-					for ( int j = i + 1; j < clusters.size(); j++ ) {
-						double distance = MathUtils.calculateDistance(center1, clusters.get(j).getCenter());
-						if (distance < minDistance) {
-							minDistance = distance;
-							closestCluster1 = i;
-							closestCluster2 = j;
-						}
-					}
+				// the tracker keeps the micro-clusters on a heap on the distance to their nearest neighbour
+				if (!closestPairTracker.findClosestPair()){
+					
+					// a single micro-cluster has nothing to merge with, so it takes the point
+					closest.addFeatureVector(featureVector);
+					clusterChanged(closest);
+					placed(featureVector, closest.getId(), PlacementAction.ABSORBED, closestDistance);
+					return;
 				}
 				
-				// TODO: check that the closest cluster are not the same?
-				MicroCluster merged = clusters.get(closestCluster1);
-				merged.merge(clusters.get(closestCluster2));
-				clusters.remove(closestCluster2);
-				clusters.add(new MicroCluster(++clusterSequence, featureVector.getPoint(), featureVector.getTimestamp(), t, m));
+				MicroCluster merged = closestPairTracker.getFirst();
+				MicroCluster other = closestPairTracker.getSecond();
+				merged.merge(other);
+				if (lineageCap > 0) merged.boundLineage(lineageCap, lineageStore);
+				clusterChanged(merged);
+				removeCluster(other);
 				
-				placement.put(featureVector, clusterSequence);
+				placed(featureVector, addCluster(featureVector), PlacementAction.MERGED, closestDistance);
 			}
 			
 		}
 		
-		return placement;
 	}
 	
+	
+	// Record where a point was placed and tell the listener
+	private void placed(FeatureVector featureVector, Integer clusterId, PlacementAction action, double distance){
+		if (collectPlacements) placement.add(featureVector, clusterId);
+		if (streamListener != null) streamListener.onItemPlaced(featureVector, clusterId, action, distance);
+	}
+	
+	
+	// Attach a micro-cluster, which has been added to the list of micro-clusters, to the store and the structures that index it
+	private void indexCluster(MicroCluster cluster){
+		store.attach(cluster);
+		nearestClusterSearch.add(cluster);
+		closestPairTracker.add(cluster);
+		if (relevanceStampHeap != null) relevanceStampHeap.add(cluster);
+	}
+	
+	
+	// Remove a micro-cluster from the model and the structures that index it
+	private void removeCluster(MicroCluster cluster){
+		clusters.remove(cluster);
+		unindexCluster(cluster);
+	}
+	
+	
+	// Remove a micro-cluster, which has been taken out of the list of micro-clusters, from the structures that index it
+	private void unindexCluster(MicroCluster cluster){
+		store.detach(cluster);
+		nearestClusterSearch.remove(cluster);
+		closestPairTracker.remove(cluster);
+		if (relevanceStampHeap != null) relevanceStampHeap.remove(cluster);
+		if (batching) batchClusterChanged(cluster, true);
+	}
+	
+	
+	// Sweep the micro-clusters which are no longer relevant if a sweep is due by the time the feature vector arrives
+	private void sweepIfDue(FeatureVector featureVector){
+		
+		long now = featureVector.getTimestamp();
+		if (evictionInterval == 0 || now < nextSweep || seeding()) return;
+		
+		nextSweep = now + evictionInterval;
+		seeded = true;
+		
+		// keep the freshest micro-cluster if none of them are relevant any more, so there is always one to place points in
+		long threshold = now - relevanceThreshold;
+		int freshest = 0;
+		double freshestTimestamp = -Double.MAX_VALUE;
+		int stale = 0;
+		for (int i = 0; i < clusters.size(); i++){
+			double relevanceStamp = clusters.get(i).getAverageTimestamp();
+			if (relevanceStamp < threshold) stale++;
+			if (relevanceStamp > freshestTimestamp){
+				freshestTimestamp = relevanceStamp;
+				freshest = i;
+			}
+		}
+		if (stale == 0) return;
+		
+		// compact the list in a single pass, keeping the order of the micro-clusters that remain
+		int kept = 0;
+		for (int i = 0; i < clusters.size(); i++){
+			MicroCluster cluster = clusters.get(i);
+			if (cluster.getAverageTimestamp() < threshold && (i != freshest || stale < clusters.size())){
+				unindexCluster(cluster);
+				if (streamListener != null) streamListener.onClusterEvicted(cluster.getId());
+			}else{
+				clusters.set(kept++, cluster);
+			}
+		}
+		
+		int evicted = clusters.size() - kept;
+		clusters.subList(kept, clusters.size()).clear();
+		LOG.debug("Swept {} micro-clusters which are no longer relevant, {} left.", evicted, kept);
+	}
+	
+	
+	// Let the structures that index the micro-clusters know that a micro-cluster absorbed a point or another micro-cluster
+	private void clusterChanged(MicroCluster cluster){
+		nearestClusterSearch.update(cluster);
+		closestPairTracker.update(cluster);
+		if (relevanceStampHeap != null) relevanceStampHeap.update(cluster);
+		if (batching) batchClusterChanged(cluster, false);
+	}
+	
+	
+	// Keep track of the micro-clusters whose distances in the current block are no longer valid
+	private void batchClusterChanged(MicroCluster cluster, boolean removed){
+		
+		Integer column = batchColumnIndex.get(cluster);
+		if (column != null && !batchColumnChanged[column]){
+			batchColumnChanged[column] = true;
+			if (!removed) batchChangedClusters.add(cluster);
+			return;
+		}
+		
+		if (removed) batchChangedClusters.remove(cluster);
+		else if (!batchChangedClusters.contains(cluster)) batchChangedClusters.add(cluster);
+	}
+	
+	
+	// Create a new micro-cluster from the feature vector and add it to the model and the nearest cluster search
+	private Integer addCluster(FeatureVector featureVector){
+		
+		int id = ++clusterSequence * idMultiplier + idOffset;
+		MicroCluster cluster = decayRate > 0
+				? new DecayingMicroCluster(id, featureVector.getPoint(), featureVector.getTimestamp(), t, m, decayRate)
+				: new MicroCluster(id, featureVector.getPoint(), featureVector.getTimestamp(), t, m);
+		clusters.add(cluster);
+		indexCluster(cluster);
+		if (batching) batchClusterChanged(cluster, false);
+		
+		// the boxed id is held by the cluster, so we can hand it out without boxing again
+		return cluster.getId();
+	}
+	
+	
+	// ------------------ Concurrent ingestion, used by ConcurrentCluStream. ---------------------- /
+	
+	// Let other threads absorb points into the store, which must be set before the clusters are initialised
+	void setConcurrent(boolean concurrent){
+		this.concurrent = concurrent;
+	}
+	
+	
+	// Whether points can be absorbed by other threads: the micro-clusters are in, no points are held back and no more micro-clusters are seeded
+	boolean isSteady(){
+		return initialised && initialisation == null && bufferedPoints.isEmpty() && !seeding();
+	}
+	
+	
+	MicroClusterStore getStore(){
+		return store;
+	}
+	
+	
+	// Let the structures that index the micro-clusters know that a micro-cluster absorbed points on another thread
+	void absorbed(MicroCluster cluster){
+		if (cluster.getStore() == store) clusterChanged(cluster);
+	}
+	
+	
+	// ------------------ Sharding, used by ShardedCluStream. ---------------------- /
+	
+	// Give the micro-clusters the ids sequence number * multiplier + offset, which must be set before the clusters are initialised
+	void setIdNumbering(int multiplier, int offset){
+		this.idMultiplier = multiplier;
+		this.idOffset = offset;
+	}
+	
+	
+	// Whether the micro-clusters are in and no points are held back, so they can be replaced
+	boolean isInitialised(){
+		return initialised && initialisation == null && bufferedPoints.isEmpty();
+	}
+	
+	
+	// Replace the micro-clusters with the given ones, which must not be attached to a store
+	void replaceClusters(List<MicroCluster> replacements){
+		
+		for (MicroCluster cluster : clusters){
+			unindexCluster(cluster);
+		}
+		clusters.clear();
+		
+		for (MicroCluster cluster : replacements){
+			clusters.add(cluster);
+			indexCluster(cluster);
+		}
+	}
+	
+	
+	// Create the nearest cluster search of the chosen type
+	private NearestClusterSearch createNearestClusterSearch(){
+		
+		switch(nearestClusterSearchType){
+		
+		case VPTREE		:	return new VPTreeNearestClusterSearch();
+		
+		case NSW		:	return new NSWNearestClusterSearch(NSWNearestClusterSearch.DEFAULT_CONNECTIONS, searchWidth, NSWNearestClusterSearch.DEFAULT_SAMPLE_INTERVAL);
+		
+		default			:	return new LinearNearestClusterSearch(store);
+		
+		}
+	}
+	
+	
 	/**
-	 * Return the current set of micro-clusters.
-	 * @return The current set of micro-clusters.
+	 * Computes the squared distances of a range of points to the micro-clusters which have not changed, reading their 
+	 * centroids from the store and adding the dimensions up in the given order, splitting the range across the 
+	 * fork-join pool.
 	 */
-	public List<MicroCluster> getClusters(){
-		return this.clusters;
+	private static class DistanceMatrixTask extends RecursiveAction {
+
+		/** Serial UUID. */
+		private static final long serialVersionUID = 3364818370421385317L;
+
+		/** Ranges of this many points or less are computed by a single task. */
+		private static final int POINTS_PER_TASK = 8;
+		
+		private final MicroClusterStore store;
+		private final double[] points;
+		private final MicroCluster[] clusters;
+		private final boolean[] changed;
+		private final int[] order;
+		private final double[] distances;
+		private final int columns;
+		private final int dimension;
+		private final int from;
+		private final int to;
+		
+		DistanceMatrixTask(MicroClusterStore store, double[] points, MicroCluster[] clusters, boolean[] changed, int[] order, double[] distances, 
+				int columns, int dimension, int from, int to){
+			this.store = store;
+			this.points = points;
+			this.clusters = clusters;
+			this.changed = changed;
+			this.order = order;
+			this.distances = distances;
+			this.columns = columns;
+			this.dimension = dimension;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute(){
+			
+			if (to - from > POINTS_PER_TASK){
+				int mid = (from + to) >>> 1;
+				invokeAll(new DistanceMatrixTask(store, points, clusters, changed, order, distances, columns, dimension, from, mid),
+						new DistanceMatrixTask(store, points, clusters, changed, order, distances, columns, dimension, mid, to));
+				return;
+			}
+			
+			for (int p = from; p < to; p++){
+				int pointOffset = p * dimension;
+				for (int c = 0; c < columns; c++){
+					if (!changed[c]) distances[p * columns + c] = store.getSquaredDistance(clusters[c].getSlot(), points, pointOffset, order);
+				}
+			}
+		}
 	}
 		
 
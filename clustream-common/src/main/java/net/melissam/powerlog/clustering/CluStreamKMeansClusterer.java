@@ -74,7 +74,7 @@ public class CluStreamKMeansClusterer {
 		int[] assignments = kmeansClusterer.getAssignments();
 		for (int i = 0; i < assignments.length; i++){			
 			microClusters.get(assignments[i]).addFeatureVector(points.get(i));		
-			placements.put(points.get(i), microClusters.get(assignments[i]).getIdList().get(0));
+			placements.put(points.get(i), microClusters.get(assignments[i]).getId());
 		}
 		
 		return microClusters;
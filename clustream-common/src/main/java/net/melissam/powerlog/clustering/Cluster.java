@@ -60,28 +60,12 @@ public class Cluster implements Serializable{
 	
 	
 	public final static double getDistance(double[] point1, double [] point2) {
-		
-		double distance = 0.0;
-		
-		for (int i = 0; i < point1.length; i++) {
-			double d = point1[i] - point2[i];
-			distance += d * d;
-		}
-		
-		return Math.sqrt(distance);
+		return DistanceKernels.distance(point1, point2);
 	}
 	
 	
 	public final double getDistanceFromCenter(double[] point) {
-		
-		double distance = 0.0;
-		
-		for (int i = 0; i < point.length; i++) {
-			double d = center[i] - point[i];
-			distance += d * d;
-		}
-		
-		return Math.sqrt(distance);
+		return DistanceKernels.distance(center, point);
 	}
 	
 }
@@ -0,0 +1,118 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * The cluster features of the slots of a {@link MicroClusterStore}: the size, CF1x, CF2x, CF1t and CF2t of the 
+ * micro-cluster in each slot.
+ *
+ * The store keeps the slots dense and works out what to change; the state only holds the numbers, on the heap (see 
+ * {@link HeapClusterFeatureState}) or in a buffer outside it (see {@link BufferClusterFeatureState}). Different slots 
+ * can be changed by different threads at once.
+ *
+ * @author melissam
+ *
+ */
+abstract class ClusterFeatureState {
+
+	/** Dimension of the micro-clusters. */
+	protected final int dimension;
+
+
+	ClusterFeatureState(int dimension){
+		this.dimension = dimension;
+	}
+
+
+	/**
+	 * Returns the number of slots there is room for.
+	 * @return The capacity.
+	 */
+	abstract int getCapacity();
+
+
+	/**
+	 * Make room for more slots, keeping the state of the slots in use.
+	 *
+	 * @param capacity	The new number of slots.
+	 * @param used		The number of slots in use.
+	 */
+	abstract void grow(int capacity, int used);
+
+
+	/**
+	 * Set all the cluster features of a slot.
+	 */
+	abstract void set(int slot, int id, double size, double[] sumOfValues, double[] sumOfSquaresOfValues, double sumOfTimestamps, double sumOfSquaresOfTimestamps);
+
+
+	/**
+	 * Copy the cluster features of a slot into another one.
+	 */
+	abstract void move(int from, int to);
+
+
+	abstract double getSize(int slot);
+
+
+	abstract double getSumOfTimestamps(int slot);
+
+
+	abstract double getSumOfSquaresOfTimestamps(int slot);
+
+
+	abstract double getSumOfValues(int slot, int i);
+
+
+	abstract double getSumOfSquaresOfValues(int slot, int i);
+
+
+	abstract void copySumOfValues(int slot, double[] values);
+
+
+	abstract void copySumOfSquaresOfValues(int slot, double[] values);
+
+
+	/**
+	 * Add a point to CF1x and CF2x of a slot and count it.
+	 *
+	 * @return The new size of the slot.
+	 */
+	abstract double add(int slot, double[] point);
+
+
+	/**
+	 * Add the cluster features of a micro-cluster which is not in the state to CF1x and CF2x of a slot, and its size.
+	 *
+	 * @return The new size of the slot.
+	 */
+	abstract double add(int slot, double size, double[] sumOfValues, double[] sumOfSquaresOfValues);
+
+
+	/**
+	 * Add the cluster features of another slot to CF1x and CF2x of a slot, and its size.
+	 *
+	 * @return The new size of the slot.
+	 */
+	abstract double add(int slot, int other);
+
+
+	/**
+	 * Add to CF1t and CF2t of a slot.
+	 */
+	abstract void addTimestamps(int slot, double sumOfTimestamps, double sumOfSquaresOfTimestamps);
+
+
+	/**
+	 * Scale all the cluster features of a slot by a factor.
+	 */
+	abstract void scale(int slot, double factor);
+
+
+	/**
+	 * Write the state of the slots in use out to where it is backed, if it is backed by anything but memory.
+	 *
+	 * @param count	The number of slots in use.
+	 */
+	void flush(int count){
+	}
+
+}
@@ -23,6 +23,10 @@ public class ClusterFeatureVector extends Cluster {
 	// vector(CF1x)
 	protected double[] sumOfValues;	
 	
+	/** Center derived from the cluster features, valid while centerCached is set. */
+	private transient double[] cachedCenter;
+	private transient boolean centerCached;
+	
 	/**
 	 * Constructs a cluster feature vector with the given center points.
 	 * 
@@ -43,6 +47,20 @@ public class ClusterFeatureVector extends Cluster {
 	}
 
 	
+	/**
+	 * Constructs a cluster feature vector from existing cluster features.
+	 * 
+	 * @param size					The number of elements in the cluster.
+	 * @param sumOfValues			CF1x, used as is.
+	 * @param sumOfSquaresOfValues	CF2x, used as is.
+	 */
+	protected ClusterFeatureVector(double size, double[] sumOfValues, double[] sumOfSquaresOfValues){
+		this.size = size;
+		this.sumOfValues = sumOfValues;
+		this.sumOfSquaresOfValues = sumOfSquaresOfValues;
+	}
+	
+	
 	/**
 	 * Adds a feature to this cluster.
 	 * 
@@ -56,10 +74,11 @@ public class ClusterFeatureVector extends Cluster {
 			// adjust sumOfValues
 			sumOfValues[i] += featureVector[i];		
 			// adjust sumOfSquares
-			sumOfSquaresOfValues[i] += Math.pow(featureVector[i], 2);
+			sumOfSquaresOfValues[i] += featureVector[i] * featureVector[i];
 		}
 	
 		size++;
+		invalidate();
 		
 	}
 	
@@ -74,32 +93,73 @@ public class ClusterFeatureVector extends Cluster {
 		// use CF additivity property
 		this.size += other.getSize();
 		
+		double[] otherSumOfValues = other.getSumOfValues();
+		double[] otherSumOfSquaresOfValues = other.getSumOfSquaresOfValues();
 		for ( int i = 0; i < this.sumOfValues.length; i++ ) {
-		    this.sumOfValues[i] += other.sumOfValues[i];
-		    this.sumOfSquaresOfValues[i] += other.sumOfSquaresOfValues[i];
+		    this.sumOfValues[i] += otherSumOfValues[i];
+		    this.sumOfSquaresOfValues[i] += otherSumOfSquaresOfValues[i];
 		}
+		invalidate();
 		
 	}
 
 	
 	/**
 	 * Get the center of the micro-cluster from the sum of all feature vectors the cluster contains.
+	 * The center is computed once and kept until the cluster features change, so the returned array 
+	 * must not be modified.
 	 * 
 	 * @return A vector of center values.
 	 */
 	@Override
 	public double[] getCenter(){
 		
+		if (!centerCached){
+			if (cachedCenter == null) cachedCenter = new double[getDimension()];
+			computeCenter(cachedCenter);
+			centerCached = true;
+		}
+		return cachedCenter;
+
+	}
+
+
+	/**
+	 * Write the center of the micro-cluster into the given array, rather than creating a new one.
+	 *
+	 * @param center The array to fill with the center values.
+	 */
+	public void getCenter(double[] center){
+
+		if (centerCached) System.arraycopy(cachedCenter, 0, center, 0, cachedCenter.length);
+		else computeCenter(center);
+
+	}
+	
+	
+	/**
+	 * Compute the center of the micro-cluster from its cluster features.
+	 *
+	 * @param center The array to fill with the center values.
+	 */
+	protected void computeCenter(double[] center){
+		
 		assert (size > 0);
-		double center[] = new double[sumOfValues.length];
 		for (int i = 0; i < sumOfValues.length; i++) {
 			center[i] = sumOfValues[i] / size;
 		}
-		return center;
 		
 	}
 	
 	
+	/**
+	 * Drop the values derived from the cluster features. Must be called whenever the cluster features change.
+	 */
+	protected void invalidate(){
+		centerCached = false;
+	}
+
+	
 	/**
 	 * Override the {@link Cluster#getWeight()} for Cluster Feature vectors to return the number of 
 	 * elements in this cluster.
@@ -117,6 +177,14 @@ public class ClusterFeatureVector extends Cluster {
 		return size;
 	}
 
+	/**
+	 * Returns the number of dimensions of the cluster features.
+	 * @return The number of dimensions.
+	 */
+	public int getDimension() {
+		return sumOfValues.length;
+	}
+
 	/**
 	 * Returns the sum of squares.
 	 * @return The sum of squares.
@@ -38,18 +38,11 @@ public class ClustreamModifiedKMeansClusterer {
 		}
 		
 		// put micro clusters in the closest macro cluster
+		int[] order = getDimensionOrder(_microClusters, kmeansClusters[0].getCenter().length);
 		for (MicroCluster point : _microClusters){
 			
 			// find closest center from kmeans
-		    double minDistance = Double.MAX_VALUE;
-		    int closestCluster = 0;
-		    for (int i = 0; i < kmeansClusters.length; i++) {
-		    	double distance = Cluster.getDistance(kmeansClusters[i].getCenter(), point.getCenter());
-				if (distance < minDistance) {
-				    closestCluster = i;
-				    minDistance = distance;
-				}
-		    }
+		    int closestCluster = getClosestSeed(point.getCenter(), kmeansClusters, order);
 
 		    // Add to cluster
 		    if ( macroClusters[closestCluster] == null ) {
@@ -122,6 +115,9 @@ public class ClustreamModifiedKMeansClusterer {
 		
 		int dimension = seeds[0].getCenter().length;
 		
+		// the distances to the seeds are added up by decreasing variance of the dimensions, so they can be abandoned early
+		int[] order = getDimensionOrder(points, dimension);
+		
 		// keeps track of each point in each partition
 		// this is needed to calculate the weighted centroid
 		ArrayList<ArrayList<MicroCluster>> partitions = new ArrayList<ArrayList<MicroCluster>>();
@@ -141,21 +137,7 @@ public class ClustreamModifiedKMeansClusterer {
 			// Assign points to clusters by finding the closest seed for each point
 			for (MicroCluster point : points) {
 				
-				// initialise the minimum distance as the distance to the first seed
-				double minDistance = Cluster.getDistance(point.getCenter(), seeds[0].getCenter());				
-				int closestCluster = 0;
-				
-				// check all the other seeds
-				for (int i = 1; i < seeds.length; i++) {
-					
-					double distance = Cluster.getDistance(point.getCenter(), seeds[i].getCenter());
-					
-					// if the point is closer to this seed, change the closestCluster
-					if (distance < minDistance) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}			
+				int closestCluster = getClosestSeed(point.getCenter(), seeds, order);
 
 				// add point to the closest partition list
 				partitions.get(closestCluster).add(point);
@@ -223,6 +205,56 @@ public class ClustreamModifiedKMeansClusterer {
 	}
 	
 	
+	/**
+	 * Finds the seed closest to a point. The distance to a seed is given up on as soon as it passes the distance to the 
+	 * closest seed so far.
+	 * 
+	 * @param center	The point.
+	 * @param seeds		The seeds.
+	 * @param order		The dimensions by decreasing variance.
+	 * @return The index of the closest seed, the first one if several are as close.
+	 */
+	private int getClosestSeed(double[] center, Cluster[] seeds, int[] order){
+		
+		// initialise the minimum distance as the distance to the first seed
+		double minDistance = DistanceKernels.boundedSquaredDistance(center, 0, seeds[0].getCenter(), 0, order, Double.MAX_VALUE);
+		int closestCluster = 0;
+		
+		// check all the other seeds
+		for (int i = 1; i < seeds.length; i++) {
+			
+			double distance = DistanceKernels.boundedSquaredDistance(center, 0, seeds[i].getCenter(), 0, order, minDistance);
+			
+			// if the point is closer to this seed, change the closestCluster
+			if (distance < minDistance) {
+				closestCluster = i;
+				minDistance = distance;
+			}
+		}
+		
+		return closestCluster;
+	}
+	
+	
+	/**
+	 * Orders the dimensions by decreasing variance of the points summarised by the micro-clusters.
+	 * 
+	 * @param microClusters	The micro-clusters.
+	 * @param dimension		The dimension of the micro-clusters.
+	 * @return The dimensions by decreasing variance.
+	 */
+	private int[] getDimensionOrder(List<MicroCluster> microClusters, int dimension){
+		
+		DimensionOrder dimensionOrder = new DimensionOrder(dimension);
+		for (MicroCluster microCluster : microClusters){
+			dimensionOrder.add(microCluster.getSize(), microCluster.getSumOfValues(), microCluster.getSumOfSquaresOfValues(), 0);
+		}
+		
+		dimensionOrder.refresh();
+		return dimensionOrder.getOrder();
+	}
+	
+	
 	/**
 	 * Calculates the weighted center of a k-means partition.
 	 * 
@@ -0,0 +1,545 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+/**
+ * Online phase of the CluStream algorithm on one {@link CluStream} model which several threads can feed at once.
+ *
+ * Most points are absorbed by their closest micro-cluster, which only changes the cluster features of that
+ * micro-cluster. Such points are placed in parallel: the micro-clusters are scanned under a shared lock, and the
+ * cluster features of the closest micro-cluster are changed under one of {@link #STRIPES} locks, picked by its slot in
+ * the store. The few points which need the model to change shape - a new micro-cluster, and with it an eviction or a
+ * merge - are placed one at a time by the underlying learner under the exclusive lock, which is only held for the
+ * change itself.
+ *
+ * The scan for the closest micro-cluster is a linear one over the store, abandoning distances in the order of the
+ * dimensions, whatever {@link NearestClusterSearchType} is set: the VP-tree and NSW indexes only learn about the
+ * micro-clusters which absorbed points at the next change of shape, and keep state for each query, so they only serve
+ * the points placed by the underlying learner.
+ *
+ * The structures which index the micro-clusters for evictions and merges are only told about the micro-clusters that
+ * absorbed points when the next change of shape is made. Points are stamped with one shared clock as they arrive, and a
+ * point which races with a change of shape may be placed against micro-clusters a few points older or newer than the
+ * serial learner would, so the model is the same as the serial one up to the order in which the threads deliver points.
+ *
+ * Versions of the model are published as in {@link CluStream#publish()}, each micro-cluster being copied as it was
+ * between two points while the other threads carry on absorbing points.
+ *
+ * The stream listener is called from the feeding threads, concurrently, so it must be thread-safe.
+ *
+ * @author melissam
+ *
+ */
+public class ConcurrentCluStream implements OnlineClusterer {
+
+	/** Number of locks guarding the cluster features of the micro-clusters, a power of 2. */
+	public static final int STRIPES = 64;
+
+	/** The model. */
+	private CluStream learner;
+
+	/** Held shared while absorbing points, exclusively while the model changes shape. */
+	private ReentrantReadWriteLock lock;
+
+	/** Locks guarding the cluster features of the micro-clusters, one per group of slots. */
+	private Object[] stripes;
+
+	/** Slots of the micro-clusters which absorbed points since the last change of shape. */
+	private boolean[] changed;
+
+	/** Shared clock. */
+	private AtomicLong timestamp;
+
+	/** Told about every point received and placed, may be null. */
+	private volatile StreamListener streamListener;
+
+	/** The last version of the model published. */
+	private volatile ModelSnapshot published;
+
+	/** Number of versions of the model published, guarded by the publishing lock. */
+	private long snapshotVersion;
+
+	/** Held while a version of the model is published, so versions are published one at a time. */
+	private Object publishing;
+
+	/** Publish a version of the model after this many points, 0 to only publish when asked. */
+	private volatile int snapshotInterval;
+
+	/** Points clustered. */
+	private AtomicLong clustered;
+
+	/** Placements returned to each feeding thread, reused so that absorbing a point does not allocate. */
+	private ThreadLocal<Placements> placements;
+
+
+	/**
+	 * Initialises the concurrent CluStream process.
+	 *
+	 * @param maxClusters			Maximum number of clusters to have at any time.
+	 * @param t						The factor to use to calculate the maximum radius boundary.
+	 * @param relevanceThreshold	Time units after which a cluster can be deleted if it has not changed.
+	 * @param initNumber			The number of features to use to create the initial micro-clusters.
+	 */
+	public ConcurrentCluStream(int maxClusters, double t, int relevanceThreshold, int initNumber){
+
+		this.learner = new CluStream(maxClusters, t, relevanceThreshold, initNumber);
+		this.learner.setAssignTimestamps(false);
+		this.learner.setConcurrent(true);
+
+		this.lock = new ReentrantReadWriteLock();
+		this.stripes = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++){
+			this.stripes[i] = new Object();
+		}
+		this.changed = new boolean[0];
+
+		this.timestamp = new AtomicLong();
+
+		this.published = ModelSnapshot.EMPTY;
+		this.publishing = new Object();
+		this.clustered = new AtomicLong();
+		this.placements = new ThreadLocal<Placements>(){
+			@Override
+			protected Placements initialValue(){
+				return new Placements();
+			}
+		};
+
+	}
+
+
+	/**
+	 * Set the search for the closest micro-cluster used by the underlying learner. The points absorbed in parallel are
+	 * placed by a linear scan whatever the search.
+	 *
+	 * @param type	The search.
+	 */
+	@Override
+	public void setNearestClusterSearchType(NearestClusterSearchType type){
+		learner.setNearestClusterSearchType(type);
+	}
+
+
+	@Override
+	public NearestClusterSearchType getNearestClusterSearchType(){
+		return learner.getNearestClusterSearchType();
+	}
+
+
+	@Override
+	public void setSearchWidth(int searchWidth){
+		learner.setSearchWidth(searchWidth);
+	}
+
+
+	@Override
+	public void setDecayRate(double decayRate){
+		learner.setDecayRate(decayRate);
+	}
+
+
+	@Override
+	public void setEvictionInterval(int evictionInterval){
+		learner.setEvictionInterval(evictionInterval);
+	}
+
+
+	@Override
+	public void setLineageCap(int lineageCap){
+		learner.setLineageCap(lineageCap);
+	}
+
+
+	@Override
+	public void setLineageStore(LineageStore lineageStore){
+		learner.setLineageStore(lineageStore);
+	}
+
+
+	@Override
+	public void setStoragePrecision(StoragePrecision storagePrecision){
+		learner.setStoragePrecision(storagePrecision);
+	}
+
+
+	@Override
+	public void setStorageBacking(StorageBacking storageBacking, File file){
+		learner.setStorageBacking(storageBacking, file);
+	}
+
+
+	@Override
+	public void setInitialisationType(InitialisationType initialisationType){
+		learner.setInitialisationType(initialisationType);
+	}
+
+
+	@Override
+	public InitialisationType getInitialisationType(){
+		return learner.getInitialisationType();
+	}
+
+
+	@Override
+	public void setSeedRadius(double seedRadius){
+		learner.setSeedRadius(seedRadius);
+	}
+
+
+	@Override
+	public void setBackgroundInitialisation(boolean backgroundInitialisation){
+		learner.setBackgroundInitialisation(backgroundInitialisation);
+	}
+
+
+	@Override
+	public void awaitInitialisation(){
+
+		lock.writeLock().lock();
+		try{
+			reshape();
+			learner.awaitInitialisation();
+		}finally{
+			reshaped();
+		}
+
+	}
+
+
+	/**
+	 * Set the listener told about every point received and placed. The listener is called from the threads feeding
+	 * the learner, concurrently.
+	 *
+	 * @param streamListener	The listener, null for none.
+	 */
+	@Override
+	public void setStreamListener(StreamListener streamListener){
+		this.streamListener = streamListener;
+		learner.setStreamListener(streamListener);
+	}
+
+
+	/**
+	 * Cluster the given feature and return the cluster assignment. Can be called by several threads at once.
+	 *
+	 * @param featureVector The feature vector to cluster.
+	 * @return	The cluster assignments made, null if the feature was kept for initialisation and nothing was placed.
+	 * 			The map is reused by the calling thread and is only valid until its next call.
+	 */
+	@Override
+	public Map<FeatureVector, Integer> cluster(FeatureVector featureVector){
+
+		featureVector.setTimestamp(timestamp.incrementAndGet());
+
+		Placements placement = placements.get();
+		placement.clear();
+
+		Integer clusterId = absorb(featureVector);
+		if (clusterId != null){
+			pointsClustered(1);
+			placement.add(featureVector, clusterId);
+			return placement;
+		}
+
+		lock.writeLock().lock();
+		try{
+
+			reshape();
+			Map<FeatureVector, Integer> learnerPlacement = learner.cluster(featureVector);
+			if (learnerPlacement == null) placement = null;
+			else copy(learnerPlacement, placement);
+
+		}finally{
+			reshaped();
+		}
+
+		pointsClustered(1);
+		return placement;
+
+	}
+
+
+	/**
+	 * Cluster the given feature, reporting where it was placed only to the stream listener. Can be called by several
+	 * threads at once.
+	 *
+	 * @param featureVector The feature vector to cluster.
+	 * @return false if the feature was kept for initialisation.
+	 */
+	@Override
+	public boolean process(FeatureVector featureVector){
+
+		featureVector.setTimestamp(timestamp.incrementAndGet());
+
+		boolean placed = absorb(featureVector) != null;
+
+		if (!placed){
+
+			lock.writeLock().lock();
+			try{
+				reshape();
+				placed = learner.process(featureVector);
+			}finally{
+				reshaped();
+			}
+		}
+
+		pointsClustered(1);
+		return placed;
+
+	}
+
+
+	/**
+	 * Cluster a block of feature vectors as {@link CluStream#clusterBatch(List)} does, holding the other threads
+	 * back meanwhile.
+	 *
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 * @return	The cluster assignments of the features. The map is reused by the calling thread and is only valid
+	 * 			until its next call.
+	 */
+	@Override
+	public Map<FeatureVector, Integer> clusterBatch(List<FeatureVector> featureVectors){
+
+		Placements placement = placements.get();
+		placement.clear();
+
+		lock.writeLock().lock();
+		try{
+
+			reshape();
+			stamp(featureVectors);
+			copy(learner.clusterBatch(featureVectors), placement);
+
+		}finally{
+			reshaped();
+		}
+
+		pointsClustered(featureVectors.size());
+		return placement;
+
+	}
+
+
+	/**
+	 * Cluster a block of feature vectors as {@link CluStream#processBatch(List)} does, holding the other threads
+	 * back meanwhile.
+	 *
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 */
+	@Override
+	public void processBatch(List<FeatureVector> featureVectors){
+
+		lock.writeLock().lock();
+		try{
+			reshape();
+			stamp(featureVectors);
+			learner.processBatch(featureVectors);
+		}finally{
+			reshaped();
+		}
+
+		pointsClustered(featureVectors.size());
+
+	}
+
+
+	/**
+	 * Returns a copy of the current set of micro-clusters, as the live ones are changed by the threads feeding the
+	 * learner. This is the list of micro-clusters of a newly published version of the model.
+	 *
+	 * @return A copy of the current set of micro-clusters.
+	 */
+	@Override
+	public List<MicroCluster> getClusters(){
+		return snapshot();
+	}
+
+
+	@Override
+	public List<MicroCluster> snapshot(){
+		return publish().getClusters();
+	}
+
+
+	/**
+	 * Publish a new version of the model, copying only the micro-clusters which changed since the last version. Points
+	 * keep being absorbed meanwhile, but each micro-cluster is copied as it was between two points. Can be called from
+	 * any thread.
+	 *
+	 * @return The new version of the model.
+	 */
+	@Override
+	public ModelSnapshot publish(){
+
+		lock.readLock().lock();
+		try{
+
+			synchronized (publishing){
+
+				long now = timestamp.get();
+				List<MicroCluster> clusters = learner.getClusters();
+				List<MicroCluster> copies = new ArrayList<MicroCluster>(clusters.size());
+				for (MicroCluster cluster : clusters){
+					synchronized (stripe(cluster)){
+						copies.add(cluster.getPublishedCopy(now));
+					}
+				}
+
+				published = new ModelSnapshot(++snapshotVersion, now, copies);
+				return published;
+			}
+
+		}finally{
+			lock.readLock().unlock();
+		}
+
+	}
+
+
+	@Override
+	public ModelSnapshot getSnapshot(){
+		return published;
+	}
+
+
+	@Override
+	public void setSnapshotInterval(int snapshotInterval){
+		this.snapshotInterval = snapshotInterval;
+	}
+
+
+	/**
+	 * Write the cluster features out to the file they are mapped on, holding up the threads absorbing points meanwhile 
+	 * so that the checkpoint has every micro-cluster as it was between two points. Can be called from any thread.
+	 */
+	@Override
+	public void flush(){
+
+		lock.writeLock().lock();
+		try{
+			learner.flush();
+		}finally{
+			lock.writeLock().unlock();
+		}
+
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	/**
+	 * Absorb a point into its closest micro-cluster, if it is within its maximum boundary, alongside the other threads.
+	 *
+	 * @return The id of the micro-cluster which absorbed the point, null if the point is left to the learner.
+	 */
+	private Integer absorb(FeatureVector featureVector){
+
+		lock.readLock().lock();
+		try{
+
+			if (!learner.isSteady()) return null;
+
+			double[] point = featureVector.getValues();
+			MicroCluster closest = learner.getStore().scan(point);
+			if (closest == null) return null;
+
+			Integer clusterId;
+			double distance;
+			synchronized (stripe(closest)){
+
+				// the radius of a micro-cluster with one point comes from the closest pair tracker, which is left to the learner
+				if (closest.getSize() == 1) return null;
+
+				distance = closest.getDistance(point);
+				if (distance >= closest.getRadius()) return null;
+
+				closest.addFeatureVector(featureVector);
+				changed[closest.getSlot()] = true;
+				clusterId = closest.getId();
+			}
+
+			StreamListener listener = streamListener;
+			if (listener != null){
+				listener.onItemReceived(featureVector);
+				listener.onItemPlaced(featureVector, clusterId, PlacementAction.ABSORBED, distance);
+			}
+
+			return clusterId;
+
+		}finally{
+			lock.readLock().unlock();
+		}
+
+	}
+
+
+	// With the exclusive lock held, tell the learner about the micro-clusters which absorbed points, before their slots move
+	private void reshape(){
+
+		MicroClusterStore store = learner.getStore();
+		if (store == null) return;
+
+		for (int slot = 0; slot < store.size(); slot++){
+			if (changed[slot]){
+				changed[slot] = false;
+				learner.absorbed(store.get(slot));
+			}
+		}
+
+	}
+
+
+	// Make room for the slots of new micro-clusters and let the other threads in
+	private void reshaped(){
+
+		MicroClusterStore store = learner.getStore();
+		if (store != null && changed.length < store.size()){
+			changed = Arrays.copyOf(changed, Math.max(store.size(), 2 * changed.length));
+		}
+
+		lock.writeLock().unlock();
+
+	}
+
+
+	// Publish a version of the model if the points took the count past a multiple of the snapshot interval
+	private void pointsClustered(int points){
+
+		int interval = snapshotInterval;
+		if (interval > 0){
+			long count = clustered.addAndGet(points);
+			if (count / interval != (count - points) / interval) publish();
+		}
+
+	}
+
+
+	// Copy the placements of the learner, which it reuses for the next point, to the placements of this thread
+	private static void copy(Map<FeatureVector, Integer> from, Placements to){
+		for (Map.Entry<FeatureVector, Integer> placement : from.entrySet()){
+			to.add(placement.getKey(), placement.getValue());
+		}
+	}
+
+
+	private void stamp(List<FeatureVector> featureVectors){
+		for (FeatureVector featureVector : featureVectors){
+			featureVector.setTimestamp(timestamp.incrementAndGet());
+		}
+	}
+
+
+	private Object stripe(MicroCluster cluster){
+		return stripes[cluster.getSlot() & (STRIPES - 1)];
+	}
+
+}
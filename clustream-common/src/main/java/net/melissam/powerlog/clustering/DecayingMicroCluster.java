@@ -0,0 +1,168 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * A micro-cluster whose points fade over time (damped window model): the weight of a point which arrived dt time units
+ * ago is 2^(-lambda * dt), lambda being the decay rate, so its weight halves every 1/lambda time units.
+ *
+ * Fading all the points of a micro-cluster by the same factor scales CF1x, CF2x, CF1t, CF2t and the weight alike, so
+ * it leaves the centroid, the deviation, the maximum boundary and the mean and deviation of the timestamps as they are.
+ * The relevance stamp does change, as it depends on the weight n: once n is at least 2m it is the mean timestamp plus
+ * the deviation times the quantile of m/(2n), which grows as n falls, and a decay which takes n below 2m switches it to
+ * the mean timestamp.
+ *
+ * The decay is applied lazily, only when the micro-cluster takes in a point or another micro-cluster: the cluster
+ * features are scaled by the decay since the last update and the timestamp of the update is kept. Micro-clusters which
+ * are not touched cost nothing, and their cluster features hold their weight, and their relevance stamp, as of their
+ * last update, see {@link #getWeight(long)} for their weight at a later time. CluStream re-keys a micro-cluster in its
+ * {@link RelevanceStampHeap} every time it takes in a point or another micro-cluster, which is every time it decays,
+ * so the heap always holds the relevance stamps the micro-clusters have.
+ *
+ * A micro-cluster which only ever took in one point keeps a weight of exactly 1 until it takes in another one, so its
+ * maximum boundary is still the distance to its closest micro-cluster.
+ *
+ * @author melissam
+ *
+ */
+public class DecayingMicroCluster extends MicroCluster {
+
+	/** Serial UUID. */
+	private static final long serialVersionUID = 6316204745562186371L;
+
+	/** Decay rate (lambda): the weight of a point halves every 1/lambda time units. */
+	private double decayRate;
+
+	/** Timestamp up to which the cluster features have been decayed. */
+	private long lastUpdate;
+
+
+	/**
+	 * Construct a decaying micro-cluster from a single feature vector.
+	 *
+	 * @param id			The id of the micro-cluster.
+	 * @param center		The point, which is the center of the micro-cluster.
+	 * @param timestamp		The timestamp of the point.
+	 * @param t				The maximal boundary factor.
+	 * @param m				The number of points to calculate the relevance stamp on.
+	 * @param decayRate		The decay rate, greater than 0.
+	 */
+	public DecayingMicroCluster(int id, double[] center, long timestamp, double t, double m, double decayRate){
+
+		super(id, center, timestamp, t, m);
+
+		this.decayRate = decayRate;
+		this.lastUpdate = timestamp;
+
+	}
+
+
+	/**
+	 * Construct a decaying micro-cluster with the state of another micro-cluster, whose points are taken to be of full
+	 * weight at the given timestamp.
+	 *
+	 * @param other			The micro-cluster to copy.
+	 * @param decayRate		The decay rate, greater than 0.
+	 * @param lastUpdate	The timestamp of the state of the other micro-cluster.
+	 */
+	public DecayingMicroCluster(MicroCluster other, double decayRate, long lastUpdate){
+
+		super(other);
+
+		this.decayRate = decayRate;
+		this.lastUpdate = lastUpdate;
+
+	}
+
+
+	@Override
+	public MicroCluster copy(){
+		return new DecayingMicroCluster(this, decayRate, lastUpdate);
+	}
+
+
+	/**
+	 * Returns the decay rate.
+	 * @return The decay rate.
+	 */
+	public double getDecayRate(){
+		return decayRate;
+	}
+
+
+	/**
+	 * Returns the timestamp up to which the cluster features have been decayed.
+	 * @return The timestamp of the last update.
+	 */
+	public long getLastUpdate(){
+		return lastUpdate;
+	}
+
+
+	/**
+	 * Returns the weight the micro-cluster has at a timestamp, without decaying its cluster features.
+	 *
+	 * @param timestamp	The timestamp.
+	 * @return The weight at the timestamp, the weight as of the last update if the timestamp is earlier.
+	 */
+	public double getWeight(long timestamp){
+		return getSize() * decay(timestamp);
+	}
+
+
+	/**
+	 * Decay the cluster features up to a timestamp. Does nothing if the timestamp is not after the last update.
+	 *
+	 * @param timestamp	The timestamp.
+	 */
+	public void decayTo(long timestamp){
+
+		if (timestamp > lastUpdate){
+			scale(decay(timestamp));
+			lastUpdate = timestamp;
+		}
+	}
+
+
+	/**
+	 * Decay the cluster features up to the timestamp of the feature vector, then add it.
+	 */
+	@Override
+	public void addFeatureVector(FeatureVector featureVector){
+		decayTo(featureVector.getTimestamp());
+		super.addFeatureVector(featureVector);
+	}
+
+
+	/**
+	 * Decay both micro-clusters up to the later of their last updates, then merge the other one into this one.
+	 */
+	@Override
+	public void merge(MicroCluster other){
+
+		if (other instanceof DecayingMicroCluster){
+			DecayingMicroCluster _other = (DecayingMicroCluster)other;
+			decayTo(_other.lastUpdate);
+			_other.decayTo(lastUpdate);
+		}
+
+		super.merge(other);
+	}
+
+
+	// The published copy is decayed to the timestamp it is published at, so the weights of a version are comparable
+	@Override
+	MicroCluster getPublishedCopy(long timestamp){
+
+		if (timestamp <= lastUpdate) return super.getPublishedCopy(timestamp);
+
+		DecayingMicroCluster copy = new DecayingMicroCluster(this, decayRate, lastUpdate);
+		copy.decayTo(timestamp);
+		return copy;
+	}
+
+
+	// The factor by which the points fade between the last update and the timestamp
+	private double decay(long timestamp){
+		return timestamp > lastUpdate ? Math.pow(2, -decayRate * (timestamp - lastUpdate)) : 1.0;
+	}
+
+}
@@ -0,0 +1,188 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Order of the dimensions by decreasing variance over all the points summarised by a set of micro-clusters.
+ *
+ * The variance is derived from the sum of the cluster features of the micro-clusters, which is kept up to date as
+ * cluster features are added and removed. Distances added up in this order grow fastest, so a partial distance passes
+ * the best distance found so far after as few dimensions as possible (see
+ * {@link DistanceKernels#boundedSquaredDistance(double[], int, double[], int, int[], double)}).
+ *
+ * The variance changes slowly, so the order is only sorted again every {@link #REFRESH_INTERVAL} lookups.
+ *
+ * @author melissam
+ *
+ */
+public class DimensionOrder {
+
+	/** Number of lookups of the order between sorts. */
+	public static final int REFRESH_INTERVAL = 1024;
+
+	/** Number of points summarised. */
+	private double size;
+
+	/** Sum of the CF1x of the micro-clusters. */
+	private double[] sumOfValues;
+
+	/** Sum of the CF2x of the micro-clusters. */
+	private double[] sumOfSquaresOfValues;
+
+	/** Variance of each dimension, as of the last sort. */
+	private double[] variance;
+
+	/** The dimensions by decreasing variance. */
+	private int[] order;
+
+	/** Lookups until the order is sorted again. */
+	private int lookups;
+
+
+	/**
+	 * Creates the order of a set of micro-clusters with no points yet, which is the natural order.
+	 *
+	 * @param dimension	The dimension of the micro-clusters.
+	 */
+	public DimensionOrder(int dimension){
+
+		this.sumOfValues = new double[dimension];
+		this.sumOfSquaresOfValues = new double[dimension];
+		this.variance = new double[dimension];
+
+		this.order = new int[dimension];
+		for (int i = 0; i < dimension; i++){
+			order[i] = i;
+		}
+
+		this.lookups = 0;
+	}
+
+
+	/**
+	 * Add the cluster features of a micro-cluster.
+	 *
+	 * @param size					The number of points of the micro-cluster.
+	 * @param sumOfValues			Array holding CF1x.
+	 * @param sumOfSquaresOfValues	Array holding CF2x.
+	 * @param offset				Where the cluster features start in the arrays.
+	 */
+	public void add(double size, double[] sumOfValues, double[] sumOfSquaresOfValues, int offset){
+
+		this.size += size;
+		for (int i = 0; i < this.sumOfValues.length; i++){
+			this.sumOfValues[i] += sumOfValues[offset + i];
+			this.sumOfSquaresOfValues[i] += sumOfSquaresOfValues[offset + i];
+		}
+	}
+
+
+	/**
+	 * Remove the cluster features of a micro-cluster which were added before.
+	 *
+	 * @param size					The number of points of the micro-cluster.
+	 * @param sumOfValues			Array holding CF1x.
+	 * @param sumOfSquaresOfValues	Array holding CF2x.
+	 * @param offset				Where the cluster features start in the arrays.
+	 */
+	public void remove(double size, double[] sumOfValues, double[] sumOfSquaresOfValues, int offset){
+
+		this.size -= size;
+		for (int i = 0; i < this.sumOfValues.length; i++){
+			this.sumOfValues[i] -= sumOfValues[offset + i];
+			this.sumOfSquaresOfValues[i] -= sumOfSquaresOfValues[offset + i];
+		}
+	}
+
+
+	// Add the cluster features of the micro-cluster in a slot of a store
+	void add(ClusterFeatureState state, int slot){
+
+		this.size += state.getSize(slot);
+		for (int i = 0; i < this.sumOfValues.length; i++){
+			this.sumOfValues[i] += state.getSumOfValues(slot, i);
+			this.sumOfSquaresOfValues[i] += state.getSumOfSquaresOfValues(slot, i);
+		}
+	}
+
+
+	// Remove the cluster features of the micro-cluster in a slot of a store, which were added before
+	void remove(ClusterFeatureState state, int slot){
+
+		this.size -= state.getSize(slot);
+		for (int i = 0; i < this.sumOfValues.length; i++){
+			this.sumOfValues[i] -= state.getSumOfValues(slot, i);
+			this.sumOfSquaresOfValues[i] -= state.getSumOfSquaresOfValues(slot, i);
+		}
+	}
+
+
+	/**
+	 * Add a point.
+	 *
+	 * @param point	The point.
+	 */
+	public void add(double[] point){
+
+		++size;
+		for (int i = 0; i < sumOfValues.length; i++){
+			sumOfValues[i] += point[i];
+			sumOfSquaresOfValues[i] += point[i] * point[i];
+		}
+	}
+
+
+	/**
+	 * Returns the dimensions by decreasing variance, sorting them again if {@link #REFRESH_INTERVAL} lookups have
+	 * been made since the last sort. The returned array must not be modified.
+	 *
+	 * @return The dimensions by decreasing variance.
+	 */
+	public int[] getOrder(){
+
+		if (lookups-- == 0){
+			refresh();
+		}
+
+		return order;
+	}
+
+
+	/**
+	 * Returns the dimensions by decreasing variance as of the last sort, without counting a lookup. The returned array
+	 * is sorted again in place by {@link #getOrder()} and {@link #refresh()}, so it can only be read by several threads
+	 * at once while neither is called. The returned array must not be modified.
+	 *
+	 * @return The dimensions by decreasing variance.
+	 */
+	public int[] getLastOrder(){
+		return order;
+	}
+
+
+	/**
+	 * Sort the dimensions by the current variance.
+	 */
+	public void refresh(){
+
+		if (size > 0){
+
+			for (int i = 0; i < variance.length; i++){
+				double mean = sumOfValues[i] / size;
+				variance[i] = sumOfSquaresOfValues[i] / size - mean * mean;
+			}
+
+			// insertion sort, the order is mostly unchanged since the last sort
+			for (int i = 1; i < order.length; i++){
+				int dimension = order[i];
+				int j = i - 1;
+				while (j >= 0 && variance[order[j]] < variance[dimension]){
+					order[j + 1] = order[j];
+					--j;
+				}
+				order[j + 1] = dimension;
+			}
+		}
+
+		lookups = REFRESH_INTERVAL;
+	}
+
+}
@@ -0,0 +1,23 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Computes squared Euclidean distances between ranges of double arrays. Implementations must be thread-safe.
+ * 
+ * @author melissam
+ *
+ */
+public interface DistanceKernel {
+
+	/**
+	 * Returns the squared Euclidean distance between p1[offset1, offset1 + length) and p2[offset2, offset2 + length).
+	 * 
+	 * @param p1		The array holding the first point.
+	 * @param offset1	Where the first point starts.
+	 * @param p2		The array holding the second point.
+	 * @param offset2	Where the second point starts.
+	 * @param length	The dimension of the points.
+	 * @return The squared distance between the 2 points.
+	 */
+	double squaredDistance(double[] p1, int offset1, double[] p2, int offset2, int length);
+	
+}
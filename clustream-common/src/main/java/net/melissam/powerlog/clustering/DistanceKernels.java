@@ -0,0 +1,158 @@
+package net.melissam.powerlog.clustering;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Euclidean distance functions shared by the clustering code, all computed by one {@link DistanceKernel}.
+ * 
+ * On Java 17 or later clustream-common is a multi-release jar which also holds a kernel using the incubating Vector API. 
+ * It is used when the JVM is started with --add-modules jdk.incubator.vector; otherwise, or when the system property 
+ * powerlog.scalarDistance is set to true, the {@link ScalarDistanceKernel} is used. The vectorised kernel adds up the 
+ * squared differences in a different order, so distances may differ from the scalar ones in the last bits.
+ * 
+ * @author melissam
+ *
+ */
+public final class DistanceKernels {
+
+	/** Name of the vectorised kernel, only present in the Java 17 part of the jar. */
+	private static final String VECTOR_KERNEL = "net.melissam.powerlog.clustering.VectorDistanceKernel";
+	
+	/** Class logger. */
+	private static final Logger LOG = LogManager.getLogger(DistanceKernels.class);
+	
+	/** The kernel in use. */
+	private static final DistanceKernel KERNEL = loadKernel();
+	
+	
+	private DistanceKernels(){}
+	
+	
+	/**
+	 * Returns the kernel in use.
+	 * @return The kernel in use.
+	 */
+	public static DistanceKernel getKernel(){
+		return KERNEL;
+	}
+	
+	
+	/**
+	 * Returns the Euclidean distance between 2 points.
+	 * 
+	 * @param p1	The first point.
+	 * @param p2	The second point, of the same dimension.
+	 * @return The distance between the 2 points.
+	 */
+	public static double distance(double[] p1, double[] p2){
+		return Math.sqrt(KERNEL.squaredDistance(p1, 0, p2, 0, p1.length));
+	}
+	
+	
+	/**
+	 * Returns the squared Euclidean distance between 2 points.
+	 * 
+	 * @param p1	The first point.
+	 * @param p2	The second point, of the same dimension.
+	 * @return The squared distance between the 2 points.
+	 */
+	public static double squaredDistance(double[] p1, double[] p2){
+		return KERNEL.squaredDistance(p1, 0, p2, 0, p1.length);
+	}
+	
+	
+	/**
+	 * Returns the squared Euclidean distance between 2 points held in larger arrays.
+	 * 
+	 * @see DistanceKernel#squaredDistance(double[], int, double[], int, int)
+	 */
+	public static double squaredDistance(double[] p1, int offset1, double[] p2, int offset2, int length){
+		return KERNEL.squaredDistance(p1, offset1, p2, offset2, length);
+	}
+	
+	
+	/**
+	 * Returns the squared Euclidean distance between 2 points held in larger arrays, adding up the dimensions in the 
+	 * given order and giving up as soon as the sum reaches the bound. Used to reject candidates in nearest neighbour 
+	 * searches, where a candidate at the bound or further is of no interest. Always computed by a scalar loop.
+	 * 
+	 * @param p1		The array holding the first point.
+	 * @param offset1	Where the first point starts.
+	 * @param p2		The array holding the second point.
+	 * @param offset2	Where the second point starts.
+	 * @param order		The dimensions in the order to add them up, best by decreasing variance (see {@link DimensionOrder}).
+	 * @param bound		The distance at which to give up.
+	 * @return The squared distance if it is less than the bound, otherwise a partial sum no less than the bound.
+	 */
+	public static double boundedSquaredDistance(double[] p1, int offset1, double[] p2, int offset2, int[] order, double bound){
+		
+		double distance = 0.0;
+		for (int k = 0; k < order.length; k++){
+			int i = order[k];
+			double d = p1[offset1 + i] - p2[offset2 + i];
+			distance += d * d;
+			if (distance >= bound) break;
+		}
+		
+		return distance;
+	}
+	
+	
+	/**
+	 * Returns the squared Euclidean distance between a point and a point held in single precision, computed in double 
+	 * precision. Always computed by a scalar loop.
+	 * 
+	 * @see DistanceKernel#squaredDistance(double[], int, double[], int, int)
+	 */
+	public static double squaredDistance(double[] p1, int offset1, float[] p2, int offset2, int length){
+		
+		double distance = 0.0;
+		for (int i = 0; i < length; i++){
+			double d = p1[offset1 + i] - p2[offset2 + i];
+			distance += d * d;
+		}
+		
+		return distance;
+	}
+	
+	
+	/**
+	 * Returns the squared Euclidean distance between a point and a point held in single precision, adding up the 
+	 * dimensions in the given order and giving up as soon as the sum reaches the bound.
+	 * 
+	 * @see #boundedSquaredDistance(double[], int, double[], int, int[], double)
+	 */
+	public static double boundedSquaredDistance(double[] p1, int offset1, float[] p2, int offset2, int[] order, double bound){
+		
+		double distance = 0.0;
+		for (int k = 0; k < order.length; k++){
+			int i = order[k];
+			double d = p1[offset1 + i] - p2[offset2 + i];
+			distance += d * d;
+			if (distance >= bound) break;
+		}
+		
+		return distance;
+	}
+	
+	
+	private static DistanceKernel loadKernel(){
+		
+		if (!Boolean.getBoolean("powerlog.scalarDistance")){
+			try{
+				
+				DistanceKernel kernel = (DistanceKernel)Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+				LOG.info("Using vectorised distance kernel.");
+				return kernel;
+				
+			}catch(ReflectiveOperationException | LinkageError ex){
+				// not a multi-release jar, older JVM or the incubator module was not added
+				LOG.debug("Vectorised distance kernel not available.", ex);
+			}
+		}
+		
+		return new ScalarDistanceKernel();
+	}
+	
+}
@@ -1,13 +1,21 @@
 package net.melissam.powerlog.clustering;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.apache.commons.math3.ml.clustering.Clusterable;
 
+import com.google.gson.annotations.JsonAdapter;
+
 /**
  * Represents a feature vector of arbitrary type.
  * 
+ * The values are held in a primitive array whose length is the dimension of the feature vector. A feature vector
+ * created from an array of values takes that array as is, and one created for a dimension has its array sized exactly
+ * for the values then added with {@link #add(double)} and {@link #addAll(double[])}. Values added past the dimension,
+ * as to a feature vector created without one, are kept in a buffer which grows geometrically until {@link #freeze()}
+ * appends them to the array; the values cannot be read meanwhile. Reading the values never allocates or changes the 
+ * feature vector, so several threads can read it at once.
+ * 
  * @author melissam
  */
 public class FeatureVector implements Clusterable{
@@ -16,9 +24,23 @@ public class FeatureVector implements Clusterable{
 	private long timestamp;
 	private int  initialCluster;
 	
-	private String groundTruthLabel;
+	/** 
+	 * Id of the ground truth label in the {@link LabelDictionary}, written to JSON as the label. Boxed so that Gson 
+	 * writes it with its adapter rather than as a number; ids below 128 are cached boxes.
+	 */
+	@JsonAdapter(LabelDictionary.Json.class)
+	private Integer groundTruthLabel = LabelDictionary.NO_LABEL;
+	
+	private double[] point;
 	
-	private List<Double> point;
+	/** Number of values at the end of the array still to be added, for a feature vector created for a dimension. */
+	private transient int unfilled;
+	
+	/** Values added past the dimension of the array, null once they have been appended to it by {@link #freeze()}. */
+	private transient double[] added;
+	
+	/** Number of values in the buffer of added values. */
+	private transient int addedCount;
 	
 	public FeatureVector(){
 		super();
@@ -26,7 +48,7 @@ public class FeatureVector implements Clusterable{
 		this.timestamp = -1;
 		this.initialCluster = -1;
 		
-		this.point = new ArrayList<Double>();
+		this.point = new double[0];
 	}
 	
 	public FeatureVector(int id){
@@ -35,7 +57,7 @@ public class FeatureVector implements Clusterable{
 		this.timestamp = -1;
 		this.initialCluster = -1;
 		
-		this.point = new ArrayList<Double>();
+		this.point = new double[0];
 
 	}
 	
@@ -45,7 +67,41 @@ public class FeatureVector implements Clusterable{
 		this.timestamp = timestamp;
 		this.initialCluster = -1;
 		
-		this.point = new ArrayList<Double>();
+		this.point = new double[0];
+
+	}
+	
+	/**
+	 * Creates a feature vector with an array sized for its values, which are then added. Values which are not added 
+	 * are 0.
+	 * 
+	 * @param id		The id of the feature vector.
+	 * @param dimension	The number of values which will be added.
+	 */
+	public FeatureVector(int id, int dimension){
+		super();
+		this.id = id;
+		this.timestamp = -1;
+		this.initialCluster = -1;
+		
+		this.point = new double[dimension];
+		this.unfilled = dimension;
+
+	}
+	
+	/**
+	 * Creates a feature vector from its values. The array is used as is, not copied.
+	 * 
+	 * @param id		The id of the feature vector.
+	 * @param point		The values of the feature vector.
+	 */
+	public FeatureVector(int id, double[] point){
+		super();
+		this.id = id;
+		this.timestamp = -1;
+		this.initialCluster = -1;
+		
+		this.point = point;
 
 	}
 	
@@ -74,45 +130,101 @@ public class FeatureVector implements Clusterable{
 	}
 	
 	public String getGroundTruthLable(){
+		return LabelDictionary.getLabel(this.groundTruthLabel);
+	}
+	
+	/**
+	 * Returns the id of the ground truth label in the {@link LabelDictionary}.
+	 * @return The id of the label, {@link LabelDictionary#NO_LABEL} if there is none.
+	 */
+	public int getGroundTruthLabelId(){
 		return this.groundTruthLabel;
 	}
 	
+	/**
+	 * Set the ground truth label, which is interned in the {@link LabelDictionary}.
+	 * @param label The label.
+	 */
 	public void setGroundTruthLabel(String label){
-		this.groundTruthLabel = label;
+		this.groundTruthLabel = LabelDictionary.intern(label);
 	}
 	
 	public void add(double d){
-		point.add(d);
+		
+		if (unfilled > 0){
+			point[point.length - unfilled--] = d;
+			return;
+		}
+		
+		if (added == null || addedCount == added.length) grow(1);
+		added[addedCount++] = d;
 	}
 	
 	public void addAll(double[] features){
-		for (double feature : features){
-			point.add(feature);
+		
+		int filling = Math.min(unfilled, features.length);
+		System.arraycopy(features, 0, point, point.length - unfilled, filling);
+		unfilled -= filling;
+		
+		int rest = features.length - filling;
+		if (rest > 0){
+			if (added == null || addedCount + rest > added.length) grow(rest);
+			System.arraycopy(features, filling, added, addedCount, rest);
+			addedCount += rest;
 		}
 	}
 	
-	public double[] getPoint(){
+	/**
+	 * Append the values added past the dimension of the array to it, so that they can be read. Needed once the values 
+	 * of a feature vector created without a dimension have been added; does nothing if there are no such values.
+	 */
+	public void freeze(){
 		
-		double[] values = new double[point.size()];
-		int i = 0;
-		for (Double d : point){
-			values[i++] = d.doubleValue();
-		}
+		if (added == null) return;
 		
-		return values;
+		double[] _point = Arrays.copyOf(point, point.length + addedCount);
+		System.arraycopy(added, 0, _point, point.length, addedCount);
+		point = _point;
 		
+		added = null;
+		addedCount = 0;
+	}
+	
+	/**
+	 * Returns a copy of the point.
+	 */
+	public double[] getPoint(){
+		return values().clone();
+	}
+	
+	/**
+	 * Copy the point into the given array, rather than creating a new one.
+	 * 
+	 * @param values The array to copy the point into.
+	 */
+	public void getPoint(double[] values){
+		System.arraycopy(values(), 0, values, 0, values.length);
+	}
+	
+	/**
+	 * Returns the array backing the point, without copying it. Changes to the array change the feature vector.
+	 * 
+	 * @return The values of the feature vector.
+	 */
+	public double[] getValues(){
+		return values();
 	}
 	
 	public int getDimension(){
-		return this.point.size();		
+		return this.point.length + addedCount;		
 	}
 	
 	public double get(int index){
-		return this.point.get(index);
+		return values()[index];
 	}
 	
 	public void set(int index, double value){
-		this.point.set(index, value);
+		values()[index] = value;
 	}
 	
 	
@@ -135,4 +247,23 @@ public class FeatureVector implements Clusterable{
 		return new Integer(id).hashCode();
 		
 	}
+	
+	
+	// ------------------ Private methods. ---------------------- /
+	
+	// The values, which are only complete once any values added past the dimension have been appended
+	private double[] values(){
+		
+		if (added != null){
+			throw new IllegalStateException("Values were added past the dimension of the feature vector, it must be frozen before they are read, id=" + id);
+		}
+		return point;
+	}
+	
+	// Make room for more added values, at least doubling the buffer so adding d values one at a time costs O(d)
+	private void grow(int values){
+		
+		int capacity = Math.max(addedCount + values, added == null ? 4 : 2 * added.length);
+		added = added == null ? new double[capacity] : Arrays.copyOf(added, capacity);
+	}
 }
@@ -0,0 +1,196 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Cluster feature state held in arrays on the heap, each cluster feature of all the slots in one array.
+ *
+ * @author melissam
+ *
+ */
+final class HeapClusterFeatureState extends ClusterFeatureState {
+
+	/** Number of elements in each micro-cluster. */
+	private double[] sizes;
+
+	/** CF1x of each micro-cluster, one after the other. */
+	private double[] sumOfValues;
+
+	/** CF2x of each micro-cluster, one after the other. */
+	private double[] sumOfSquaresOfValues;
+
+	/** CF1t of each micro-cluster. */
+	private double[] sumOfTimestamps;
+
+	/** CF2t of each micro-cluster. */
+	private double[] sumOfSquaresOfTimestamps;
+
+
+	HeapClusterFeatureState(int dimension, int capacity){
+
+		super(dimension);
+
+		this.sizes = new double[capacity];
+		this.sumOfValues = new double[capacity * dimension];
+		this.sumOfSquaresOfValues = new double[capacity * dimension];
+		this.sumOfTimestamps = new double[capacity];
+		this.sumOfSquaresOfTimestamps = new double[capacity];
+
+	}
+
+
+	@Override
+	int getCapacity(){
+		return sizes.length;
+	}
+
+
+	@Override
+	void grow(int capacity, int used){
+
+		sizes = grow(sizes, capacity, used);
+		sumOfTimestamps = grow(sumOfTimestamps, capacity, used);
+		sumOfSquaresOfTimestamps = grow(sumOfSquaresOfTimestamps, capacity, used);
+		sumOfValues = grow(sumOfValues, capacity * dimension, used * dimension);
+		sumOfSquaresOfValues = grow(sumOfSquaresOfValues, capacity * dimension, used * dimension);
+
+	}
+
+
+	@Override
+	void set(int slot, int id, double size, double[] sumOfValues, double[] sumOfSquaresOfValues, double sumOfTimestamps, double sumOfSquaresOfTimestamps){
+
+		int offset = slot * dimension;
+
+		sizes[slot] = size;
+		System.arraycopy(sumOfValues, 0, this.sumOfValues, offset, dimension);
+		System.arraycopy(sumOfSquaresOfValues, 0, this.sumOfSquaresOfValues, offset, dimension);
+		this.sumOfTimestamps[slot] = sumOfTimestamps;
+		this.sumOfSquaresOfTimestamps[slot] = sumOfSquaresOfTimestamps;
+
+	}
+
+
+	@Override
+	void move(int from, int to){
+
+		sizes[to] = sizes[from];
+		System.arraycopy(sumOfValues, from * dimension, sumOfValues, to * dimension, dimension);
+		System.arraycopy(sumOfSquaresOfValues, from * dimension, sumOfSquaresOfValues, to * dimension, dimension);
+		sumOfTimestamps[to] = sumOfTimestamps[from];
+		sumOfSquaresOfTimestamps[to] = sumOfSquaresOfTimestamps[from];
+
+	}
+
+
+	@Override
+	double getSize(int slot){
+		return sizes[slot];
+	}
+
+
+	@Override
+	double getSumOfTimestamps(int slot){
+		return sumOfTimestamps[slot];
+	}
+
+
+	@Override
+	double getSumOfSquaresOfTimestamps(int slot){
+		return sumOfSquaresOfTimestamps[slot];
+	}
+
+
+	@Override
+	double getSumOfValues(int slot, int i){
+		return sumOfValues[slot * dimension + i];
+	}
+
+
+	@Override
+	double getSumOfSquaresOfValues(int slot, int i){
+		return sumOfSquaresOfValues[slot * dimension + i];
+	}
+
+
+	@Override
+	void copySumOfValues(int slot, double[] values){
+		System.arraycopy(sumOfValues, slot * dimension, values, 0, dimension);
+	}
+
+
+	@Override
+	void copySumOfSquaresOfValues(int slot, double[] values){
+		System.arraycopy(sumOfSquaresOfValues, slot * dimension, values, 0, dimension);
+	}
+
+
+	@Override
+	double add(int slot, double[] point){
+
+		int offset = slot * dimension;
+		for (int i = 0; i < dimension; i++){
+			double value = point[i];
+			sumOfValues[offset + i] += value;
+			sumOfSquaresOfValues[offset + i] += value * value;
+		}
+
+		return ++sizes[slot];
+	}
+
+
+	@Override
+	double add(int slot, double size, double[] sumOfValues, double[] sumOfSquaresOfValues){
+
+		int offset = slot * dimension;
+		for (int i = 0; i < dimension; i++){
+			this.sumOfValues[offset + i] += sumOfValues[i];
+			this.sumOfSquaresOfValues[offset + i] += sumOfSquaresOfValues[i];
+		}
+
+		return sizes[slot] += size;
+	}
+
+
+	@Override
+	double add(int slot, int other){
+
+		int offset = slot * dimension;
+		int otherOffset = other * dimension;
+		for (int i = 0; i < dimension; i++){
+			sumOfValues[offset + i] += sumOfValues[otherOffset + i];
+			sumOfSquaresOfValues[offset + i] += sumOfSquaresOfValues[otherOffset + i];
+		}
+
+		return sizes[slot] += sizes[other];
+	}
+
+
+	@Override
+	void addTimestamps(int slot, double sumOfTimestamps, double sumOfSquaresOfTimestamps){
+		this.sumOfTimestamps[slot] += sumOfTimestamps;
+		this.sumOfSquaresOfTimestamps[slot] += sumOfSquaresOfTimestamps;
+	}
+
+
+	@Override
+	void scale(int slot, double factor){
+
+		int offset = slot * dimension;
+
+		sizes[slot] *= factor;
+		for (int i = 0; i < dimension; i++){
+			sumOfValues[offset + i] *= factor;
+			sumOfSquaresOfValues[offset + i] *= factor;
+		}
+		sumOfTimestamps[slot] *= factor;
+		sumOfSquaresOfTimestamps[slot] *= factor;
+
+	}
+
+
+	private static double[] grow(double[] array, int capacity, int used){
+		double[] _array = new double[capacity];
+		System.arraycopy(array, 0, _array, 0, used);
+		return _array;
+	}
+
+}
@@ -0,0 +1,30 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * How CluStream creates its first micro-clusters.
+ *
+ * @author melissam
+ *
+ */
+public enum InitialisationType {
+
+	// buffer the first initNumber points and run k-means on them
+	KMEANS,
+
+	// seed micro-clusters from the first points as they arrive, by leader clustering with a bounded radius
+	ONLINE;
+
+	public static InitialisationType fromName(String name){
+
+		InitialisationType type = null;
+
+		for (InitialisationType _type : InitialisationType.values()){
+			if (_type.name().equalsIgnoreCase(name)){
+				type = _type;
+			}
+		}
+
+		return type != null ? type : InitialisationType.KMEANS;
+	}
+
+}
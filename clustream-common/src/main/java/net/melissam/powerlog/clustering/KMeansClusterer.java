@@ -42,14 +42,7 @@ public class KMeansClusterer {
 
         @Override
         public double distance(double[] p1, double[] p2) {
-            double s = 0;
-            for (int d = 0; d < p1.length; d++) {            	
-            	double diff = Math.abs(p1[d] - p2[d]);
-                s += diff != 0 ? Math.pow(Math.abs(p1[d] - p2[d]), 2) : 0;
-            }
-            
-            double d = s > 0 ? Math.sqrt(s) : 0;
-            return d;
+            return DistanceKernels.distance(p1, p2);
         }
     };
 
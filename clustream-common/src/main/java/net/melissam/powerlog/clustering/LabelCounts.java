@@ -0,0 +1,203 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Number of features with each ground truth label, indexed by the id of the label in the {@link LabelDictionary}.
+ *
+ * The ids are only meaningful in this JVM, so the counts are written with their labels, both by Java serialisation
+ * and as JSON, and the labels interned again when they are read. In JSON they are an object of the count of each label,
+ * e.g. {"normal.":120,"smurf.":3}; an array of labels, as logged before the labels were counted, is read as a count of
+ * 1 for each label.
+ *
+ * @author melissam
+ *
+ */
+@JsonAdapter(LabelCounts.Json.class)
+public class LabelCounts implements Serializable {
+
+	/** Serial UUID. */
+	private static final long serialVersionUID = -3786403571069843187L;
+
+	/** The count of each label id, labels with ids past the end of the array having none. */
+	private transient int[] counts;
+
+
+	/**
+	 * Creates counts with no labels.
+	 */
+	public LabelCounts(){
+		this.counts = new int[0];
+	}
+
+
+	/**
+	 * Creates a copy of label counts.
+	 *
+	 * @param other	The counts to copy.
+	 */
+	public LabelCounts(LabelCounts other){
+		this.counts = other.counts.clone();
+	}
+
+
+	/**
+	 * Returns the number of features with a label.
+	 *
+	 * @param label	The label.
+	 * @return The number of features with the label.
+	 */
+	public int get(String label){
+		int id = LabelDictionary.getId(label);
+		return id >= 0 && id < counts.length ? counts[id] : 0;
+	}
+
+
+	/**
+	 * Returns the labels with at least one feature.
+	 * @return A new set of the labels.
+	 */
+	public Set<String> getLabels(){
+
+		Set<String> labels = new HashSet<String>();
+		for (int id = 0; id < counts.length; id++){
+			if (counts[id] > 0) labels.add(LabelDictionary.getLabel(id));
+		}
+		return labels;
+	}
+
+
+	/**
+	 * Returns the count of each label id.
+	 * @return The counts, which must not be changed.
+	 */
+	public int[] getCounts(){
+		return counts;
+	}
+
+
+	/**
+	 * Add to the count of a label.
+	 *
+	 * @param id	The id of the label, {@link LabelDictionary#NO_LABEL} is not counted.
+	 * @param count	The number of features to add.
+	 */
+	public void add(int id, int count){
+
+		if (id == LabelDictionary.NO_LABEL) return;
+
+		if (id >= counts.length) counts = Arrays.copyOf(counts, id + 1);
+		counts[id] += count;
+	}
+
+
+	/**
+	 * Add the counts of another set of counts.
+	 *
+	 * @param other	The other counts.
+	 */
+	public void addAll(LabelCounts other){
+		for (int id = other.counts.length - 1; id >= 0; id--){
+			if (other.counts[id] > 0) add(id, other.counts[id]);
+		}
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+
+		out.defaultWriteObject();
+
+		int labels = 0;
+		for (int count : counts){
+			if (count > 0) labels++;
+		}
+
+		out.writeInt(labels);
+		for (int id = 0; id < counts.length; id++){
+			if (counts[id] > 0){
+				out.writeObject(LabelDictionary.getLabel(id));
+				out.writeInt(counts[id]);
+			}
+		}
+	}
+
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+		in.defaultReadObject();
+
+		counts = new int[0];
+		int labels = in.readInt();
+		for (int i = 0; i < labels; i++){
+			int id = LabelDictionary.intern((String)in.readObject());
+			add(id, in.readInt());
+		}
+	}
+
+
+	/**
+	 * Writes label counts as an object of the count of each label, and reads them back from it or from an array of
+	 * labels.
+	 */
+	public static final class Json extends TypeAdapter<LabelCounts> {
+
+		@Override
+		public void write(JsonWriter out, LabelCounts labelCounts) throws IOException {
+
+			if (labelCounts == null){
+				out.nullValue();
+				return;
+			}
+
+			out.beginObject();
+			for (int id = 0; id < labelCounts.counts.length; id++){
+				if (labelCounts.counts[id] > 0) out.name(LabelDictionary.getLabel(id)).value(labelCounts.counts[id]);
+			}
+			out.endObject();
+		}
+
+		@Override
+		public LabelCounts read(JsonReader in) throws IOException {
+
+			LabelCounts labelCounts = new LabelCounts();
+
+			if (in.peek() == JsonToken.NULL){
+
+				in.nextNull();
+
+			}else if (in.peek() == JsonToken.BEGIN_ARRAY){
+
+				in.beginArray();
+				while (in.hasNext()){
+					labelCounts.add(LabelDictionary.intern(in.nextString()), 1);
+				}
+				in.endArray();
+
+			}else{
+
+				in.beginObject();
+				while (in.hasNext()){
+					labelCounts.add(LabelDictionary.intern(in.nextName()), in.nextInt());
+				}
+				in.endObject();
+			}
+
+			return labelCounts;
+		}
+	}
+
+}
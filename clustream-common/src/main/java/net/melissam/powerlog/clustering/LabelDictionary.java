@@ -0,0 +1,127 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Dictionary of the ground truth labels seen in this JVM, which interns each label to a small int.
+ *
+ * Feature vectors and micro-clusters hold the ids of their labels rather than the labels, so a label is held once
+ * however many points carry it, and a micro-cluster can count its points per label in an array indexed by id. Ids are
+ * given out from 0 in order of first appearance and are only meaningful within the JVM: micro-clusters sent elsewhere
+ * are serialised, and feature vectors and micro-clusters logged as JSON, with their labels, which are interned again
+ * where they are read.
+ *
+ * Labels can be interned and looked up by any number of threads at once.
+ *
+ * @author melissam
+ *
+ */
+public final class LabelDictionary {
+
+	/** Id standing for no label. */
+	public static final int NO_LABEL = -1;
+
+	/** Id of each label. */
+	private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>();
+
+	/** Label of each id, replaced by a longer copy as labels are added. */
+	private static volatile String[] labels = new String[0];
+
+
+	private LabelDictionary(){}
+
+
+	/**
+	 * Returns the id of a label, giving it the next id the first time it is seen.
+	 *
+	 * @param label	The label, may be null.
+	 * @return The id of the label, {@link #NO_LABEL} if it is null.
+	 */
+	public static int intern(String label){
+
+		if (label == null) return NO_LABEL;
+
+		Integer id = IDS.get(label);
+		if (id != null) return id;
+
+		synchronized (IDS){
+
+			id = IDS.get(label);
+			if (id == null){
+
+				// publish the label before its id, so whoever gets the id can look the label up
+				String[] _labels = Arrays.copyOf(labels, labels.length + 1);
+				_labels[_labels.length - 1] = label;
+				labels = _labels;
+
+				id = _labels.length - 1;
+				IDS.put(label, id);
+			}
+			return id;
+		}
+	}
+
+
+	/**
+	 * Returns the id of a label without interning it.
+	 *
+	 * @param label	The label, may be null.
+	 * @return The id of the label, {@link #NO_LABEL} if it is null or has not been interned.
+	 */
+	public static int getId(String label){
+
+		Integer id = label != null ? IDS.get(label) : null;
+		return id != null ? id : NO_LABEL;
+	}
+
+
+	/**
+	 * Returns the label with an id.
+	 *
+	 * @param id	The id of the label.
+	 * @return The label, null for {@link #NO_LABEL}.
+	 */
+	public static String getLabel(int id){
+		return id == NO_LABEL ? null : labels[id];
+	}
+
+
+	/**
+	 * Returns the number of labels interned so far, which is one more than the largest id.
+	 * @return The number of labels.
+	 */
+	public static int size(){
+		return labels.length;
+	}
+
+
+	/**
+	 * Writes a label id as its label, and reads a label back as its id in this JVM.
+	 */
+	public static final class Json extends TypeAdapter<Integer> {
+
+		@Override
+		public void write(JsonWriter out, Integer id) throws IOException {
+			out.value(id != null ? getLabel(id) : null);
+		}
+
+		@Override
+		public Integer read(JsonReader in) throws IOException {
+
+			if (in.peek() == JsonToken.NULL){
+				in.nextNull();
+				return NO_LABEL;
+			}
+			return intern(in.nextString());
+		}
+	}
+
+}
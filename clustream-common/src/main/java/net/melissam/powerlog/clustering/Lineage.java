@@ -0,0 +1,377 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The ids of the micro-clusters merged into a micro-cluster, its own id first and the others in the order they were
+ * merged in.
+ *
+ * The ids are held in a primitive array in which an id stands for itself and a run of ids with a constant step takes 3
+ * ints, a negative count followed by the first id and the step, so ids handed out in sequence, which merge in together
+ * or are renumbered by a shard, take 3 ints however many there are, and ids in no order take one int each. Merging in
+ * another lineage appends its entries, extending the last run where they continue it, so it costs the number of
+ * entries of the other lineage. Ids are never negative.
+ *
+ * A lineage can be bounded (see {@link #spill(int)}): the older ids are taken out, leaving the micro-cluster's own id
+ * and the most recent ones, so the lineage carried by a micro-cluster, and by every message it is sent in, stays
+ * bounded however often it merges. The learner hands the ids taken out to a {@link LineageStore}, if it has one.
+ *
+ * As JSON a lineage is the array of its ids, as the id lists of micro-clusters were logged; the number of ids spilled
+ * is not written.
+ *
+ * @author melissam
+ *
+ */
+@JsonAdapter(Lineage.Json.class)
+public class Lineage implements Serializable {
+
+	/** Serial UUID. */
+	private static final long serialVersionUID = 2868546740255567271L;
+
+	/** Number of entries in the array of a new lineage. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The entries: an id, or the negated number of ids of a run followed by its first id and step. */
+	private int[] codes;
+
+	/** Number of ints of the array in use. */
+	private int length;
+
+	/** Where the last entry starts. */
+	private int tail;
+
+	/** Where the entry before the last starts, -1 if it is not known. */
+	private int previous;
+
+	/** Number of ids. */
+	private int size;
+
+	/** Number of ids taken out of the lineage. */
+	private long spilled;
+
+
+	/**
+	 * Creates the lineage of a new micro-cluster.
+	 *
+	 * @param id	The id of the micro-cluster, not negative.
+	 */
+	public Lineage(int id){
+
+		if (id < 0) throw new IllegalArgumentException("Lineage ids cannot be negative, id=" + id);
+
+		this.codes = new int[INITIAL_CAPACITY];
+		this.codes[0] = id;
+		this.length = 1;
+		this.tail = 0;
+		this.previous = -1;
+		this.size = 1;
+	}
+
+
+	/**
+	 * Creates a copy of a lineage.
+	 *
+	 * @param other	The lineage to copy.
+	 */
+	public Lineage(Lineage other){
+		this.codes = Arrays.copyOf(other.codes, other.length);
+		this.length = other.length;
+		this.tail = other.tail;
+		this.previous = other.previous;
+		this.size = other.size;
+		this.spilled = other.spilled;
+	}
+
+
+	/**
+	 * Returns the number of ids in the lineage.
+	 * @return The number of ids.
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Returns the number of ids taken out of the lineage to keep it bounded.
+	 * @return The number of ids spilled.
+	 */
+	public long getSpilled(){
+		return spilled;
+	}
+
+
+	/**
+	 * Returns an id of the lineage.
+	 *
+	 * @param index	The index of the id, 0 for the id of the micro-cluster.
+	 * @return The id.
+	 */
+	public int get(int index){
+
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+
+		int e = 0;
+		while (true){
+
+			int code = codes[e];
+			if (code >= 0){
+				if (index == 0) return code;
+				index--;
+				e++;
+			}else{
+				if (index < -code) return codes[e + 1] + codes[e + 2] * index;
+				index += code;
+				e += 3;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the ids of the lineage, in order.
+	 * @return A new array of the ids.
+	 */
+	public int[] toArray(){
+
+		int[] ids = new int[size];
+		int i = 0;
+		for (int e = 0; e < length; ){
+			int code = codes[e];
+			if (code >= 0){
+				ids[i++] = code;
+				e++;
+			}else{
+				for (int k = 0; k < -code; k++){
+					ids[i++] = codes[e + 1] + codes[e + 2] * k;
+				}
+				e += 3;
+			}
+		}
+		return ids;
+	}
+
+
+	/**
+	 * Append the lineage of a micro-cluster merged in.
+	 *
+	 * @param other	The lineage of the other micro-cluster.
+	 */
+	public void addAll(Lineage other){
+
+		for (int e = 0; e < other.length; ){
+			int code = other.codes[e];
+			if (code >= 0){
+				add(code);
+				e++;
+			}else{
+				addRun(other.codes[e + 1], other.codes[e + 2], -code);
+				e += 3;
+			}
+		}
+		spilled += other.spilled;
+	}
+
+
+	/**
+	 * Take out the older ids if the lineage has more than the given number, keeping the id of the micro-cluster and the
+	 * most recent ids.
+	 *
+	 * @param cap	The largest number of ids to keep, at least 1.
+	 * @return The ids taken out, oldest first, null if the lineage is within the cap.
+	 */
+	public int[] spill(int cap){
+
+		if (cap < 1) throw new IllegalArgumentException("A lineage must keep at least the id of its micro-cluster, cap=" + cap);
+
+		if (size <= cap) return null;
+
+		int[] ids = toArray();
+		int from = 1, to = size - cap + 1;
+
+		// rebuild the entries from the ids kept, the id of the micro-cluster staying first
+		codes = new int[Math.max(INITIAL_CAPACITY, cap)];
+		codes[0] = ids[0];
+		length = 1;
+		tail = 0;
+		previous = -1;
+		size = 1;
+		for (int i = to; i < ids.length; i++){
+			add(ids[i]);
+		}
+		spilled += to - from;
+
+		return Arrays.copyOfRange(ids, from, to);
+	}
+
+
+	/**
+	 * Renumber every id as id * multiplier + offset, which must not make any id negative.
+	 *
+	 * @param multiplier	The multiplier.
+	 * @param offset		The offset.
+	 */
+	public void renumber(int multiplier, int offset){
+
+		for (int e = 0; e < length; ){
+			if (codes[e] >= 0){
+				codes[e] = codes[e] * multiplier + offset;
+				e++;
+			}else{
+				codes[e + 1] = codes[e + 1] * multiplier + offset;
+				codes[e + 2] *= multiplier;
+				e += 3;
+			}
+		}
+	}
+
+
+	/**
+	 * Append the id of a micro-cluster merged into this one.
+	 *
+	 * @param id	The id, not negative.
+	 */
+	void append(int id){
+
+		if (id < 0) throw new IllegalArgumentException("Lineage ids cannot be negative, id=" + id);
+
+		add(id);
+	}
+
+
+	@Override
+	public String toString(){
+		return Arrays.toString(toArray());
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	// Append an id, extending the last run if it continues it, or making a run of the last 2 ids if it continues them
+	private void add(int id){
+
+		int code = codes[tail];
+		if (code < 0){
+
+			if (id == codes[tail + 1] + codes[tail + 2] * -code){
+				codes[tail]--;
+				size++;
+				return;
+			}
+
+		}else if (previous == tail - 1 && previous >= 0 && codes[previous] >= 0 && id - code == code - codes[previous]){
+
+			// 3 ids with the same step take as many ints as a run of them
+			int first = codes[previous];
+			ensureCapacity(previous + 3);
+			codes[previous] = -3;
+			codes[previous + 1] = first;
+			codes[previous + 2] = code - first;
+			length = previous + 3;
+			tail = previous;
+			previous = -1;
+			size++;
+			return;
+		}
+
+		ensureCapacity(length + 1);
+		previous = tail;
+		tail = length;
+		codes[length++] = id;
+		size++;
+	}
+
+
+	// Append a run of ids, extending the last run or id if it continues it
+	private void addRun(int first, int step, int count){
+
+		int code = codes[tail];
+		if (code < 0 && codes[tail + 2] == step && first == codes[tail + 1] + step * -code){
+
+			codes[tail] -= count;
+
+		}else if (code >= 0 && first - code == step){
+
+			ensureCapacity(tail + 3);
+			codes[tail] = -(count + 1);
+			codes[tail + 1] = code;
+			codes[tail + 2] = step;
+			length = tail + 3;
+
+		}else{
+
+			ensureCapacity(length + 3);
+			previous = tail;
+			tail = length;
+			codes[length++] = -count;
+			codes[length++] = first;
+			codes[length++] = step;
+		}
+
+		size += count;
+	}
+
+
+	private void ensureCapacity(int capacity){
+		if (capacity > codes.length) codes = Arrays.copyOf(codes, Math.max(capacity, 2 * codes.length));
+	}
+
+
+	// Only the entries in use are written
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		if (codes.length > length) codes = Arrays.copyOf(codes, length);
+		out.defaultWriteObject();
+	}
+
+
+	/**
+	 * Writes a lineage as the array of its ids, and reads it back from one.
+	 */
+	public static final class Json extends TypeAdapter<Lineage> {
+
+		@Override
+		public void write(JsonWriter out, Lineage lineage) throws IOException {
+
+			if (lineage == null){
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int id : lineage.toArray()){
+				out.value(id);
+			}
+			out.endArray();
+		}
+
+		@Override
+		public Lineage read(JsonReader in) throws IOException {
+
+			if (in.peek() == JsonToken.NULL){
+				in.nextNull();
+				return null;
+			}
+
+			Lineage lineage = null;
+			in.beginArray();
+			while (in.hasNext()){
+				int id = in.nextInt();
+				if (lineage == null) lineage = new Lineage(id);
+				else lineage.add(id);
+			}
+			in.endArray();
+
+			return lineage;
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Keeps the older lineage of micro-clusters whose lineage is bounded, see {@link OnlineClusterer#setLineageCap(int)}.
+ *
+ * The learner calls the store whenever a merge takes a micro-cluster's lineage past the cap, with the ids that no
+ * longer fit, so the store sees every id of the lineage exactly once. It is called on the thread placing the point
+ * which caused the merge.
+ *
+ * @author melissam
+ *
+ */
+public interface LineageStore {
+
+	/**
+	 * Keep ids taken out of the lineage of a micro-cluster.
+	 *
+	 * @param clusterId	The id of the micro-cluster.
+	 * @param ids		The ids taken out, oldest first.
+	 */
+	void spill(int clusterId, int[] ids);
+
+}
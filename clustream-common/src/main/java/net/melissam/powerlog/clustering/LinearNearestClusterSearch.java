@@ -0,0 +1,50 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Exhaustive nearest micro-cluster search which computes the distance of the point to every micro-cluster.
+ * The centroids are scanned in the order they are laid out in the learner's {@link MicroClusterStore}.
+ *
+ * @author melissam
+ *
+ */
+public class LinearNearestClusterSearch implements NearestClusterSearch {
+
+	/** The store holding the live micro-clusters of the learner. */
+	private MicroClusterStore store;
+
+
+	/**
+	 * Creates a linear search over the micro-clusters in the given store.
+	 *
+	 * @param store The store holding the micro-clusters maintained by the learner.
+	 */
+	public LinearNearestClusterSearch(MicroClusterStore store){
+		this.store = store;
+	}
+
+	@Override
+	public void add(MicroCluster cluster) {
+		// nothing to do, we scan the learner's store
+	}
+
+	@Override
+	public void remove(MicroCluster cluster) {
+		// nothing to do, we scan the learner's store
+	}
+
+	@Override
+	public void update(MicroCluster cluster) {
+		// nothing to do, distances are always computed from the current centroids
+	}
+
+	@Override
+	public MicroCluster nearest(double[] point) {
+		return store.nearest(point);
+	}
+
+	@Override
+	public double getNearestDistance() {
+		return store.getNearestDistance();
+	}
+
+}
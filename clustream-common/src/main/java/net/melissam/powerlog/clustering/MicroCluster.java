@@ -1,12 +1,18 @@
 package net.melissam.powerlog.clustering;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.math3.special.Erf;
 
+import com.google.gson.annotations.SerializedName;
+
 /**
  * Representation of a micro-cluster maintained in the online phase.
  * 
@@ -17,6 +23,15 @@ public class MicroCluster extends ClusterFeatureVector {
 	
 	/** Serial UUID. */
 	private static final long serialVersionUID = -1952975576056879492L;
+	
+	/** Number of steps in the table of quantiles used for the relevance stamp. */
+	private static final int QUANTILE_TABLE_SIZE = 4096;
+	
+	/** Largest value covered by the quantile table. The relevance stamp only needs quantiles of m/(2*size) <= 1/4. */
+	private static final double QUANTILE_TABLE_MAX = 0.5;
+	
+	/** Precomputed quantiles, so that the relevance stamp does not need an inverse error function call. */
+	private static final double[] QUANTILE_TABLE = buildQuantileTable();
 
 
 	/** Sum of the squares of the timestamps at which each feature vector arrives. */
@@ -38,11 +53,39 @@ public class MicroCluster extends ClusterFeatureVector {
 	/** Number of points to calculate the recency timestamp of this cluster on. */ 
 	private double m;
 	
-	/** List of ids of the cluster. */
-	private List<Integer> idList;
+	/** Ids of the micro-clusters merged into this one, its own id first, written to JSON as the list of ids. */
+	@SerializedName("idList")
+	private Lineage lineage;
+	
+	/** Id of the cluster, the first of its lineage, boxed once so it can be handed out without boxing. */
+	private transient Integer id;
+	
+	/** 
+	 * Number of features added to the micro-cluster with each ground truth label, written as labels since the label 
+	 * ids are only meaningful in this JVM.
+	 */
+	@SerializedName("groundTruthLabels")
+	private LabelCounts labelCounts;
+	
+	/** Store holding the cluster feature state of this micro-cluster, null if it keeps its own state. */
+	private transient MicroClusterStore store;
+	
+	/** Slot of this micro-cluster in the store. */
+	private transient int slot;
+	
+	/** Variance of each dimension, valid while varianceCached is set. */
+	private transient double[] cachedVariance;
+	private transient boolean varianceCached;
+	
+	/** Root-means-square deviation, valid while deviationCached is set. */
+	private transient double cachedDeviation;
+	private transient boolean deviationCached;
+	
+	/** Copy of this micro-cluster published in a model snapshot, null once this micro-cluster changes. */
+	private transient MicroCluster publishedCopy;
 	
-	/** Set of ground truth labels of features that were added to the Micro-cluster. */
-	private Set<String> groundTruthLabels;
+	/** Whether this micro-cluster is serialised in single precision, as copies of micro-clusters in a FLOAT store are. */
+	private transient boolean singlePrecision;
 	
 	
 	/**
@@ -54,8 +97,8 @@ public class MicroCluster extends ClusterFeatureVector {
 		super(center);
 		
 		// set id
-		this.idList = new ArrayList<Integer>();
-		this.idList.add(id);
+		this.lineage = new Lineage(id);
+		this.id = id;
 		
 		// first timestamp
 		this.sumOfTimestamps = timestamp;
@@ -66,24 +109,140 @@ public class MicroCluster extends ClusterFeatureVector {
 		this.t = t;
 		this.m = m;
 		
-		this.groundTruthLabels = new HashSet<String>();
+		this.labelCounts = new LabelCounts();
 		
 	}
 	
+	
+	/**
+	 * Construct a copy of a micro-cluster, which keeps its own state.
+	 * @param other The micro-cluster to copy.
+	 */
+	protected MicroCluster(MicroCluster other){
+		
+		super(other.getSize(), other.getSumOfValues().clone(), other.getSumOfSquaresOfValues().clone());
+		
+		this.lineage = new Lineage(other.lineage);
+		this.id = other.id;
+		this.sumOfTimestamps = other.getSumOfTimestamps();
+		this.sumOfSquaresOfTimestamps = other.getSumOfSquaresOfTimestamps();
+		this.t = other.t;
+		this.m = other.m;
+		this.labelCounts = other.labelCounts != null ? new LabelCounts(other.labelCounts) : new LabelCounts();
+		this.singlePrecision = other.singlePrecision || (other.store != null && other.store.getPrecision() == StoragePrecision.FLOAT);
+		
+	}
+	
+	
+	// Construct a micro-cluster read in single precision, whose cluster features are rebuilt from its centroid and variance
+	private MicroCluster(SinglePrecisionForm form) throws InvalidObjectException {
+		
+		super(form.size, new double[form.center.length], new double[form.center.length]);
+		
+		for (int i = 0; i < form.center.length; i++){
+			double center = form.center[i];
+			sumOfValues[i] = center * form.size;
+			sumOfSquaresOfValues[i] = (form.variance[i] + center * center) * form.size;
+		}
+		
+		if (form.lineage == null || form.lineage.size() == 0) throw new InvalidObjectException("Micro-cluster without a lineage");
+		this.lineage = form.lineage;
+		this.id = lineage.get(0);
+		this.sumOfTimestamps = form.sumOfTimestamps;
+		this.sumOfSquaresOfTimestamps = form.sumOfSquaresOfTimestamps;
+		this.t = form.t;
+		this.m = form.m;
+		this.labelCounts = form.labelCounts != null ? form.labelCounts : new LabelCounts();
+		this.singlePrecision = true;
+		
+	}
+	
+	
+	/**
+	 * Returns a copy of this micro-cluster which is not attached to any store.
+	 * @return A copy of this micro-cluster.
+	 */
+	public MicroCluster copy(){
+		return new MicroCluster(this);
+	}
+	
+	/**
+	 * Returns the ids of the micro-clusters merged into this one, its own id first.
+	 * @return A new list of the ids.
+	 */
 	public List<Integer> getIdList(){
-		return this.idList;
+		
+		int[] ids = lineage.toArray();
+		List<Integer> idList = new ArrayList<Integer>(ids.length);
+		for (int i : ids){
+			idList.add(i);
+		}
+		return idList;
+	}
+	
+	/**
+	 * Returns the id of the micro-cluster.
+	 * @return The id, null for a micro-cluster read from JSON without ids.
+	 */
+	public Integer getId(){
+		
+		// the id is not written to JSON, so a micro-cluster read from it takes it from its lineage
+		if (id == null && lineage != null) id = lineage.get(0);
+		return id;
+	}
+	
+	/**
+	 * Returns the ids of the micro-clusters merged into this one, see {@link Lineage}.
+	 * @return The lineage, which must not be changed.
+	 */
+	public Lineage getLineage(){
+		return lineage;
+	}
+	
+	/**
+	 * Bound the lineage to the given number of ids, handing the older ids to the lineage store.
+	 * 
+	 * @param cap			The largest number of ids to keep.
+	 * @param lineageStore	Keeps the ids taken out, null to drop them.
+	 */
+	public void boundLineage(int cap, LineageStore lineageStore){
+		
+		int[] spilled = lineage.spill(cap);
+		if (spilled != null && lineageStore != null) lineageStore.spill(id, spilled);
 	}
 
 	public double getSumOfSquaresOfTimestamps() {
-		return sumOfSquaresOfTimestamps;
+		return store != null ? store.getSumOfSquaresOfTimestamps(slot) : sumOfSquaresOfTimestamps;
 	}
 
 	public double getSumOfTimestamps() {
-		return sumOfTimestamps;
+		return store != null ? store.getSumOfTimestamps(slot) : sumOfTimestamps;
 	}
 	
+	/**
+	 * Returns the ground truth labels of the features added to the micro-cluster.
+	 * @return A new set of the labels.
+	 */
 	public Set<String> getGroundTruthLabels(){
-		return groundTruthLabels;
+		return labelCounts().getLabels();
+	}
+	
+	/**
+	 * Returns the number of features added to the micro-cluster with a ground truth label.
+	 * @param label	The label.
+	 * @return The number of features with the label.
+	 */
+	public int getLabelCount(String label){
+		return labelCounts().get(label);
+	}
+	
+	/**
+	 * Returns the number of features added to the micro-cluster with each ground truth label, indexed by the id of the 
+	 * label in the {@link LabelDictionary}. Labels with ids past the end of the array have no features.
+	 * @return The counts per label, which must not be changed.
+	 */
+	public int[] getLabelCounts(){
+		return labelCounts().getCounts();
 	}
 
 	/**
@@ -94,13 +253,29 @@ public class MicroCluster extends ClusterFeatureVector {
 	 */
 	public void addFeatureVector(FeatureVector featureVector){
 		
-		super.addFeature(featureVector.getPoint());
+		if (store != null){
+			
+			store.add(slot, featureVector);
 			
-		// adjust timestamp values
-		sumOfTimestamps += featureVector.getTimestamp();
-		sumOfSquaresOfTimestamps += Math.pow(featureVector.getTimestamp(), 2);
+		}else{
+		
+			// add the feature values directly, to avoid copying the point
+			double[] point = featureVector.getValues();
+			for (int i = 0; i < sumOfValues.length; i++){
+				double value = point[i];
+				sumOfValues[i] += value;
+				sumOfSquaresOfValues[i] += value * value;
+			}
+			size++;
+				
+			// adjust timestamp values
+			long timestamp = featureVector.getTimestamp();
+			sumOfTimestamps += timestamp;
+			sumOfSquaresOfTimestamps += (double)timestamp * timestamp;
+		}
+		invalidate();
 		
-		groundTruthLabels.add(featureVector.getGroundTruthLable());
+		labelCounts().add(featureVector.getGroundTruthLabelId(), 1);
 		
 	}
 	
@@ -114,17 +289,9 @@ public class MicroCluster extends ClusterFeatureVector {
 	 */
 	public double getDistance(double[] point){
 	
-		double[] center = getCenter();
-		double distance = 0.0;
+		if (store != null) return store.getDistance(slot, point);
 		
-		for (int i = 0; i < center.length; i++){
-			
-			//square o
-			distance += Math.pow(point[i] - center[i], 2);
-			
-		}
-		
-		return Math.sqrt(distance);
+		return DistanceKernels.distance(point, getCenter());
 		
 	}
 	
@@ -140,7 +307,7 @@ public class MicroCluster extends ClusterFeatureVector {
 	@Override
 	public double getRadius(){
 	
-		if(size == 1) return 0; 			// paper says "If the cluster only has one point the maximum boundary is the distance to the closest cluster
+		if(getSize() == 1) return 0; 			// paper says "If the cluster only has one point the maximum boundary is the distance to the closest cluster
 											// this needs to be calculated external to the micro-cluster, so return 0 will be indicative of this
 		else return getDeviation() * t;
 		
@@ -154,14 +321,23 @@ public class MicroCluster extends ClusterFeatureVector {
 	 */
 	public void merge(MicroCluster other){
 	
-		super.addFeature(other);
+		if (store != null){
+			
+			// the store adds the timestamps too
+			store.add(slot, other);
+			
+		}else{
 		
-		this.sumOfTimestamps += other.sumOfTimestamps;
-		this.sumOfSquaresOfTimestamps += other.sumOfSquaresOfTimestamps;
+			super.addFeature(other);
+			
+			this.sumOfTimestamps += other.getSumOfTimestamps();
+			this.sumOfSquaresOfTimestamps += other.getSumOfSquaresOfTimestamps();
+		}
+		invalidate();
 		
-		this.idList.addAll(other.getIdList());
+		this.lineage.addAll(other.lineage);
 		
-		this.groundTruthLabels.addAll(other.groundTruthLabels);
+		if (other.labelCounts != null) labelCounts().addAll(other.labelCounts);
 	}
 	
 	
@@ -176,6 +352,7 @@ public class MicroCluster extends ClusterFeatureVector {
 	 */
 	public double getAverageTimestamp(){
 	
+		double size = getSize();
 		if (size < m*2){					
 			return this.getTimestampMean();
 		}else{
@@ -196,17 +373,11 @@ public class MicroCluster extends ClusterFeatureVector {
 	 */
 	public double getInclusionProbability(double[] featureVector, double minDistance){
 		
-        if(size == 1){
+        if(getSize() == 1){
         	
-        	// calculate the distance of the feature vector from the centroid
+        	// calculate the distance of the feature vector from the centroid, which is the only point
         	
-            double distance = 0.0;
-            for (int i = 0; i < sumOfValues.length; i++) {
-                double d = sumOfValues[i] - featureVector[i];
-                distance += d * d;
-            }
-            
-            distance = Math.sqrt(distance);
+            double distance = getDistance(featureVector);
             
             return distance < minDistance ? 1 : 0;
             
@@ -222,15 +393,229 @@ public class MicroCluster extends ClusterFeatureVector {
 	}
 	
 	
+	@Override
+	public void addFeature(double[] featureVector){
+		
+		if (store != null){
+			store.add(slot, featureVector);
+			invalidate();
+		}else{
+			super.addFeature(featureVector);
+		}
+	}
+	
+	@Override
+	public void addFeature(ClusterFeatureVector other){
+		
+		if (store != null){
+			store.add(slot, other);
+			invalidate();
+		}else{
+			super.addFeature(other);
+		}
+	}
+	
+	@Override
+	protected void computeCenter(double[] center){
+		if (store != null) store.getCenter(slot, center);
+		else super.computeCenter(center);
+	}
+	
+	@Override
+	protected void invalidate(){
+		super.invalidate();
+		varianceCached = false;
+		deviationCached = false;
+		publishedCopy = null;
+	}
+	
+	@Override
+	public double getWeight(){
+		return getSize();
+	}
+	
+	@Override
+	public double getSize(){
+		return store != null ? store.getSize(slot) : size;
+	}
+	
+	/**
+	 * Returns the sum of squares. If the micro-cluster is attached to a store, this is a copy.
+	 * @return The sum of squares.
+	 */
+	@Override
+	public double[] getSumOfSquaresOfValues(){
+		
+		if (store == null) return sumOfSquaresOfValues;
+		
+		double[] values = new double[store.getDimension()];
+		store.copySumOfSquaresOfValues(slot, values);
+		return values;
+	}
+	
+	/**
+	 * Returns the sum of values. If the micro-cluster is attached to a store, this is a copy.
+	 * @return The sum of values.
+	 */
+	@Override
+	public double[] getSumOfValues(){
+		
+		if (store == null) return sumOfValues;
+		
+		double[] values = new double[store.getDimension()];
+		store.copySumOfValues(slot, values);
+		return values;
+	}
+	
+	@Override
+	public int getDimension(){
+		return store != null ? store.getDimension() : sumOfValues.length;
+	}
+	
+	
+	// ------------------ Store methods. ---------------------- /
+	
+	// Become a view on a slot of the store, dropping our own state
+	void attach(MicroClusterStore store, int slot){
+		
+		this.store = store;
+		this.slot = slot;
+		
+		this.sumOfValues = null;
+		this.sumOfSquaresOfValues = null;
+		
+		invalidate();
+	}
+	
+	// Take back our own state from the store
+	void detach(double size, double[] sumOfValues, double[] sumOfSquaresOfValues, double sumOfTimestamps, double sumOfSquaresOfTimestamps){
+		
+		this.size = size;
+		this.sumOfValues = sumOfValues;
+		this.sumOfSquaresOfValues = sumOfSquaresOfValues;
+		this.sumOfTimestamps = sumOfTimestamps;
+		this.sumOfSquaresOfTimestamps = sumOfSquaresOfTimestamps;
+		
+		this.store = null;
+		this.slot = -1;
+		
+		invalidate();
+	}
+	
+	MicroClusterStore getStore(){
+		return store;
+	}
+	
+	int getSlot(){
+		return slot;
+	}
+	
+	// Renumber the lineage, as id * multiplier + offset
+	void renumber(int multiplier, int offset){
+		lineage.renumber(multiplier, offset);
+		id = lineage.get(0);
+	}
+	
+	// A copy for a model snapshot published at the timestamp, shared by all the snapshots published until this micro-cluster changes
+	MicroCluster getPublishedCopy(long timestamp){
+		if (publishedCopy == null) publishedCopy = copy();
+		return publishedCopy;
+	}
+	
+	// Scale all the cluster features by the factor, which leaves the centroid, the deviation and the relevance stamp as they are
+	void scale(double factor){
+		
+		if (store != null){
+			
+			store.scale(slot, factor);
+			
+		}else{
+			
+			size *= factor;
+			for (int i = 0; i < sumOfValues.length; i++){
+				sumOfValues[i] *= factor;
+				sumOfSquaresOfValues[i] *= factor;
+			}
+			sumOfTimestamps *= factor;
+			sumOfSquaresOfTimestamps *= factor;
+		}
+		invalidate();
+	}
+	
+	// An attached micro-cluster is serialised as a copy with its own state, in single precision if its store is
+	protected Object writeReplace() throws ObjectStreamException {
+		MicroCluster cluster = store != null ? copy() : this;
+		return cluster.singlePrecision ? new SinglePrecisionForm(cluster) : cluster;
+	}
+	
+	// The id is not serialised, being the first of the lineage. Micro-clusters serialised before the lineage and the
+	// label counts were introduced have the list of ids and the set of labels instead, which are converted
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		
+		ObjectInputStream.GetField fields = in.readFields();
+		
+		sumOfSquaresOfTimestamps = fields.get("sumOfSquaresOfTimestamps", 0.0);
+		sumOfTimestamps = fields.get("sumOfTimestamps", 0.0);
+		t = fields.get("t", 0.0);
+		m = fields.get("m", 0.0);
+		
+		if (fields.getObjectStreamClass().getField("idList") == null){
+			
+			lineage = (Lineage)fields.get("lineage", null);
+			labelCounts = (LabelCounts)fields.get("labelCounts", null);
+			
+		}else{
+			
+			@SuppressWarnings("unchecked")
+			List<Integer> idList = (List<Integer>)fields.get("idList", null);
+			if (idList != null && !idList.isEmpty()){
+				lineage = new Lineage(idList.get(0));
+				for (int i = 1; i < idList.size(); i++){
+					lineage.append(idList.get(i));
+				}
+			}
+			
+			// each label was seen at least once
+			@SuppressWarnings("unchecked")
+			Set<String> groundTruthLabels = (Set<String>)fields.get("groundTruthLabels", null);
+			labelCounts = new LabelCounts();
+			if (groundTruthLabels != null){
+				for (String label : groundTruthLabels){
+					labelCounts.add(LabelDictionary.intern(label), 1);
+				}
+			}
+		}
+		
+		// a bounded lineage still starts with the id of the micro-cluster, which spilling never takes out
+		if (lineage == null || lineage.size() == 0) throw new InvalidObjectException("Micro-cluster without a lineage");
+		id = lineage.get(0);
+	}
+	
+	
 	// ------------------ Private methods. ---------------------- /
 	
+	// The label counts, created for a micro-cluster read from JSON without them
+	private LabelCounts labelCounts(){
+		if (labelCounts == null) labelCounts = new LabelCounts();
+		return labelCounts;
+	}
+	
 	// Calculation of root-square-means deviation
 	
-	// Calculate the variation of the points from the center
+	// Calculate the variation of the points from the center, kept until the cluster features change
 	private double[] getVariance(){
 		
-		double[] variance = new double[this.sumOfValues.length];
-	
+		if (varianceCached) return cachedVariance;
+		
+		if (cachedVariance == null) cachedVariance = new double[getDimension()];
+		double[] variance = cachedVariance;
+		varianceCached = true;
+		
+		if (store != null){
+			store.getVariance(slot, variance);
+			return variance;
+		}
+		
 		for (int i = 0; i < this.sumOfValues.length; i++) {
 				 
 			// this is the value of the center CF for point i
@@ -251,20 +636,33 @@ public class MicroCluster extends ClusterFeatureVector {
 	}
 	
 	
-	// The root-means-square (RMS) deviation
+	// The root-means-square (RMS) deviation, kept until the cluster features change
 	public double getDeviation(){
 		
-		// get the variance of all points from the centroid
-		double[] variance = getVariance();
-		double sumOfDeviation = 0.0;
+		if (deviationCached) return cachedDeviation;
 		
-		// calculate the sum of the square roots of the variance of each data point
-		for (int i = 0; i < variance.length; i++) {
-		    sumOfDeviation += Math.sqrt(variance[i]);
+		if (store != null){
+			
+			cachedDeviation = store.getDeviation(slot);
+			
+		}else{
+		
+			double sumOfDeviation = 0.0;
+			
+			// calculate the sum of the square roots of the variance of each dimension
+			// the variance is computed on the fly (as in getVariance()) so that no array is created
+			for (int i = 0; i < sumOfValues.length; i++) {
+				double avgSum = sumOfValues[i] / size;
+				double variance = Math.abs(sumOfSquaresOfValues[i] / size - avgSum * avgSum);
+			    sumOfDeviation += Math.sqrt(variance);
+			}
+			
+			// take the mean value
+			cachedDeviation = sumOfDeviation / sumOfValues.length;
 		}
 		
-		// take the mean value
-		return sumOfDeviation / variance.length;
+		deviationCached = true;
+		return cachedDeviation;
 	}
 	
 
@@ -275,7 +673,7 @@ public class MicroCluster extends ClusterFeatureVector {
 	 * @return The mean of all timestamps.
 	 */
 	private double getTimestampMean(){
-		return sumOfTimestamps / size;
+		return getSumOfTimestamps() / getSize();
 	}
 	
 	
@@ -284,12 +682,37 @@ public class MicroCluster extends ClusterFeatureVector {
 	 * @return
 	 */
 	private double getTimestampStandardDeviation(){
-		return Math.sqrt(sumOfSquaresOfTimestamps / size - Math.pow(sumOfTimestamps, 2)/size);
+		// the mean is squared, rather than the sum, and rounding errors must not give a negative variance
+		double size = getSize();
+		double mean = getSumOfTimestamps() / size;
+		return Math.sqrt(Math.max(0, getSumOfSquaresOfTimestamps() / size - mean * mean));
 	}
 	
 	
-	private double getQuantile(double q){	
-		return Math.sqrt(2) * Erf.erfInv(q);		
+	// Interpolates the quantile from the precomputed table, falling back to the inverse error function outside its range
+	private double getQuantile(double q){
+		
+		if (q < 0 || q > QUANTILE_TABLE_MAX){
+			return Math.sqrt(2) * Erf.erfInv(q);
+		}
+		
+		double position = q / QUANTILE_TABLE_MAX * QUANTILE_TABLE_SIZE;
+		int index = (int)position;
+		if (index >= QUANTILE_TABLE_SIZE) return QUANTILE_TABLE[QUANTILE_TABLE_SIZE];
+		
+		double fraction = position - index;
+		return QUANTILE_TABLE[index] + (QUANTILE_TABLE[index + 1] - QUANTILE_TABLE[index]) * fraction;
+	}
+	
+	
+	private static double[] buildQuantileTable(){
+		
+		double[] table = new double[QUANTILE_TABLE_SIZE + 1];
+		for (int i = 0; i <= QUANTILE_TABLE_SIZE; i++){
+			table[i] = Math.sqrt(2) * Erf.erfInv(QUANTILE_TABLE_MAX * i / QUANTILE_TABLE_SIZE);
+		}
+		
+		return table;
 	}
 	
 	
@@ -314,4 +737,67 @@ public class MicroCluster extends ClusterFeatureVector {
 		return Math.sqrt(distance);
 
 	}
+	
+	
+	/**
+	 * Serialised form of a micro-cluster whose centroid is kept in single precision, which takes half the space of the
+	 * cluster features. CF1x and CF2x are sent as the centroid and the variance of each dimension, rounded to floats, 
+	 * and rebuilt from them when read: each coordinate of the centroid is within 2^-24 times itself of the exact one, as
+	 * in a FLOAT store, and so is the variance of each dimension, which CF2x rounded to a float would lose for a 
+	 * micro-cluster far from the origin. The weight, the timestamps, the lineage and the label counts are kept as they 
+	 * are.
+	 */
+	private static final class SinglePrecisionForm implements Serializable {
+		
+		/** Serial UUID. */
+		private static final long serialVersionUID = -3484937180374518561L;
+		
+		private final float[] center;
+		private final float[] variance;
+		private final double size;
+		private final double sumOfTimestamps;
+		private final double sumOfSquaresOfTimestamps;
+		private final double t;
+		private final double m;
+		private final Lineage lineage;
+		private final LabelCounts labelCounts;
+		
+		/** Decay rate of a decaying micro-cluster, 0 for one which does not decay. */
+		private final double decayRate;
+		private final long lastUpdate;
+		
+		SinglePrecisionForm(MicroCluster cluster){
+			
+			double[] _center = cluster.getCenter();
+			double[] _variance = cluster.getVariance();
+			this.center = new float[_center.length];
+			this.variance = new float[_center.length];
+			for (int i = 0; i < _center.length; i++){
+				center[i] = (float)_center[i];
+				variance[i] = (float)_variance[i];
+			}
+			
+			this.size = cluster.getSize();
+			this.sumOfTimestamps = cluster.sumOfTimestamps;
+			this.sumOfSquaresOfTimestamps = cluster.sumOfSquaresOfTimestamps;
+			this.t = cluster.t;
+			this.m = cluster.m;
+			this.lineage = cluster.lineage;
+			this.labelCounts = cluster.labelCounts;
+			
+			if (cluster instanceof DecayingMicroCluster){
+				this.decayRate = ((DecayingMicroCluster)cluster).getDecayRate();
+				this.lastUpdate = ((DecayingMicroCluster)cluster).getLastUpdate();
+			}else{
+				this.decayRate = 0;
+				this.lastUpdate = 0;
+			}
+		}
+		
+		private Object readResolve() throws ObjectStreamException {
+			MicroCluster cluster = new MicroCluster(this);
+			return decayRate > 0 ? new DecayingMicroCluster(cluster, decayRate, lastUpdate) : cluster;
+		}
+	}
+	
 }
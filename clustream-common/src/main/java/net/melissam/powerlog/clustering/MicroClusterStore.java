@@ -0,0 +1,611 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.File;
+
+/**
+ * Contiguous storage of the cluster feature state of a set of micro-clusters.
+ *
+ * The CF1x, CF2x and centroid vectors of all the micro-clusters are laid out one after the other in flat arrays, and the
+ * sizes and timestamp sums in parallel arrays, so that a scan over all the micro-clusters streams through memory.
+ * A {@link MicroCluster} attached to the store keeps no cluster feature state of its own and reads and writes its slot.
+ * Slots are kept dense: when a micro-cluster is detached, the last one is moved into its slot.
+ * The store also keeps the order of the dimensions by decreasing variance of all its points, so that the nearest
+ * micro-cluster search can reject most candidates after a few dimensions.
+ *
+ * The centroids can be kept in single precision (see {@link StoragePrecision}), which halves the memory the nearest
+ * micro-cluster search streams through. Only the centroids are rounded: the cluster features are sums over many points
+ * and stay in double precision, and each centroid is rounded afresh from them, so the rounding never builds up. A
+ * rounded coordinate is within 2^-24 of the coordinate relative to it, so a distance to a rounded centroid is within
+ * 2^-24 times the norm of the centroid of the exact distance, and the nearest micro-cluster found can only differ from
+ * the exact one when their distances are that close. Distances are added up in double precision either way.
+ *
+ * The cluster features can be kept outside the heap (see {@link StorageBacking}), in a direct buffer or in a buffer
+ * mapped on a file, so that a large model adds little to the heap besides its centroids, which the nearest
+ * micro-cluster search streams through and which stay in an array. The micro-clusters read and write their slots the
+ * same way whatever the backing. A mapped store is checkpointed by {@link #flush()}, which leaves the cluster features
+ * of all its micro-clusters in the file (see {@link BufferClusterFeatureState} for its layout).
+ *
+ * A store is not thread-safe, except that once it is made concurrent (see {@link #setConcurrent(boolean)}), points can
+ * be added to different micro-clusters and {@link #scan(double[])} called by several threads at once, as long as no
+ * micro-cluster is attached or detached meanwhile and each micro-cluster is only changed by one thread at a time.
+ *
+ * @author melissam
+ *
+ */
+public class MicroClusterStore {
+
+	/** Initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Dimension of the micro-clusters. */
+	private int dimension;
+
+	/** Number of micro-clusters in the store. */
+	private int count;
+
+	/** Micro-cluster attached to each slot. */
+	private MicroCluster[] clusters;
+
+	/** Size, CF1x, CF2x, CF1t and CF2t of each micro-cluster. */
+	private ClusterFeatureState state;
+
+	/** Centroid of each micro-cluster, kept up to date as CF1x changes, null if they are kept in single precision. */
+	private double[] centers;
+
+	/** Centroid of each micro-cluster in single precision, null if they are kept in double precision. */
+	private float[] floatCenters;
+
+	/** Distance of the last nearest micro-cluster found. */
+	private double nearestDistance;
+
+	/** The dimensions by decreasing variance of all the points in the store. */
+	private DimensionOrder dimensionOrder;
+
+	/** Whether points may be added to different micro-clusters by several threads at once. */
+	private boolean concurrent;
+
+
+	/**
+	 * Creates a store for micro-clusters of the given dimension, keeping their centroids in double precision.
+	 *
+	 * @param dimension	The dimension of the micro-clusters.
+	 */
+	public MicroClusterStore(int dimension){
+		this(dimension, StoragePrecision.DOUBLE);
+	}
+
+
+	/**
+	 * Creates a store for micro-clusters of the given dimension, keeping their cluster features on the heap.
+	 *
+	 * @param dimension	The dimension of the micro-clusters.
+	 * @param precision	The precision to keep the centroids in.
+	 */
+	public MicroClusterStore(int dimension, StoragePrecision precision){
+		this(dimension, precision, StorageBacking.HEAP, null);
+	}
+
+
+	/**
+	 * Creates a store for micro-clusters of the given dimension.
+	 *
+	 * @param dimension	The dimension of the micro-clusters.
+	 * @param precision	The precision to keep the centroids in.
+	 * @param backing	The memory to keep the cluster features in.
+	 * @param file		The file to map the cluster features on for {@link StorageBacking#MAPPED}, which is overwritten.
+	 */
+	public MicroClusterStore(int dimension, StoragePrecision precision, StorageBacking backing, File file){
+
+		this.dimension = dimension;
+		this.count = 0;
+
+		this.clusters = new MicroCluster[INITIAL_CAPACITY];
+
+		switch (backing){
+			case DIRECT:
+				this.state = new BufferClusterFeatureState(dimension, INITIAL_CAPACITY, null);
+				break;
+			case MAPPED:
+				if (file == null) throw new IllegalArgumentException("A mapped micro-cluster store needs a file.");
+				this.state = new BufferClusterFeatureState(dimension, INITIAL_CAPACITY, file);
+				break;
+			default:
+				this.state = new HeapClusterFeatureState(dimension, INITIAL_CAPACITY);
+		}
+
+		if (precision == StoragePrecision.FLOAT){
+			this.floatCenters = new float[INITIAL_CAPACITY * dimension];
+		}else{
+			this.centers = new double[INITIAL_CAPACITY * dimension];
+		}
+
+		this.dimensionOrder = new DimensionOrder(dimension);
+
+	}
+
+
+	/**
+	 * Move the cluster feature state of a micro-cluster into the store. The micro-cluster becomes a view on its slot.
+	 *
+	 * @param cluster The micro-cluster to attach.
+	 */
+	public void attach(MicroCluster cluster){
+
+		assert(cluster.getDimension() == dimension);
+
+		if (count == clusters.length) grow();
+
+		int slot = count++;
+
+		double size = cluster.size;
+		state.set(slot, cluster.getId(), size, cluster.sumOfValues, cluster.sumOfSquaresOfValues, cluster.getSumOfTimestamps(), cluster.getSumOfSquaresOfTimestamps());
+		updateCenter(slot, size);
+		dimensionOrder.add(size, cluster.sumOfValues, cluster.sumOfSquaresOfValues, 0);
+
+		clusters[slot] = cluster;
+		cluster.attach(this, slot);
+
+	}
+
+
+	/**
+	 * Copy the cluster feature state of a micro-cluster out of the store and free its slot.
+	 *
+	 * @param cluster The micro-cluster to detach.
+	 */
+	public void detach(MicroCluster cluster){
+
+		int slot = cluster.getSlot();
+		assert(clusters[slot] == cluster);
+
+		double size = state.getSize(slot);
+		double[] _sumOfValues = new double[dimension];
+		double[] _sumOfSquaresOfValues = new double[dimension];
+		state.copySumOfValues(slot, _sumOfValues);
+		state.copySumOfSquaresOfValues(slot, _sumOfSquaresOfValues);
+		cluster.detach(size, _sumOfValues, _sumOfSquaresOfValues, state.getSumOfTimestamps(slot), state.getSumOfSquaresOfTimestamps(slot));
+		dimensionOrder.remove(size, _sumOfValues, _sumOfSquaresOfValues, 0);
+
+		// keep the slots dense by moving the last micro-cluster into the free slot
+		int last = --count;
+		if (slot != last){
+
+			int offset = slot * dimension;
+			int lastOffset = last * dimension;
+
+			state.move(last, slot);
+			if (centers != null){
+				System.arraycopy(centers, lastOffset, centers, offset, dimension);
+			}else{
+				System.arraycopy(floatCenters, lastOffset, floatCenters, offset, dimension);
+			}
+
+			clusters[slot] = clusters[last];
+			clusters[slot].attach(this, slot);
+		}
+
+		clusters[last] = null;
+
+	}
+
+
+	/**
+	 * Returns the number of micro-clusters in the store.
+	 * @return The number of micro-clusters in the store.
+	 */
+	public int size(){
+		return count;
+	}
+
+
+	/**
+	 * Returns the micro-cluster attached to a slot.
+	 *
+	 * @param slot	The slot.
+	 * @return The micro-cluster attached to the slot.
+	 */
+	public MicroCluster get(int slot){
+		return clusters[slot];
+	}
+
+
+	/**
+	 * Returns the dimension of the micro-clusters in the store.
+	 * @return The dimension of the micro-clusters.
+	 */
+	public int getDimension(){
+		return dimension;
+	}
+
+
+	/**
+	 * Returns the precision the centroids are kept in.
+	 * @return The precision of the centroids.
+	 */
+	public StoragePrecision getPrecision(){
+		return centers != null ? StoragePrecision.DOUBLE : StoragePrecision.FLOAT;
+	}
+
+
+	/**
+	 * Find the micro-cluster whose centroid is closest to the point, streaming through the centroids in slot order.
+	 * The distance to each centroid is added up by decreasing variance of the dimensions and abandoned once it passes
+	 * the closest distance found so far.
+	 *
+	 * @param point	The point to search for.
+	 * @return The closest micro-cluster, or null if the store is empty.
+	 */
+	public MicroCluster nearest(double[] point){
+
+		int nearest = -1;
+		double minDistance = Double.MAX_VALUE;
+		int[] order = dimensionOrder.getOrder();
+
+		if (centers != null){
+
+			for (int slot = 0, offset = 0; slot < count; slot++, offset += dimension){
+
+				double distance = DistanceKernels.boundedSquaredDistance(point, 0, centers, offset, order, minDistance);
+
+				if (distance < minDistance){
+					minDistance = distance;
+					nearest = slot;
+				}
+			}
+
+		}else{
+
+			for (int slot = 0, offset = 0; slot < count; slot++, offset += dimension){
+
+				double distance = DistanceKernels.boundedSquaredDistance(point, 0, floatCenters, offset, order, minDistance);
+
+				if (distance < minDistance){
+					minDistance = distance;
+					nearest = slot;
+				}
+			}
+		}
+
+		if (nearest == -1){
+			nearestDistance = Math.sqrt(minDistance);
+			return null;
+		}
+
+		// the distance is given as the kernel computes it, whatever order the search added the dimensions up in
+		nearestDistance = getDistance(nearest, point);
+		return clusters[nearest];
+
+	}
+
+
+	/**
+	 * Find the micro-cluster whose centroid is closest to the point, abandoning distances as {@link #nearest(double[])}
+	 * does, in the order of the dimensions as of its last sort.
+	 *
+	 * Unlike {@link #nearest(double[])} this keeps no state, so several threads can scan the store at once while
+	 * points are added to its micro-clusters, as long as {@link #nearest(double[])} is not called meanwhile. A centroid
+	 * which is being changed by another thread may be read half way through the change, so the answer is only 
+	 * approximate then and should be checked against the micro-cluster.
+	 *
+	 * @param point	The point to search for.
+	 * @return The closest micro-cluster, or null if the store is empty.
+	 */
+	public MicroCluster scan(double[] point){
+
+		int nearest = -1;
+		double minDistance = Double.MAX_VALUE;
+		int[] order = dimensionOrder.getLastOrder();
+
+		for (int slot = 0, offset = 0; slot < count; slot++, offset += dimension){
+
+			double distance = centers != null
+					? DistanceKernels.boundedSquaredDistance(point, 0, centers, offset, order, minDistance)
+					: DistanceKernels.boundedSquaredDistance(point, 0, floatCenters, offset, order, minDistance);
+
+			if (distance < minDistance){
+				minDistance = distance;
+				nearest = slot;
+			}
+		}
+
+		return nearest == -1 ? null : clusters[nearest];
+
+	}
+
+
+	/**
+	 * Let several threads add points to different micro-clusters at once, which makes the dimension order, shared by
+	 * all the micro-clusters, take the points in one at a time.
+	 *
+	 * @param concurrent	true if points may be added concurrently.
+	 */
+	public void setConcurrent(boolean concurrent){
+		this.concurrent = concurrent;
+	}
+
+
+	/**
+	 * Returns the distance of the micro-cluster found by the last call to {@link #nearest(double[])}.
+	 * @return The distance of the point to the closest micro-cluster.
+	 */
+	public double getNearestDistance(){
+		return nearestDistance;
+	}
+
+
+	/**
+	 * Write the cluster features of the micro-clusters out to the file the store is mapped on, so that the file holds a
+	 * checkpoint of them. Does nothing for a store which is not mapped on a file. No points may be added meanwhile.
+	 */
+	public void flush(){
+		state.flush(count);
+	}
+
+
+	// ------------------ Slot operations, used by attached micro-clusters. ---------------------- /
+
+	double getSize(int slot){
+		return state.getSize(slot);
+	}
+
+
+	double getSumOfTimestamps(int slot){
+		return state.getSumOfTimestamps(slot);
+	}
+
+
+	double getSumOfSquaresOfTimestamps(int slot){
+		return state.getSumOfSquaresOfTimestamps(slot);
+	}
+
+
+	double getSumOfValues(int slot, int i){
+		return state.getSumOfValues(slot, i);
+	}
+
+
+	double getSumOfSquaresOfValues(int slot, int i){
+		return state.getSumOfSquaresOfValues(slot, i);
+	}
+
+
+	void copySumOfValues(int slot, double[] values){
+		state.copySumOfValues(slot, values);
+	}
+
+
+	void copySumOfSquaresOfValues(int slot, double[] values){
+		state.copySumOfSquaresOfValues(slot, values);
+	}
+
+
+	void getCenter(int slot, double[] center){
+
+		int offset = slot * dimension;
+		if (centers != null){
+			System.arraycopy(centers, offset, center, 0, dimension);
+		}else{
+			for (int i = 0; i < dimension; i++){
+				center[i] = floatCenters[offset + i];
+			}
+		}
+
+	}
+
+
+	/**
+	 * Add a point to the micro-cluster in the slot.
+	 */
+	void add(int slot, FeatureVector featureVector){
+
+		double[] point = featureVector.getValues();
+		addToOrder(point);
+		updateCenter(slot, state.add(slot, point));
+
+		long timestamp = featureVector.getTimestamp();
+		state.addTimestamps(slot, timestamp, (double)timestamp * timestamp);
+
+	}
+
+
+	/**
+	 * Add a point, without a timestamp, to the micro-cluster in the slot.
+	 */
+	void add(int slot, double[] point){
+
+		addToOrder(point);
+		updateCenter(slot, state.add(slot, point));
+
+	}
+
+
+	/**
+	 * Add the cluster features of another micro-cluster to the micro-cluster in the slot, using CF additivity.
+	 */
+	void add(int slot, ClusterFeatureVector other){
+
+		double size;
+		if (other instanceof MicroCluster && ((MicroCluster)other).getStore() == this){
+
+			int otherSlot = ((MicroCluster)other).getSlot();
+			dimensionOrder.add(state, otherSlot);
+			size = state.add(slot, otherSlot);
+
+		}else{
+
+			double[] otherSumOfValues = other.getSumOfValues();
+			double[] otherSumOfSquaresOfValues = other.getSumOfSquaresOfValues();
+			dimensionOrder.add(other.getSize(), otherSumOfValues, otherSumOfSquaresOfValues, 0);
+			size = state.add(slot, other.getSize(), otherSumOfValues, otherSumOfSquaresOfValues);
+		}
+		updateCenter(slot, size);
+
+		if (other instanceof MicroCluster){
+			MicroCluster _other = (MicroCluster)other;
+			state.addTimestamps(slot, _other.getSumOfTimestamps(), _other.getSumOfSquaresOfTimestamps());
+		}
+
+	}
+
+
+	/**
+	 * Scale the cluster features of the micro-cluster in the slot by a factor, which leaves its centroid as it is.
+	 */
+	void scale(int slot, double factor){
+
+		removeFromOrder(slot);
+		state.scale(slot, factor);
+		addToOrder(slot);
+
+	}
+
+
+	/**
+	 * Distance of a point from the centroid of the micro-cluster in the slot.
+	 */
+	double getDistance(int slot, double[] point){
+
+		int offset = slot * dimension;
+		return Math.sqrt(centers != null
+				? DistanceKernels.squaredDistance(point, 0, centers, offset, dimension)
+				: DistanceKernels.squaredDistance(point, 0, floatCenters, offset, dimension));
+
+	}
+
+
+	/**
+	 * Squared distance of a point from the centroid of the micro-cluster in the slot, added up in the given order of
+	 * the dimensions, which gives the same value as {@link #nearest(double[])} compares for the slot with that order.
+	 */
+	double getSquaredDistance(int slot, double[] points, int pointOffset, int[] order){
+
+		int offset = slot * dimension;
+		return centers != null
+				? DistanceKernels.boundedSquaredDistance(points, pointOffset, centers, offset, order, Double.MAX_VALUE)
+				: DistanceKernels.boundedSquaredDistance(points, pointOffset, floatCenters, offset, order, Double.MAX_VALUE);
+
+	}
+
+
+	/**
+	 * The order of the dimensions a search by {@link #nearest(double[])} adds the distances up in, counting a lookup as
+	 * the search does.
+	 */
+	int[] lookUpOrder(){
+		return dimensionOrder.getOrder();
+	}
+
+
+	/**
+	 * Variance of each dimension of the micro-cluster in the slot.
+	 */
+	void getVariance(int slot, double[] variance){
+
+		int offset = slot * dimension;
+		double size = state.getSize(slot);
+		for (int i = 0; i < dimension; i++){
+			double avgSum = centers != null ? centers[offset + i] : state.getSumOfValues(slot, i) / size;
+			variance[i] = Math.abs(state.getSumOfSquaresOfValues(slot, i) / size - avgSum * avgSum);
+		}
+
+	}
+
+
+	/**
+	 * The root-means-square deviation of the micro-cluster in the slot.
+	 */
+	double getDeviation(int slot){
+
+		int offset = slot * dimension;
+		double size = state.getSize(slot);
+		double sumOfDeviation = 0.0;
+		for (int i = 0; i < dimension; i++){
+			double avgSum = centers != null ? centers[offset + i] : state.getSumOfValues(slot, i) / size;
+			sumOfDeviation += Math.sqrt(Math.abs(state.getSumOfSquaresOfValues(slot, i) / size - avgSum * avgSum));
+		}
+
+		return sumOfDeviation / dimension;
+
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	// Recompute the centroid of the micro-cluster in the slot from its CF1x
+	private void updateCenter(int slot, double size){
+
+		int offset = slot * dimension;
+		if (centers != null){
+			for (int i = 0; i < dimension; i++){
+				centers[offset + i] = state.getSumOfValues(slot, i) / size;
+			}
+		}else{
+			for (int i = 0; i < dimension; i++){
+				floatCenters[offset + i] = (float)(state.getSumOfValues(slot, i) / size);
+			}
+		}
+
+	}
+
+
+	private void addToOrder(double[] point){
+
+		if (concurrent){
+			synchronized (dimensionOrder){
+				dimensionOrder.add(point);
+			}
+		}else{
+			dimensionOrder.add(point);
+		}
+
+	}
+
+
+	private void addToOrder(int slot){
+
+		if (concurrent){
+			synchronized (dimensionOrder){
+				dimensionOrder.add(state, slot);
+			}
+		}else{
+			dimensionOrder.add(state, slot);
+		}
+
+	}
+
+
+	private void removeFromOrder(int slot){
+
+		if (concurrent){
+			synchronized (dimensionOrder){
+				dimensionOrder.remove(state, slot);
+			}
+		}else{
+			dimensionOrder.remove(state, slot);
+		}
+
+	}
+
+
+	private void grow(){
+
+		int capacity = clusters.length * 2;
+
+		MicroCluster[] _clusters = new MicroCluster[capacity];
+		System.arraycopy(clusters, 0, _clusters, 0, count);
+		clusters = _clusters;
+
+		state.grow(capacity, count);
+		if (centers != null){
+			double[] _centers = new double[capacity * dimension];
+			System.arraycopy(centers, 0, _centers, 0, count * dimension);
+			centers = _centers;
+		}else{
+			float[] _floatCenters = new float[capacity * dimension];
+			System.arraycopy(floatCenters, 0, _floatCenters, 0, count * dimension);
+			floatCenters = _floatCenters;
+		}
+
+	}
+
+}
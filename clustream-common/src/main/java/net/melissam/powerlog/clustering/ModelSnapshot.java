@@ -0,0 +1,102 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A version of the micro-cluster model published by a learner, which never changes once it is published.
+ *
+ * Learners publish a new version by replacing a reference to the last one, so any thread can read the latest version
+ * without a lock and without holding the learner up. A version shares the copies of the micro-clusters which did not
+ * change since the version before it, so publishing only copies the micro-clusters which absorbed points or were
+ * merged meanwhile. The micro-clusters of a version must therefore not be changed. The micro-clusters of a learner
+ * keeping its centroids in single precision (see {@link StoragePrecision}) are serialised in single precision.
+ *
+ * @author melissam
+ *
+ */
+public class ModelSnapshot {
+
+	/** The version of a learner which has not published anything yet. */
+	public static final ModelSnapshot EMPTY = new ModelSnapshot(0, 0, Collections.<MicroCluster>emptyList());
+
+	/** Number of versions published by the learner up to and including this one. */
+	private final long version;
+
+	/** Timestamp of the learner when the version was published. */
+	private final long timestamp;
+
+	/** The micro-clusters. */
+	private final List<MicroCluster> clusters;
+
+	/** Scores points against the micro-clusters, created when first asked for. */
+	private volatile AnomalyScorer scorer;
+
+
+	/**
+	 * Creates a version of the model.
+	 *
+	 * @param version	The version number.
+	 * @param timestamp	The timestamp of the learner when the version was published.
+	 * @param clusters	Copies of the micro-clusters, which are not changed afterwards.
+	 */
+	public ModelSnapshot(long version, long timestamp, List<MicroCluster> clusters){
+		this.version = version;
+		this.timestamp = timestamp;
+		this.clusters = Collections.unmodifiableList(clusters);
+	}
+
+
+	/**
+	 * Returns the version number, which increases with every version the learner publishes.
+	 * @return The version number.
+	 */
+	public long getVersion(){
+		return version;
+	}
+
+
+	/**
+	 * Returns the timestamp of the learner when the version was published.
+	 * @return The timestamp.
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+
+	/**
+	 * Returns the micro-clusters of this version, which must not be changed.
+	 * @return The micro-clusters.
+	 */
+	public List<MicroCluster> getClusters(){
+		return clusters;
+	}
+
+
+	/**
+	 * Returns a scorer of points against the micro-clusters of this version, which any number of threads can use at
+	 * once. It is created the first time it is asked for and shared from then on.
+	 * @return The scorer.
+	 */
+	public AnomalyScorer getScorer(){
+
+		// two threads may both create one, either will do
+		AnomalyScorer _scorer = scorer;
+		if (_scorer == null){
+			_scorer = new AnomalyScorer(clusters);
+			scorer = _scorer;
+		}
+		return _scorer;
+	}
+
+
+	/**
+	 * Returns the number of micro-clusters of this version.
+	 * @return The number of micro-clusters.
+	 */
+	public int size(){
+		return clusters.size();
+	}
+
+}
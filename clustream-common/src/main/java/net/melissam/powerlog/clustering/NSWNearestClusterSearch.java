@@ -0,0 +1,862 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Approximate nearest micro-cluster search on a navigable small-world graph of micro-cluster centroids, for models with
+ * far too many micro-clusters to scan.
+ *
+ * Each micro-cluster is linked to close micro-clusters found when it was inserted, and they are linked back to it, up to
+ * a maximum number of links per micro-cluster. Links are chosen to point in different directions rather than all to the
+ * closest micro-clusters, which keeps separate groups of micro-clusters reachable from each other.
+ *
+ * A search starts from the closest of a random sample of about the square root of the number of micro-clusters, so it
+ * starts in the right region of the space, and from the last answer. It walks the graph keeping the searchWidth closest
+ * micro-clusters seen and following their links until none of them can lead any closer. A wider search finds the true
+ * nearest micro-cluster more often at the cost of more distances.
+ *
+ * Micro-clusters keep their links as their centroid moves, which they do a little with every point they absorb; once a
+ * micro-cluster has drifted further from where it was linked than its closest link, it is unlinked and inserted again.
+ * When a micro-cluster is removed, the micro-clusters linked to it are linked to its other links instead.
+ *
+ * One search in every sampleInterval is checked against a scan of all the micro-clusters, and the share of checked
+ * searches which did not find the true nearest micro-cluster is reported by {@link #getMismatchRate()} and logged.
+ *
+ * @author melissam
+ *
+ */
+public class NSWNearestClusterSearch implements NearestClusterSearch {
+
+	/** Default number of links made when a micro-cluster is inserted. */
+	public static final int DEFAULT_CONNECTIONS = 16;
+
+	/** Default number of closest micro-clusters kept while searching. */
+	public static final int DEFAULT_SEARCH_WIDTH = 32;
+
+	/** Default number of searches per search checked against a scan, 0 for none. */
+	public static final int DEFAULT_SAMPLE_INTERVAL = 1000;
+
+	/** The mismatch rate is logged every this many checked searches. */
+	private static final int LOG_INTERVAL = 100;
+
+	/** A new micro-cluster becomes an entry with one chance in this many, while there are too few entries. */
+	private static final int ENTRY_SAMPLING = 4;
+
+	/** Initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Number of links made when a micro-cluster is inserted. */
+	private int connections;
+
+	/** Largest number of links a micro-cluster keeps. */
+	private int maxLinks;
+
+	/** Number of closest micro-clusters kept while searching. */
+	private int searchWidth;
+
+	/** Number of searches per search checked against a scan. */
+	private int sampleInterval;
+
+	/** Micro-cluster held in each slot, null if the slot is free. */
+	private MicroCluster[] items;
+
+	/** Links of each slot. */
+	private int[][] links;
+	private int[] linkCount;
+
+	/** Slots linking to each slot, which is not always the same as its links once links have been replaced. */
+	private int[][] inbound;
+	private int[] inboundCount;
+
+	/** The centroid of each slot when it was linked. */
+	private double[][] positions;
+
+	/** Distance of each slot to its closest link when it was linked. */
+	private double[] linkRadius;
+
+	/** Slot of each micro-cluster. */
+	private Map<MicroCluster, Integer> slots;
+
+	/** Number of slots that have ever been used. */
+	private int slotCount;
+
+	/** Slots that can be reused. */
+	private int[] freeSlots;
+	private int freeCount;
+
+	/** Number of micro-clusters in the graph. */
+	private int size;
+
+	/** Sampled slots where searches start, and the position of each slot among them, -1 if it is not one. */
+	private int[] entries;
+	private int entryCount;
+	private int[] entryIndex;
+
+	/** Random source for sampling the entry slots. */
+	private Random random;
+
+	/** Slot of the last answer, where the next search also starts. */
+	private int last;
+
+	/** Search visited marks: a slot was visited by the current search if its mark equals the search number. */
+	private int[] visited;
+	private int visit;
+
+	/** Micro-clusters still to expand, closest first. */
+	private SlotHeap candidates;
+
+	/** The closest micro-clusters found, furthest first. */
+	private SlotHeap results;
+
+	/** Scratch space for the candidate links of a slot being linked, and their distances. */
+	private int[] linkSelection;
+	private double[] linkDistances;
+
+	/** Scratch space for the links of a full slot and the new link, and their distances. */
+	private int[] relinkSelection;
+	private double[] relinkDistances;
+
+	/** Scratch space for the neighbours of a slot being unlinked. */
+	private int[] neighbours;
+
+	/** Distance of the last nearest micro-cluster found. */
+	private double nearestDistance;
+
+	/** Searches made, checked against a scan, and checked searches with a different answer. */
+	private long searches;
+	private long sampled;
+	private long mismatches;
+
+	/** Class logger. */
+	private static final Logger LOG = LogManager.getLogger(NSWNearestClusterSearch.class);
+
+
+	public NSWNearestClusterSearch(){
+		this(DEFAULT_CONNECTIONS, DEFAULT_SEARCH_WIDTH, DEFAULT_SAMPLE_INTERVAL);
+	}
+
+
+	/**
+	 * Creates an empty graph.
+	 *
+	 * @param connections		The number of links made when a micro-cluster is inserted; micro-clusters keep up to twice as many.
+	 * @param searchWidth		The number of closest micro-clusters kept while searching, which sets the recall.
+	 * @param sampleInterval	Check one search in this many against a scan of all the micro-clusters, 0 to never check.
+	 */
+	public NSWNearestClusterSearch(int connections, int searchWidth, int sampleInterval){
+
+		this.connections = connections;
+		this.maxLinks = 2 * connections;
+		this.searchWidth = Math.max(1, searchWidth);
+		this.sampleInterval = sampleInterval;
+
+		this.items = new MicroCluster[INITIAL_CAPACITY];
+		this.links = new int[INITIAL_CAPACITY][];
+		this.linkCount = new int[INITIAL_CAPACITY];
+		this.inbound = new int[INITIAL_CAPACITY][];
+		this.inboundCount = new int[INITIAL_CAPACITY];
+		this.positions = new double[INITIAL_CAPACITY][];
+		this.linkRadius = new double[INITIAL_CAPACITY];
+		this.visited = new int[INITIAL_CAPACITY];
+		this.freeSlots = new int[INITIAL_CAPACITY];
+
+		this.slots = new IdentityHashMap<MicroCluster, Integer>();
+
+		this.candidates = new SlotHeap(false);
+		this.results = new SlotHeap(true);
+
+		this.linkSelection = new int[Math.max(this.searchWidth, connections)];
+		this.linkDistances = new double[linkSelection.length];
+		this.relinkSelection = new int[maxLinks + 1];
+		this.relinkDistances = new double[maxLinks + 1];
+		this.neighbours = new int[2 * maxLinks];
+
+		this.entries = new int[INITIAL_CAPACITY];
+		this.entryIndex = new int[INITIAL_CAPACITY];
+		this.random = new Random(1);
+		this.last = -1;
+		this.nearestDistance = Double.MAX_VALUE;
+
+	}
+
+
+	/**
+	 * Set the number of closest micro-clusters kept while searching. Wider searches find the true nearest
+	 * micro-cluster more often but compute more distances.
+	 *
+	 * @param searchWidth	The search width, at least 1.
+	 */
+	public void setSearchWidth(int searchWidth){
+
+		this.searchWidth = Math.max(1, searchWidth);
+
+		if (this.searchWidth > linkSelection.length){
+			linkSelection = new int[this.searchWidth];
+			linkDistances = new double[this.searchWidth];
+		}
+
+	}
+
+
+	@Override
+	public void add(MicroCluster cluster) {
+
+		int slot = allocateSlot();
+
+		items[slot] = cluster;
+		if (links[slot] == null) links[slot] = new int[maxLinks];
+		if (inbound[slot] == null) inbound[slot] = new int[maxLinks];
+		if (positions[slot] == null) positions[slot] = new double[cluster.getDimension()];
+		slots.put(cluster, slot);
+
+		link(slot);
+		++size;
+
+		// keep about the square root of the number of micro-clusters as entries, sampled at random
+		entryIndex[slot] = -1;
+		if (entryCount == 0 || (entryCount * entryCount < size && random.nextInt(ENTRY_SAMPLING) == 0)){
+			addEntry(slot);
+		}
+
+	}
+
+
+	@Override
+	public void remove(MicroCluster cluster) {
+
+		Integer _slot = slots.remove(cluster);
+		if (_slot == null) return;
+
+		int slot = _slot;
+		if (entryIndex[slot] != -1) removeEntry(slot);
+		if (last == slot) last = -1;
+
+		unlink(slot);
+
+		items[slot] = null;
+		freeSlots[freeCount++] = slot;
+		--size;
+
+		if (entryCount == 0 && size > 0) addEntry(anySlot());
+
+	}
+
+
+	@Override
+	public void update(MicroCluster cluster) {
+
+		Integer _slot = slots.get(cluster);
+		if (_slot == null) return;
+
+		// small moves keep the graph navigable, a micro-cluster which moved past its closest link is linked again
+		int slot = _slot;
+		if (cluster.getDistance(positions[slot]) > linkRadius[slot]){
+			unlink(slot);
+			link(slot);
+		}
+
+	}
+
+
+	@Override
+	public MicroCluster nearest(double[] point) {
+
+		if (size == 0){
+			nearestDistance = Double.MAX_VALUE;
+			return null;
+		}
+
+		search(point, searchWidth, -1);
+		int nearest = closestResult();
+		last = nearest;
+
+		nearestDistance = items[nearest].getDistance(point);
+
+		if (sampleInterval > 0 && ++searches % sampleInterval == 0){
+			check(point);
+		}
+
+		return items[nearest];
+	}
+
+
+	@Override
+	public double getNearestDistance() {
+		return nearestDistance;
+	}
+
+
+	/**
+	 * Search for the nearest other micro-cluster to a micro-cluster in the graph, leaving the last answer and its
+	 * distance as they are.
+	 *
+	 * @param cluster	A micro-cluster in the graph.
+	 * @param center	The center of the micro-cluster.
+	 * @return The nearest other micro-cluster found, null if the micro-cluster is not in the graph or is alone in it.
+	 */
+	MicroCluster nearestOther(MicroCluster cluster, double[] center){
+
+		Integer slot = slots.get(cluster);
+		if (slot == null || size < 2) return null;
+
+		search(center, searchWidth, slot);
+		int nearest = closestResult();
+
+		return nearest != -1 ? items[nearest] : null;
+	}
+
+
+	/**
+	 * Copy the micro-clusters a micro-cluster links to and those linking to it, which are the ones whose nearest
+	 * micro-cluster it is likely to be. A micro-cluster linking both ways is copied twice.
+	 *
+	 * @param cluster		A micro-cluster in the graph.
+	 * @param neighbours	The array to copy the micro-clusters into, as many as fit.
+	 * @return The number of neighbours, which may be more than were copied.
+	 */
+	int getNeighbours(MicroCluster cluster, MicroCluster[] neighbours){
+
+		Integer _slot = slots.get(cluster);
+		if (_slot == null) return 0;
+
+		int slot = _slot;
+		int count = linkCount[slot] + inboundCount[slot];
+		if (count > neighbours.length) return count;
+
+		for (int i = 0; i < linkCount[slot]; i++){
+			neighbours[i] = items[links[slot][i]];
+		}
+		for (int i = 0; i < inboundCount[slot]; i++){
+			neighbours[linkCount[slot] + i] = items[inbound[slot][i]];
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the share of the searches checked against a scan which did not find the true nearest micro-cluster.
+	 * @return The mismatch rate, 0 if no search has been checked.
+	 */
+	public double getMismatchRate(){
+		return sampled > 0 ? (double)mismatches / sampled : 0.0;
+	}
+
+
+	/**
+	 * Returns the number of searches checked against a scan.
+	 * @return The number of checked searches.
+	 */
+	public long getSampledSearches(){
+		return sampled;
+	}
+
+
+	/**
+	 * Returns the number of checked searches which did not find the true nearest micro-cluster.
+	 * @return The number of mismatches.
+	 */
+	public long getMismatches(){
+		return mismatches;
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	/**
+	 * Link a slot to the closest micro-clusters in the graph, and link them back.
+	 */
+	private void link(int slot){
+
+		MicroCluster cluster = items[slot];
+		cluster.getCenter(positions[slot]);
+		linkCount[slot] = 0;
+		linkRadius[slot] = Double.MAX_VALUE;
+
+		if (size == 0) return;
+
+		// the closest micro-clusters to the new centroid, not counting itself
+		search(positions[slot], Math.max(searchWidth, connections), slot);
+
+		// the result heap gives the furthest first, fill the selection closest first
+		int count = results.size();
+		int[] selected = linkSelection;
+		double[] distances = linkDistances;
+		for (int i = count - 1; i >= 0; i--){
+			distances[i] = results.peekKey();
+			selected[i] = results.poll();
+		}
+
+		count = select(slot, selected, distances, count, connections);
+		for (int i = 0; i < count; i++){
+			addLink(slot, selected[i]);
+			addLink(selected[i], slot);
+		}
+		if (count > 0) linkRadius[slot] = distances[0];
+
+	}
+
+
+	/**
+	 * Choose the links of a slot among candidates sorted closest first, keeping a candidate only if it is closer to the
+	 * slot than to any candidate already kept. Links to a crowd of micro-clusters in the same direction are dropped in
+	 * favour of links in other directions, so the links between separate groups of micro-clusters which let a search
+	 * cross from one group to another survive as the groups fill up.
+	 *
+	 * @param slot			The slot being linked.
+	 * @param selected		The candidate slots, closest first; the kept ones are moved to the front.
+	 * @param distances		The distance of each candidate to the slot, moved along with them.
+	 * @param count			The number of candidates.
+	 * @param max			The largest number of candidates to keep.
+	 * @return The number of candidates kept.
+	 */
+	private int select(int slot, int[] selected, double[] distances, int count, int max){
+
+		int kept = 0;
+		for (int i = 0; i < count && kept < max; i++){
+
+			int candidate = selected[i];
+			double[] position = positions[candidate];
+
+			boolean diverse = true;
+			for (int j = 0; j < kept && diverse; j++){
+				diverse = distance(position, positions[selected[j]]) > distances[i];
+			}
+
+			if (diverse){
+				selected[kept] = candidate;
+				distances[kept] = distances[i];
+				++kept;
+			}
+		}
+		return kept;
+
+	}
+
+
+	/**
+	 * Remove all the links to and from a slot, linking its neighbours to each other instead so they stay reachable.
+	 */
+	private void unlink(int slot){
+
+		// the neighbours are the slots it links to and the slots linking to it
+		int count = 0;
+		if (linkCount[slot] + inboundCount[slot] > this.neighbours.length){
+			this.neighbours = new int[Math.max(linkCount[slot] + inboundCount[slot], 2 * this.neighbours.length)];
+		}
+		int[] neighbours = this.neighbours;
+		while (linkCount[slot] > 0){
+			int other = links[slot][linkCount[slot] - 1];
+			removeLink(slot, other);
+			neighbours[count++] = other;
+		}
+		while (inboundCount[slot] > 0){
+			int other = inbound[slot][inboundCount[slot] - 1];
+			removeLink(other, slot);
+			if (!contains(neighbours, count, other)) neighbours[count++] = other;
+		}
+
+		for (int i = 0; i < count; i++){
+
+			int neighbour = neighbours[i];
+			double[] position = positions[neighbour];
+
+			// link the neighbour to the closest of the slot's other neighbours
+			int best = -1;
+			double bestDistance = Double.MAX_VALUE;
+			for (int j = 0; j < count; j++){
+				int other = neighbours[j];
+				if (other == neighbour || hasLink(neighbour, other)) continue;
+				double distance = distance(position, positions[other]);
+				if (distance < bestDistance){
+					bestDistance = distance;
+					best = other;
+				}
+			}
+
+			if (best != -1){
+				addLink(neighbour, best);
+				addLink(best, neighbour);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Best-first search from the last answer and the entries, leaving the closest micro-clusters found in the
+	 * result heap.
+	 *
+	 * @param point		The point to search for.
+	 * @param width		The number of closest micro-clusters to keep.
+	 * @param exclude	A slot to leave out of the results, -1 for none.
+	 */
+	private void search(double[] point, int width, int exclude){
+
+		if (++visit == Integer.MAX_VALUE){
+			Arrays.fill(visited, 0);
+			visit = 1;
+		}
+
+		candidates.clear();
+		results.clear();
+
+		for (int i = 0; i < entryCount; i++){
+			start(point, entries[i], width, exclude);
+		}
+		if (last != -1 && items[last] != null) start(point, last, width, exclude);
+
+		while (candidates.size() > 0){
+
+			double distance = candidates.peekKey();
+			int slot = candidates.poll();
+
+			// nothing left to expand can lead closer than the furthest result
+			if (results.size() >= width && distance > results.peekKey()) break;
+
+			int[] _links = links[slot];
+			for (int i = 0; i < linkCount[slot]; i++){
+
+				int other = _links[i];
+				if (visited[other] == visit) continue;
+				visited[other] = visit;
+
+				double otherDistance = items[other].getDistance(point);
+				if (results.size() < width || otherDistance < results.peekKey()){
+					candidates.add(other, otherDistance);
+					offer(other, otherDistance, width, exclude);
+				}
+			}
+		}
+
+	}
+
+
+	private void start(double[] point, int slot, int width, int exclude){
+
+		if (slot == -1 || visited[slot] == visit) return;
+		visited[slot] = visit;
+
+		double distance = items[slot].getDistance(point);
+		candidates.add(slot, distance);
+		offer(slot, distance, width, exclude);
+
+	}
+
+
+	private void offer(int slot, double distance, int width, int exclude){
+
+		if (slot == exclude) return;
+
+		results.add(slot, distance);
+		if (results.size() > width) results.poll();
+
+	}
+
+
+	private int closestResult(){
+
+		// the result heap gives the furthest first
+		int closest = -1;
+		while (results.size() > 0){
+			closest = results.poll();
+		}
+		return closest;
+
+	}
+
+
+	/**
+	 * Compare the answer of the last search against a scan of all the micro-clusters.
+	 */
+	private void check(double[] point){
+
+		double exact = Double.MAX_VALUE;
+		for (int slot = 0; slot < slotCount; slot++){
+			if (items[slot] != null){
+				exact = Math.min(exact, items[slot].getDistance(point));
+			}
+		}
+
+		++sampled;
+		if (exact < nearestDistance) ++mismatches;
+
+		if (sampled % LOG_INTERVAL == 0){
+			LOG.info("Approximate nearest micro-cluster search: {} of {} checked searches missed the nearest micro-cluster ({} micro-clusters, searchWidth={}).", mismatches, sampled, size, searchWidth);
+		}
+
+	}
+
+
+	private void addLink(int slot, int other){
+
+		if (hasLink(slot, other)) return;
+
+		int[] _links = links[slot];
+		if (linkCount[slot] < maxLinks){
+			_links[linkCount[slot]++] = other;
+			addInbound(other, slot);
+			return;
+		}
+
+		// full, choose the links again among the current ones and the new one
+		double[] position = positions[slot];
+		int count = linkCount[slot] + 1;
+		int[] selected = relinkSelection;
+		double[] distances = relinkDistances;
+		for (int i = 0; i < count; i++){
+
+			int candidate = i < linkCount[slot] ? _links[i] : other;
+			double distance = distance(position, positions[candidate]);
+
+			// insertion sort, closest first
+			int j = i - 1;
+			while (j >= 0 && distances[j] > distance){
+				selected[j + 1] = selected[j];
+				distances[j + 1] = distances[j];
+				--j;
+			}
+			selected[j + 1] = candidate;
+			distances[j + 1] = distance;
+		}
+
+		while (linkCount[slot] > 0){
+			removeInbound(_links[--linkCount[slot]], slot);
+		}
+
+		count = select(slot, selected, distances, count, maxLinks);
+		for (int i = 0; i < count; i++){
+			_links[linkCount[slot]++] = selected[i];
+			addInbound(selected[i], slot);
+		}
+
+	}
+
+
+	private void removeLink(int slot, int other){
+
+		int[] _links = links[slot];
+		for (int i = 0; i < linkCount[slot]; i++){
+			if (_links[i] == other){
+				_links[i] = _links[--linkCount[slot]];
+				removeInbound(other, slot);
+				return;
+			}
+		}
+
+	}
+
+
+	private void addInbound(int slot, int other){
+
+		if (inboundCount[slot] == inbound[slot].length){
+			inbound[slot] = Arrays.copyOf(inbound[slot], inboundCount[slot] * 2);
+		}
+		inbound[slot][inboundCount[slot]++] = other;
+
+	}
+
+
+	private void removeInbound(int slot, int other){
+
+		int[] _inbound = inbound[slot];
+		for (int i = 0; i < inboundCount[slot]; i++){
+			if (_inbound[i] == other){
+				_inbound[i] = _inbound[--inboundCount[slot]];
+				return;
+			}
+		}
+
+	}
+
+
+	private static boolean contains(int[] slots, int count, int slot){
+
+		for (int i = 0; i < count; i++){
+			if (slots[i] == slot) return true;
+		}
+		return false;
+
+	}
+
+
+	private boolean hasLink(int slot, int other){
+
+		int[] _links = links[slot];
+		for (int i = 0; i < linkCount[slot]; i++){
+			if (_links[i] == other) return true;
+		}
+		return false;
+
+	}
+
+
+	private void addEntry(int slot){
+
+		if (entryCount == entries.length) entries = Arrays.copyOf(entries, entryCount * 2);
+		entryIndex[slot] = entryCount;
+		entries[entryCount++] = slot;
+
+	}
+
+
+	private void removeEntry(int slot){
+
+		int index = entryIndex[slot];
+		int moved = entries[--entryCount];
+		entries[index] = moved;
+		entryIndex[moved] = index;
+		entryIndex[slot] = -1;
+
+	}
+
+
+	// Any live slot, -1 if there are none
+	private int anySlot(){
+
+		for (int slot = 0; slot < slotCount; slot++){
+			if (items[slot] != null) return slot;
+		}
+		return -1;
+
+	}
+
+
+	private int allocateSlot(){
+
+		if (freeCount > 0) return freeSlots[--freeCount];
+
+		if (slotCount == items.length){
+
+			int capacity = items.length * 2;
+
+			MicroCluster[] _items = new MicroCluster[capacity];
+			System.arraycopy(items, 0, _items, 0, slotCount);
+			items = _items;
+
+			int[][] _links = new int[capacity][];
+			System.arraycopy(links, 0, _links, 0, slotCount);
+			links = _links;
+
+			int[] _linkCount = new int[capacity];
+			System.arraycopy(linkCount, 0, _linkCount, 0, slotCount);
+			linkCount = _linkCount;
+
+			int[][] _inbound = new int[capacity][];
+			System.arraycopy(inbound, 0, _inbound, 0, slotCount);
+			inbound = _inbound;
+
+			int[] _inboundCount = new int[capacity];
+			System.arraycopy(inboundCount, 0, _inboundCount, 0, slotCount);
+			inboundCount = _inboundCount;
+
+			double[][] _positions = new double[capacity][];
+			System.arraycopy(positions, 0, _positions, 0, slotCount);
+			positions = _positions;
+
+			double[] _linkRadius = new double[capacity];
+			System.arraycopy(linkRadius, 0, _linkRadius, 0, slotCount);
+			linkRadius = _linkRadius;
+
+			int[] _entryIndex = new int[capacity];
+			System.arraycopy(entryIndex, 0, _entryIndex, 0, slotCount);
+			entryIndex = _entryIndex;
+
+			int[] _visited = new int[capacity];
+			System.arraycopy(visited, 0, _visited, 0, slotCount);
+			visited = _visited;
+
+			int[] _freeSlots = new int[capacity];
+			System.arraycopy(freeSlots, 0, _freeSlots, 0, freeCount);
+			freeSlots = _freeSlots;
+		}
+
+		return slotCount++;
+
+	}
+
+
+	private static double distance(double[] p1, double[] p2){
+		return DistanceKernels.distance(p1, p2);
+	}
+
+
+	/**
+	 * Binary heap of slots keyed on distance, giving the closest first or the furthest first.
+	 */
+	private static class SlotHeap {
+
+		private final boolean furthestFirst;
+		private int[] slots = new int[INITIAL_CAPACITY];
+		private double[] keys = new double[INITIAL_CAPACITY];
+		private int size;
+
+		SlotHeap(boolean furthestFirst){
+			this.furthestFirst = furthestFirst;
+		}
+
+		int size(){
+			return size;
+		}
+
+		void clear(){
+			size = 0;
+		}
+
+		double peekKey(){
+			return keys[0];
+		}
+
+		void add(int slot, double key){
+
+			if (size == slots.length){
+				slots = Arrays.copyOf(slots, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+
+			int position = size++;
+			while (position > 0){
+				int parent = (position - 1) >>> 1;
+				if (!before(key, keys[parent])) break;
+				slots[position] = slots[parent];
+				keys[position] = keys[parent];
+				position = parent;
+			}
+			slots[position] = slot;
+			keys[position] = key;
+		}
+
+		int poll(){
+
+			int top = slots[0];
+			--size;
+
+			int slot = slots[size];
+			double key = keys[size];
+			int position = 0;
+			while (true){
+				int child = 2 * position + 1;
+				if (child >= size) break;
+				if (child + 1 < size && before(keys[child + 1], keys[child])) ++child;
+				if (!before(keys[child], key)) break;
+				slots[position] = slots[child];
+				keys[position] = keys[child];
+				position = child;
+			}
+			slots[position] = slot;
+			keys[position] = key;
+
+			return top;
+		}
+
+		private boolean before(double a, double b){
+			return furthestFirst ? a > b : a < b;
+		}
+	}
+
+}
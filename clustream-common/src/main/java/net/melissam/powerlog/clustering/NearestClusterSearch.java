@@ -0,0 +1,51 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Strategy used by {@link CluStream} to find the micro-cluster whose centroid is closest to an arriving point.
+ *
+ * Implementations are told about every structural change to the set of micro-clusters (creation, deletion) and
+ * about every change to a micro-cluster's centroid (absorbing a point, merging) so that they can keep any
+ * internal index in sync with the model.
+ *
+ * @author melissam
+ *
+ */
+public interface NearestClusterSearch {
+
+	/**
+	 * A micro-cluster has been added to the model.
+	 *
+	 * @param cluster The new micro-cluster.
+	 */
+	void add(MicroCluster cluster);
+
+	/**
+	 * A micro-cluster has been removed from the model.
+	 *
+	 * @param cluster The micro-cluster that was deleted or merged into another one.
+	 */
+	void remove(MicroCluster cluster);
+
+	/**
+	 * The centroid of a micro-cluster has moved.
+	 *
+	 * @param cluster The micro-cluster that absorbed a point or another micro-cluster.
+	 */
+	void update(MicroCluster cluster);
+
+	/**
+	 * Find the micro-cluster closest to the given point.
+	 *
+	 * @param point	The point to search for.
+	 * @return The closest micro-cluster, or null if there are no micro-clusters.
+	 */
+	MicroCluster nearest(double[] point);
+
+	/**
+	 * Returns the distance of the micro-cluster found by the last call to {@link #nearest(double[])}.
+	 *
+	 * @return The distance of the point to the closest micro-cluster.
+	 */
+	double getNearestDistance();
+
+}
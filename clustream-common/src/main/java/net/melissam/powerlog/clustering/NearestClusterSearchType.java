@@ -0,0 +1,33 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Type of nearest micro-cluster search that CluStream can use when placing a point.
+ *
+ * @author melissam
+ *
+ */
+public enum NearestClusterSearchType {
+
+	// compare the point against every micro-cluster
+	LINEAR,
+
+	// exact search on a vantage-point tree of micro-cluster centroids
+	VPTREE,
+
+	// approximate search on a navigable small-world graph of micro-cluster centroids, for very many micro-clusters
+	NSW;
+
+	public static NearestClusterSearchType fromName(String name){
+
+		NearestClusterSearchType type = null;
+
+		for (NearestClusterSearchType _type : NearestClusterSearchType.values()){
+			if (_type.name().equalsIgnoreCase(name)){
+				type = _type;
+			}
+		}
+
+		return type != null ? type : NearestClusterSearchType.LINEAR;
+	}
+
+}
@@ -0,0 +1,198 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+/**
+ * Online phase of CluStream: maintains a set of micro-clusters from a stream of feature vectors.
+ * 
+ * @author melissam
+ *
+ */
+public interface OnlineClusterer {
+
+	/**
+	 * Choose how the closest micro-cluster to a point is found. Must be called before the clusters are initialised.
+	 * 
+	 * @param type	The type of nearest micro-cluster search to use.
+	 */
+	void setNearestClusterSearchType(NearestClusterSearchType type);
+	
+	/**
+	 * Returns the type of search used to find the closest micro-cluster to a point.
+	 * @return The type of nearest micro-cluster search.
+	 */
+	NearestClusterSearchType getNearestClusterSearchType();
+	
+	/**
+	 * Set the number of closest micro-clusters an approximate nearest micro-cluster search keeps, which sets its recall.
+	 * 
+	 * @param searchWidth	The search width.
+	 */
+	void setSearchWidth(int searchWidth);
+	
+	/**
+	 * Set the rate at which the points of the micro-clusters fade over time, 0 for no fading. Must be called before the 
+	 * clusters are initialised.
+	 * 
+	 * @param decayRate	The decay rate: the weight of a point halves every 1/decayRate time units.
+	 */
+	void setDecayRate(double decayRate);
+	
+	/**
+	 * Choose whether micro-clusters which are no longer relevant are evicted one at a time, as points need room for new
+	 * micro-clusters, or all at once by a sweep every given number of time units. Must be called before the clusters 
+	 * are initialised.
+	 * 
+	 * @param evictionInterval	The number of time units between sweeps, 0 to evict one micro-cluster at a time.
+	 */
+	void setEvictionInterval(int evictionInterval);
+	
+	/**
+	 * Bound the number of ids kept in the lineage of each micro-cluster, see {@link Lineage}.
+	 * 
+	 * @param lineageCap	The largest number of ids to keep in a lineage, 0 for no limit.
+	 */
+	void setLineageCap(int lineageCap);
+	
+	/**
+	 * Set where the ids taken out of lineages bounded by the lineage cap are kept.
+	 * 
+	 * @param lineageStore	The lineage store, null to drop the ids.
+	 */
+	void setLineageStore(LineageStore lineageStore);
+	
+	/**
+	 * Choose the precision the centroids of the micro-clusters are kept in. Must be called before the clusters are 
+	 * initialised.
+	 * 
+	 * @param storagePrecision	The precision of the centroids.
+	 */
+	void setStoragePrecision(StoragePrecision storagePrecision);
+	
+	/**
+	 * Choose the memory the cluster features of the micro-clusters are kept in. Must be called before the clusters are 
+	 * initialised.
+	 * 
+	 * @param storageBacking	The memory to keep the cluster features in.
+	 * @param file				The file to map them on for {@link StorageBacking#MAPPED}, which is overwritten.
+	 */
+	void setStorageBacking(StorageBacking storageBacking, File file);
+	
+	/**
+	 * Cluster the given feature and return the cluster assignment. The returned map may be reused by the next call.
+	 * 
+	 * @param featureVector The feature vector to cluster.
+	 * @return	The cluster assignment for the feature, null if the feature was kept for initialisation.
+	 */
+	Map<FeatureVector, Integer> cluster(FeatureVector featureVector);
+	
+	/**
+	 * Cluster a block of feature vectors and return their cluster assignments. The returned map may be reused by the next call.
+	 * 
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 * @return	The cluster assignments of the features.
+	 */
+	Map<FeatureVector, Integer> clusterBatch(List<FeatureVector> featureVectors);
+	
+	/**
+	 * Choose how the first micro-clusters are created. Must be called before the first point is clustered.
+	 * 
+	 * @param initialisationType	How the first micro-clusters are created.
+	 */
+	void setInitialisationType(InitialisationType initialisationType);
+	
+	/**
+	 * Returns how the first micro-clusters are created.
+	 * @return The initialisation type.
+	 */
+	InitialisationType getInitialisationType();
+	
+	/**
+	 * Set the distance from its center within which a micro-cluster takes in points whilst micro-clusters are seeded 
+	 * online.
+	 * 
+	 * @param seedRadius	The seed radius.
+	 */
+	void setSeedRadius(double seedRadius);
+	
+	/**
+	 * Choose whether the initial micro-clusters are created on a background thread, buffering the points that arrive 
+	 * meanwhile, rather than holding up the point that triggers the initialisation.
+	 * 
+	 * @param backgroundInitialisation	true to initialise in the background.
+	 */
+	void setBackgroundInitialisation(boolean backgroundInitialisation);
+	
+	/**
+	 * Wait for a background initialisation to finish and place all the points buffered meanwhile.
+	 */
+	void awaitInitialisation();
+	
+	/**
+	 * Set the listener told about every point the learner receives and places, null for none.
+	 * 
+	 * @param streamListener	The listener.
+	 */
+	void setStreamListener(StreamListener streamListener);
+	
+	/**
+	 * Cluster the given feature, reporting where it was placed only to the stream listener, so no result map is built.
+	 * 
+	 * @param featureVector The feature vector to cluster.
+	 * @return false if the feature was kept for initialisation.
+	 */
+	boolean process(FeatureVector featureVector);
+	
+	/**
+	 * Cluster a block of feature vectors, reporting where they were placed only to the stream listener.
+	 * 
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 */
+	void processBatch(List<FeatureVector> featureVectors);
+	
+	/**
+	 * Return the current set of micro-clusters.
+	 * @return The current set of micro-clusters.
+	 */
+	List<MicroCluster> getClusters();
+	
+	/**
+	 * Return a copy of the current set of micro-clusters which does not change as more points are clustered.
+	 * This is the list of micro-clusters of {@link #publish()}, which must not be changed.
+	 * @return A copy of the current set of micro-clusters.
+	 */
+	List<MicroCluster> snapshot();
+	
+	/**
+	 * Publish a new version of the model, copying only the micro-clusters which changed since the last version.
+	 * A learner fed by one thread must be asked on that thread.
+	 * 
+	 * @return The new version of the model.
+	 */
+	ModelSnapshot publish();
+	
+	/**
+	 * Returns the last version of the model published, without holding the learner up. Can be called from any thread.
+	 * @return The last version published, {@link ModelSnapshot#EMPTY} if none was.
+	 */
+	ModelSnapshot getSnapshot();
+	
+	/**
+	 * Publish a new version of the model every given number of points, so that {@link #getSnapshot()} is never 
+	 * further behind.
+	 * 
+	 * @param snapshotInterval	The number of points between versions, 0 to only publish when asked.
+	 */
+	void setSnapshotInterval(int snapshotInterval);
+	
+	/**
+	 * Write the cluster features of the micro-clusters out to the file they are mapped on, if they are, so the file 
+	 * holds a checkpoint of the model. A learner fed by one thread must be asked on that thread.
+	 */
+	void flush();
+	
+}
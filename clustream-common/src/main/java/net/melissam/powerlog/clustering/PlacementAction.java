@@ -0,0 +1,26 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * What the learner did with a point when placing it in a micro-cluster.
+ * 
+ * @author melissam
+ *
+ */
+public enum PlacementAction {
+
+	/** The point fell within the maximum boundary of the closest micro-cluster and was added to it. */
+	ABSORBED,
+	
+	/** 
+	 * The point was used to initialise the micro-clusters and was placed in one of them, or started a new micro-cluster
+	 * in the room left by a sweep of the micro-clusters which are no longer relevant. 
+	 */
+	NEW,
+	
+	/** The point started a new micro-cluster, after the least recent micro-cluster was deleted. */
+	EVICTED,
+	
+	/** The point started a new micro-cluster, after the two closest micro-clusters were merged. */
+	MERGED
+	
+}
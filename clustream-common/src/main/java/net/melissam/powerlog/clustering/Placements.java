@@ -0,0 +1,143 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reusable mapping of feature vectors to the id of the micro-cluster they were placed in.
+ *
+ * The learner clears and refills the same instance for every point, so once the backing arrays are large enough
+ * adding a placement does not allocate. The contents are only valid until the next point is clustered.
+ *
+ * @author melissam
+ *
+ */
+public class Placements extends AbstractMap<FeatureVector, Integer> {
+
+	/** Placed feature vectors. */
+	private FeatureVector[] featureVectors;
+
+	/** The id of the micro-cluster each feature vector was placed in. */
+	private Integer[] clusterIds;
+
+	/** Number of placements. */
+	private int size;
+
+	/** View of the placements as map entries. */
+	private Set<Map.Entry<FeatureVector, Integer>> entrySet;
+
+
+	public Placements(){
+		this.featureVectors = new FeatureVector[1];
+		this.clusterIds = new Integer[1];
+		this.size = 0;
+		this.entrySet = new EntrySet();
+	}
+
+
+	@Override
+	public Integer put(FeatureVector featureVector, Integer clusterId){
+
+		for (int i = 0; i < size; i++){
+			if (featureVectors[i].equals(featureVector)){
+				Integer previous = clusterIds[i];
+				clusterIds[i] = clusterId;
+				return previous;
+			}
+		}
+
+		add(featureVector, clusterId);
+		return null;
+	}
+
+
+	/**
+	 * Add a placement without checking whether the feature vector was already placed.
+	 *
+	 * @param featureVector	The placed feature vector.
+	 * @param clusterId		The id of the micro-cluster it was placed in.
+	 */
+	public void add(FeatureVector featureVector, Integer clusterId){
+
+		if (size == featureVectors.length){
+
+			FeatureVector[] _featureVectors = new FeatureVector[size * 2];
+			System.arraycopy(featureVectors, 0, _featureVectors, 0, size);
+			featureVectors = _featureVectors;
+
+			Integer[] _clusterIds = new Integer[size * 2];
+			System.arraycopy(clusterIds, 0, _clusterIds, 0, size);
+			clusterIds = _clusterIds;
+		}
+
+		featureVectors[size] = featureVector;
+		clusterIds[size] = clusterId;
+		++size;
+	}
+
+
+	@Override
+	public void clear(){
+
+		// drop references so placed feature vectors can be collected
+		for (int i = 0; i < size; i++){
+			featureVectors[i] = null;
+			clusterIds[i] = null;
+		}
+
+		size = 0;
+	}
+
+
+	@Override
+	public int size(){
+		return size;
+	}
+
+
+	@Override
+	public Set<Map.Entry<FeatureVector, Integer>> entrySet(){
+		return entrySet;
+	}
+
+
+	private class EntrySet extends AbstractSet<Map.Entry<FeatureVector, Integer>> {
+
+		@Override
+		public Iterator<Map.Entry<FeatureVector, Integer>> iterator(){
+
+			return new Iterator<Map.Entry<FeatureVector, Integer>>(){
+
+				private int next = 0;
+
+				@Override
+				public boolean hasNext(){
+					return next < size;
+				}
+
+				@Override
+				public Map.Entry<FeatureVector, Integer> next(){
+					if (next >= size) throw new NoSuchElementException();
+					Map.Entry<FeatureVector, Integer> entry = new AbstractMap.SimpleImmutableEntry<FeatureVector, Integer>(featureVectors[next], clusterIds[next]);
+					++next;
+					return entry;
+				}
+
+				@Override
+				public void remove(){
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size(){
+			return size;
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Indexed min-heap of micro-clusters ordered by their relevance stamp ({@link MicroCluster#getAverageTimestamp()}).
+ *
+ * The relevance stamp of a micro-cluster only changes when it absorbs a point or another micro-cluster, so the stamp
+ * is computed once per change and the micro-cluster is moved to its new place in the heap. Finding the micro-cluster
+ * with the eldest relevance stamp is then O(1) and removing it O(log q).
+ *
+ * @author melissam
+ *
+ */
+public class RelevanceStampHeap {
+
+	/** Initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Micro-cluster held in each slot, null if the slot is free. */
+	private MicroCluster[] items;
+
+	/** Relevance stamp of each slot. */
+	private double[] stamps;
+
+	/** Position of each slot in the heap. */
+	private int[] positions;
+
+	/** The heap, holding slots. */
+	private int[] heap;
+	private int size;
+
+	/** Slot of each micro-cluster. */
+	private Map<MicroCluster, Integer> slots;
+
+	/** Number of slots that have ever been used. */
+	private int slotCount;
+
+	/** Slots that can be reused. */
+	private int[] freeSlots;
+	private int freeCount;
+
+
+	public RelevanceStampHeap(){
+
+		this.items = new MicroCluster[INITIAL_CAPACITY];
+		this.stamps = new double[INITIAL_CAPACITY];
+		this.positions = new int[INITIAL_CAPACITY];
+		this.heap = new int[INITIAL_CAPACITY];
+		this.freeSlots = new int[INITIAL_CAPACITY];
+
+		this.slots = new IdentityHashMap<MicroCluster, Integer>();
+
+	}
+
+
+	/**
+	 * A micro-cluster has been added to the model.
+	 *
+	 * @param cluster The new micro-cluster.
+	 */
+	public void add(MicroCluster cluster){
+
+		int slot = allocateSlot();
+
+		items[slot] = cluster;
+		stamps[slot] = cluster.getAverageTimestamp();
+		slots.put(cluster, slot);
+
+		heap[size] = slot;
+		positions[slot] = size;
+		++size;
+
+		siftUp(size - 1);
+
+	}
+
+
+	/**
+	 * A micro-cluster has been removed from the model.
+	 *
+	 * @param cluster The micro-cluster that was deleted or merged into another one.
+	 */
+	public void remove(MicroCluster cluster){
+
+		Integer _slot = slots.remove(cluster);
+		if (_slot == null) return;
+
+		int slot = _slot;
+		int position = positions[slot];
+
+		// move the last element into the gap and restore the heap
+		--size;
+		if (position != size){
+			heap[position] = heap[size];
+			positions[heap[position]] = position;
+			siftDown(siftUp(position));
+		}
+
+		items[slot] = null;
+		freeSlots[freeCount++] = slot;
+
+	}
+
+
+	/**
+	 * The relevance stamp of a micro-cluster may have changed.
+	 *
+	 * @param cluster The micro-cluster that absorbed a point or another micro-cluster.
+	 */
+	public void update(MicroCluster cluster){
+
+		Integer slot = slots.get(cluster);
+		if (slot == null) return;
+
+		double stamp = cluster.getAverageTimestamp();
+		double previous = stamps[slot];
+		stamps[slot] = stamp;
+
+		if (stamp < previous) siftUp(positions[slot]);
+		else if (stamp > previous) siftDown(positions[slot]);
+
+	}
+
+
+	/**
+	 * Returns the micro-cluster with the eldest relevance stamp.
+	 * @return The micro-cluster with the eldest relevance stamp, null if there are none.
+	 */
+	public MicroCluster peek(){
+		return size > 0 ? items[heap[0]] : null;
+	}
+
+
+	/**
+	 * Returns the eldest relevance stamp.
+	 * @return The eldest relevance stamp, Double.MAX_VALUE if there are no micro-clusters.
+	 */
+	public double peekStamp(){
+		return size > 0 ? stamps[heap[0]] : Double.MAX_VALUE;
+	}
+
+
+	/**
+	 * Returns the number of micro-clusters in the heap.
+	 * @return The number of micro-clusters in the heap.
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	private int siftUp(int position){
+
+		int slot = heap[position];
+		double stamp = stamps[slot];
+
+		while (position > 0){
+			int parent = (position - 1) >>> 1;
+			if (stamps[heap[parent]] <= stamp) break;
+			heap[position] = heap[parent];
+			positions[heap[position]] = position;
+			position = parent;
+		}
+
+		heap[position] = slot;
+		positions[slot] = position;
+		return position;
+
+	}
+
+
+	private void siftDown(int position){
+
+		int slot = heap[position];
+		double stamp = stamps[slot];
+
+		while (true){
+			int child = 2 * position + 1;
+			if (child >= size) break;
+			if (child + 1 < size && stamps[heap[child + 1]] < stamps[heap[child]]) ++child;
+			if (stamps[heap[child]] >= stamp) break;
+			heap[position] = heap[child];
+			positions[heap[position]] = position;
+			position = child;
+		}
+
+		heap[position] = slot;
+		positions[slot] = position;
+
+	}
+
+
+	private int allocateSlot(){
+
+		if (freeCount > 0) return freeSlots[--freeCount];
+
+		if (slotCount == items.length){
+
+			int capacity = items.length * 2;
+
+			MicroCluster[] _items = new MicroCluster[capacity];
+			System.arraycopy(items, 0, _items, 0, slotCount);
+			items = _items;
+
+			double[] _stamps = new double[capacity];
+			System.arraycopy(stamps, 0, _stamps, 0, slotCount);
+			stamps = _stamps;
+
+			int[] _positions = new int[capacity];
+			System.arraycopy(positions, 0, _positions, 0, slotCount);
+			positions = _positions;
+
+			int[] _heap = new int[capacity];
+			System.arraycopy(heap, 0, _heap, 0, size);
+			heap = _heap;
+
+			int[] _freeSlots = new int[capacity];
+			System.arraycopy(freeSlots, 0, _freeSlots, 0, freeCount);
+			freeSlots = _freeSlots;
+		}
+
+		return slotCount++;
+
+	}
+
+}
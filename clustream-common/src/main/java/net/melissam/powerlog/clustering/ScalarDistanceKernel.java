@@ -0,0 +1,23 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Plain loop distance kernel, used when the vectorised kernel is not available.
+ * 
+ * @author melissam
+ *
+ */
+public class ScalarDistanceKernel implements DistanceKernel {
+
+	@Override
+	public double squaredDistance(double[] p1, int offset1, double[] p2, int offset2, int length) {
+		
+		double distance = 0.0;
+		for (int i = 0; i < length; i++){
+			double d = p1[offset1 + i] - p2[offset2 + i];
+			distance += d * d;
+		}
+		
+		return distance;
+	}
+
+}
@@ -0,0 +1,655 @@
+package net.melissam.powerlog.clustering;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Online phase of the CluStream algorithm spread over several independent {@link CluStream} shards, one per core.
+ *
+ * Points are stamped with one shared clock and dealt to the shards in turn, so each shard sees a sample of the whole
+ * stream and keeps its own micro-clusters. The shards are reconciled into one set of at most maxClusters micro-clusters
+ * by pooling their micro-clusters and merging the closest pairs, which is exact thanks to the additivity of the cluster
+ * features. The reconciled model is what {@link #getClusters()} and {@link #snapshot()} return, and what is published.
+ * The merges are then applied to the shards: each reconciled micro-cluster goes back to the shard its id came from, so
+ * that right after a reconciliation the shards hold the reconciled model between them, and they never hold more than
+ * maxClusters micro-clusters each.
+ *
+ * The shards only run in parallel when they are given batches through {@link #clusterBatch(List)}.
+ * Micro-cluster ids are unique across shards: the i-th micro-cluster of shard s has id (i - 1) * shards + s + 1.
+ *
+ * @author melissam
+ *
+ */
+public class ShardedCluStream implements OnlineClusterer {
+
+	/** Maximum number of micro-clusters in the reconciled model. */
+	private int maxClusters;
+
+	/** The shards. */
+	private CluStream[] shards;
+
+	/** Feature vectors of the current batch dealt to each shard. */
+	private List<List<FeatureVector>> shardBatches;
+
+	/** Placements made by each shard for the current batch, with global ids. */
+	private Placements[] shardPlacements;
+
+	/** Runs the shards. */
+	private ExecutorService executor;
+
+	/** Shared clock. */
+	private long timestamp;
+
+	/** Shard the next point is dealt to. */
+	private int nextShard;
+
+	/** Reconcile after this many points, 0 to only reconcile when the model is read. */
+	private int reconciliationInterval;
+
+	/** Points clustered since the last reconciliation. */
+	private int pointsSinceReconciliation;
+
+	/** Whether points were clustered since the last reconciliation. */
+	private boolean reconciled;
+
+	/** Largest number of ids kept in the lineage of a reconciled micro-cluster, 0 for no limit. */
+	private int lineageCap;
+
+	/** Where the ids taken out of the lineages of reconciled micro-clusters are kept, null to drop them. */
+	private LineageStore lineageStore;
+
+	/** The reconciled micro-clusters. */
+	private List<MicroCluster> clusters;
+
+	/** The last version of the reconciled model published. */
+	private volatile ModelSnapshot published;
+
+	/** Number of versions of the model published. */
+	private long snapshotVersion;
+
+	/** Publish a version of the model after this many points, 0 to only publish when asked. */
+	private int snapshotInterval;
+
+	/** Points clustered since the last version was published. */
+	private int pointsSinceSnapshot;
+
+	/** Placements of the last call, reused. */
+	private Placements placement;
+
+	/** Whether the shards collect their placements, false when points are only reported to the listener. */
+	private volatile boolean collectPlacements;
+
+	/** Class logger. */
+	private static final Logger LOG = LogManager.getLogger(ShardedCluStream.class);
+
+
+	/**
+	 * Initialises the sharded CluStream process.
+	 *
+	 * @param shards				Number of shards, normally the number of cores.
+	 * @param maxClusters			Maximum number of clusters of each shard and of the reconciled model.
+	 * @param t						The factor to use to calculate the maximum radius boundary.
+	 * @param relevanceThreshold	Time units after which a cluster can be deleted if it has not changed.
+	 * @param initNumber			The number of features to use to create the initial micro-clusters, shared between the shards.
+	 */
+	public ShardedCluStream(int shards, int maxClusters, double t, int relevanceThreshold, int initNumber){
+
+		this.maxClusters = maxClusters;
+
+		// every shard needs enough points to initialise maxClusters micro-clusters
+		int shardInitNumber = Math.max(initNumber / shards, maxClusters);
+
+		this.shards = new CluStream[shards];
+		this.shardBatches = new ArrayList<List<FeatureVector>>(shards);
+		this.shardPlacements = new Placements[shards];
+		for (int s = 0; s < shards; s++){
+			this.shards[s] = new CluStream(maxClusters, t, relevanceThreshold, shardInitNumber);
+			this.shards[s].setAssignTimestamps(false);
+			this.shards[s].setIdNumbering(shards, s + 1 - shards);
+			this.shardBatches.add(new ArrayList<FeatureVector>());
+			this.shardPlacements[s] = new Placements();
+		}
+
+		this.executor = Executors.newFixedThreadPool(shards, new ThreadFactory(){
+			private int count = 0;
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "clustream-shard-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		this.timestamp = 0;
+		this.nextShard = 0;
+		this.reconciliationInterval = 0;
+		this.pointsSinceReconciliation = 0;
+		this.reconciled = true;
+		this.clusters = new ArrayList<MicroCluster>();
+		this.placement = new Placements();
+		this.published = ModelSnapshot.EMPTY;
+
+	}
+
+
+	@Override
+	public void setNearestClusterSearchType(NearestClusterSearchType type){
+		for (CluStream shard : shards){
+			shard.setNearestClusterSearchType(type);
+		}
+	}
+
+
+	@Override
+	public NearestClusterSearchType getNearestClusterSearchType(){
+		return shards[0].getNearestClusterSearchType();
+	}
+
+
+	@Override
+	public void setInitialisationType(InitialisationType initialisationType){
+		for (CluStream shard : shards){
+			shard.setInitialisationType(initialisationType);
+		}
+	}
+
+
+	@Override
+	public InitialisationType getInitialisationType(){
+		return shards[0].getInitialisationType();
+	}
+
+
+	@Override
+	public void setSeedRadius(double seedRadius){
+		for (CluStream shard : shards){
+			shard.setSeedRadius(seedRadius);
+		}
+	}
+
+
+	@Override
+	public void setBackgroundInitialisation(boolean backgroundInitialisation){
+		for (CluStream shard : shards){
+			shard.setBackgroundInitialisation(backgroundInitialisation);
+		}
+	}
+
+
+	@Override
+	public void awaitInitialisation(){
+		for (CluStream shard : shards){
+			shard.awaitInitialisation();
+		}
+		reconciled = false;
+	}
+
+
+	/**
+	 * Set the listener told about every point the shards receive and place.
+	 * When batches are clustered the listener is called from the shard threads, concurrently.
+	 *
+	 * @param streamListener	The listener, null for none.
+	 */
+	@Override
+	public void setStreamListener(StreamListener streamListener){
+		for (CluStream shard : shards){
+			shard.setStreamListener(streamListener);
+		}
+	}
+
+
+	@Override
+	public void setSearchWidth(int searchWidth){
+		for (CluStream shard : shards){
+			shard.setSearchWidth(searchWidth);
+		}
+	}
+
+
+	@Override
+	public void setDecayRate(double decayRate){
+		for (CluStream shard : shards){
+			shard.setDecayRate(decayRate);
+		}
+	}
+
+
+	@Override
+	public void setEvictionInterval(int evictionInterval){
+		for (CluStream shard : shards){
+			shard.setEvictionInterval(evictionInterval);
+		}
+	}
+
+
+	/**
+	 * Bound the lineage of the micro-clusters of each shard, and of the reconciled micro-clusters.
+	 *
+	 * @param lineageCap	The largest number of ids to keep in a lineage, 0 for no limit.
+	 */
+	@Override
+	public void setLineageCap(int lineageCap){
+		this.lineageCap = lineageCap;
+		for (CluStream shard : shards){
+			shard.setLineageCap(lineageCap);
+		}
+	}
+
+
+	/**
+	 * Set where the ids taken out of the lineages of the shards and of the reconciled micro-clusters are kept. The 
+	 * shards spill their lineages on their own threads, so the store must be thread-safe.
+	 *
+	 * @param lineageStore	The lineage store, null to drop the ids.
+	 */
+	@Override
+	public void setLineageStore(LineageStore lineageStore){
+		this.lineageStore = lineageStore;
+		for (CluStream shard : shards){
+			shard.setLineageStore(lineageStore);
+		}
+	}
+
+
+	@Override
+	public void setStoragePrecision(StoragePrecision storagePrecision){
+		for (CluStream shard : shards){
+			shard.setStoragePrecision(storagePrecision);
+		}
+	}
+
+
+	/**
+	 * Choose the memory the cluster features of the micro-clusters of each shard are kept in. Each shard maps its own 
+	 * file, named after the given file with the index of the shard appended.
+	 *
+	 * @param storageBacking	The memory to keep the cluster features in.
+	 * @param file				The file to name the files of the shards after, for {@link StorageBacking#MAPPED}.
+	 */
+	@Override
+	public void setStorageBacking(StorageBacking storageBacking, File file){
+		for (int s = 0; s < shards.length; s++){
+			shards[s].setStorageBacking(storageBacking, file == null ? null : new File(file.getPath() + "." + s));
+		}
+	}
+
+
+	/**
+	 * Reconcile the shards every given number of points, rather than only when the model is read.
+	 *
+	 * @param reconciliationInterval The number of points between reconciliations, 0 to only reconcile when the model is read.
+	 */
+	public void setReconciliationInterval(int reconciliationInterval){
+		this.reconciliationInterval = reconciliationInterval;
+	}
+
+
+	/**
+	 * Returns the number of shards.
+	 * @return The number of shards.
+	 */
+	public int getShardCount(){
+		return shards.length;
+	}
+
+
+	/**
+	 * Cluster the given feature in the next shard, on the calling thread.
+	 *
+	 * @param featureVector The feature vector to cluster.
+	 * @return	The cluster assignment for the feature, null if the feature was kept for initialisation.
+	 */
+	@Override
+	public Map<FeatureVector, Integer> cluster(FeatureVector featureVector){
+
+		placement.clear();
+
+		featureVector.setTimestamp(++timestamp);
+		int shard = nextShard;
+		nextShard = (nextShard + 1) % shards.length;
+
+		Map<FeatureVector, Integer> shardPlacement = shards[shard].cluster(featureVector);
+		pointClustered(1);
+
+		if (shardPlacement == null) return null;
+
+		addPlacements(shardPlacement, placement);
+		return placement;
+	}
+
+
+	@Override
+	public boolean process(FeatureVector featureVector){
+
+		featureVector.setTimestamp(++timestamp);
+		int shard = nextShard;
+		nextShard = (nextShard + 1) % shards.length;
+
+		boolean placed = shards[shard].process(featureVector);
+		pointClustered(1);
+
+		return placed;
+	}
+
+
+	/**
+	 * Deal the feature vectors to the shards and cluster them in parallel.
+	 *
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 * @return	The cluster assignments of the features, grouped by shard.
+	 */
+	@Override
+	public Map<FeatureVector, Integer> clusterBatch(List<FeatureVector> featureVectors){
+
+		placement.clear();
+		collectPlacements = true;
+
+		batch(featureVectors);
+
+		for (int s = 0; s < shards.length; s++){
+			for (Entry<FeatureVector, Integer> entry : shardPlacements[s].entrySet()){
+				placement.add(entry.getKey(), entry.getValue());
+			}
+			shardPlacements[s].clear();
+		}
+
+		return placement;
+	}
+
+
+	/**
+	 * Deal the feature vectors to the shards and cluster them in parallel, reporting where they were placed only
+	 * to the stream listener.
+	 *
+	 * @param featureVectors	The feature vectors to cluster, in order of arrival.
+	 */
+	@Override
+	public void processBatch(List<FeatureVector> featureVectors){
+		collectPlacements = false;
+		batch(featureVectors);
+	}
+
+
+	// Deal a batch to the shards and run them
+	private void batch(List<FeatureVector> featureVectors){
+
+		for (FeatureVector featureVector : featureVectors){
+			featureVector.setTimestamp(++timestamp);
+			shardBatches.get(nextShard).add(featureVector);
+			nextShard = (nextShard + 1) % shards.length;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(shards.length);
+		for (int s = 0; s < shards.length; s++){
+			if (!shardBatches.get(s).isEmpty()) tasks.add(new ShardTask(s));
+		}
+
+		try{
+
+			for (Future<Void> result : executor.invokeAll(tasks)){
+				result.get();
+			}
+
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted whilst clustering a batch.", ex);
+		}catch(ExecutionException ex){
+			throw new IllegalStateException("Error whilst clustering a batch.", ex.getCause());
+		}finally{
+			for (List<FeatureVector> shardBatch : shardBatches){
+				shardBatch.clear();
+			}
+		}
+
+		pointClustered(featureVectors.size());
+
+	}
+
+
+	/**
+	 * Returns the reconciled micro-clusters, reconciling the shards first if points were clustered since.
+	 * The returned micro-clusters are copies which do not change as more points are clustered.
+	 *
+	 * @return The reconciled micro-clusters.
+	 */
+	@Override
+	public List<MicroCluster> getClusters(){
+		if (!reconciled) reconcile();
+		return clusters;
+	}
+
+
+	@Override
+	public List<MicroCluster> snapshot(){
+		return publish().getClusters();
+	}
+
+
+	/**
+	 * Publish the reconciled model, reconciling the shards first if points were clustered since. The reconciled
+	 * micro-clusters are never changed, as every reconciliation makes new ones and hands copies of them to the shards, 
+	 * so they are published as they are.
+	 *
+	 * @return The new version of the model.
+	 */
+	@Override
+	public ModelSnapshot publish(){
+
+		published = new ModelSnapshot(++snapshotVersion, timestamp, getClusters());
+		pointsSinceSnapshot = 0;
+
+		return published;
+	}
+
+
+	@Override
+	public ModelSnapshot getSnapshot(){
+		return published;
+	}
+
+
+	@Override
+	public void setSnapshotInterval(int snapshotInterval){
+		this.snapshotInterval = snapshotInterval;
+	}
+
+
+	/**
+	 * Write the cluster features of every shard out to the file it is mapped on. The shards only run during a call to
+	 * cluster points, so must be asked on the thread clustering them.
+	 */
+	@Override
+	public void flush(){
+		for (CluStream shard : shards){
+			shard.flush();
+		}
+	}
+
+
+	/**
+	 * Reconcile the micro-clusters of all the shards into one set of at most maxClusters micro-clusters, by merging
+	 * the closest pairs of the pooled micro-clusters, then apply the merges to the shards. Each shard a merge changed 
+	 * gets copies of the reconciled micro-clusters whose ids came from it, in place of its own. The shards are only 
+	 * changed once they are all initialised, so that none of the points they hold back are lost.
+	 */
+	public void reconcile(){
+
+		long start = System.currentTimeMillis();
+
+		List<MicroCluster> pooled = new ArrayList<MicroCluster>();
+		ClosestPairTracker tracker = new ClosestPairTracker();
+
+		for (CluStream shard : shards){
+			for (MicroCluster live : shard.getClusters()){
+
+				// copies of the shard's micro-clusters, which are merged
+				MicroCluster cluster = live.copy();
+				if (cluster instanceof DecayingMicroCluster) ((DecayingMicroCluster)cluster).decayTo(timestamp);
+
+				pooled.add(cluster);
+				tracker.add(cluster);
+			}
+		}
+
+		// the ids dropped from the lineages are only gone once the merges are applied to the shards
+		boolean apply = shardsInitialised();
+		LineageStore spillTo = apply ? lineageStore : null;
+
+		// CF additivity makes merging shard micro-clusters the same as if they had absorbed each other's points
+		Set<MicroCluster> mergedAway = Collections.newSetFromMap(new IdentityHashMap<MicroCluster, Boolean>());
+		boolean[] changed = new boolean[shards.length];
+		while (pooled.size() - mergedAway.size() > maxClusters && tracker.findClosestPair()){
+
+			MicroCluster merged = tracker.getFirst();
+			MicroCluster other = tracker.getSecond();
+
+			merged.merge(other);
+			if (lineageCap > 0) merged.boundLineage(lineageCap, spillTo);
+			tracker.update(merged);
+			tracker.remove(other);
+			mergedAway.add(other);
+
+			changed[shardOf(merged.getId())] = true;
+			changed[shardOf(other.getId())] = true;
+		}
+
+		// take the micro-clusters merged away out in one pass, keeping the order of the others
+		if (!mergedAway.isEmpty()){
+			int kept = 0;
+			for (int i = 0; i < pooled.size(); i++){
+				MicroCluster cluster = pooled.get(i);
+				if (!mergedAway.contains(cluster)) pooled.set(kept++, cluster);
+			}
+			pooled.subList(kept, pooled.size()).clear();
+		}
+
+		if (apply && !mergedAway.isEmpty()) applyToShards(pooled, changed);
+
+		this.clusters = pooled;
+		this.reconciled = true;
+		this.pointsSinceReconciliation = 0;
+
+		LOG.debug("Reconciled {} shards into {} micro-clusters in {}ms.", shards.length, pooled.size(), System.currentTimeMillis() - start);
+
+	}
+
+
+	/**
+	 * Stop the threads running the shards.
+	 */
+	public void shutdown(){
+		executor.shutdown();
+	}
+
+
+	// The live micro-clusters of a shard
+	List<MicroCluster> getShardClusters(int shard){
+		return shards[shard].getClusters();
+	}
+
+
+	// Keep track of when the shards need reconciling
+	private void pointClustered(int points){
+
+		reconciled = false;
+		pointsSinceReconciliation += points;
+
+		if (reconciliationInterval > 0 && pointsSinceReconciliation >= reconciliationInterval){
+			reconcile();
+		}
+
+		if (snapshotInterval > 0){
+			pointsSinceSnapshot += points;
+			if (pointsSinceSnapshot >= snapshotInterval) publish();
+		}
+	}
+
+
+	// Copy the placements of a shard
+	private void addPlacements(Map<FeatureVector, Integer> shardPlacement, Placements placements){
+		for (Entry<FeatureVector, Integer> entry : shardPlacement.entrySet()){
+			placements.add(entry.getKey(), entry.getValue());
+		}
+	}
+
+
+	// The shard which gave a micro-cluster its id, the ids of the shards being interleaved
+	private int shardOf(int id){
+		return (id - 1) % shards.length;
+	}
+
+
+	// Whether every shard has its micro-clusters in and holds no points back
+	private boolean shardsInitialised(){
+		for (CluStream shard : shards){
+			if (!shard.isInitialised()) return false;
+		}
+		return true;
+	}
+
+
+	// Hand the shards changed by the reconciliation copies of the reconciled micro-clusters whose ids came from them
+	private void applyToShards(List<MicroCluster> reconciled, boolean[] changed){
+
+		List<List<MicroCluster>> shardClusters = new ArrayList<List<MicroCluster>>(shards.length);
+		for (int s = 0; s < shards.length; s++){
+			shardClusters.add(new ArrayList<MicroCluster>());
+		}
+		for (MicroCluster cluster : reconciled){
+			int shard = shardOf(cluster.getId());
+			if (changed[shard]) shardClusters.get(shard).add(cluster.copy());
+		}
+
+		for (int s = 0; s < shards.length; s++){
+			if (changed[s]) shards[s].replaceClusters(shardClusters.get(s));
+		}
+	}
+
+
+	/**
+	 * Clusters the feature vectors dealt to one shard.
+	 */
+	private class ShardTask implements Callable<Void> {
+
+		private final int shard;
+
+		ShardTask(int shard){
+			this.shard = shard;
+		}
+
+		@Override
+		public Void call(){
+
+			CluStream learner = shards[shard];
+			for (FeatureVector featureVector : shardBatches.get(shard)){
+				if (collectPlacements){
+					Map<FeatureVector, Integer> shardPlacement = learner.cluster(featureVector);
+					if (shardPlacement != null) addPlacements(shardPlacement, shardPlacements[shard]);
+				}else{
+					learner.process(featureVector);
+				}
+			}
+
+			return null;
+		}
+	}
+
+}
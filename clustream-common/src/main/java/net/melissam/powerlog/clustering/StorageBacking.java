@@ -0,0 +1,33 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Memory in which CluStream keeps the cluster features of its micro-clusters, see {@link MicroClusterStore}.
+ *
+ * @author melissam
+ *
+ */
+public enum StorageBacking {
+
+	// arrays on the heap
+	HEAP,
+
+	// a direct buffer, outside the heap
+	DIRECT,
+
+	// a buffer mapped on a file, outside the heap, which can be flushed to the file as a checkpoint
+	MAPPED;
+
+	public static StorageBacking fromName(String name){
+
+		StorageBacking backing = null;
+
+		for (StorageBacking _backing : StorageBacking.values()){
+			if (_backing.name().equalsIgnoreCase(name)){
+				backing = _backing;
+			}
+		}
+
+		return backing != null ? backing : StorageBacking.HEAP;
+	}
+
+}
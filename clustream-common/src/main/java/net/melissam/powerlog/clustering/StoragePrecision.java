@@ -0,0 +1,31 @@
+package net.melissam.powerlog.clustering;
+
+/**
+ * Precision in which CluStream keeps the centroids of its micro-clusters, see {@link MicroClusterStore}.
+ *
+ * @author melissam
+ *
+ */
+public enum StoragePrecision {
+
+	// centroids in doubles, as the cluster features
+	DOUBLE,
+
+	// centroids rounded to floats, halving the memory the nearest micro-cluster search streams through, and the size of
+	// the micro-clusters serialised
+	FLOAT;
+
+	public static StoragePrecision fromName(String name){
+
+		StoragePrecision precision = null;
+
+		for (StoragePrecision _precision : StoragePrecision.values()){
+			if (_precision.name().equalsIgnoreCase(name)){
+				precision = _precision;
+			}
+		}
+
+		return precision != null ? precision : StoragePrecision.DOUBLE;
+	}
+
+}
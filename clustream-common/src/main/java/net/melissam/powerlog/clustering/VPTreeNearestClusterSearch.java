@@ -0,0 +1,447 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Exact nearest micro-cluster search on a vantage-point tree of micro-cluster centroids.
+ *
+ * The tree is built on a copy of each centroid taken at build time (the indexed position). Micro-clusters keep
+ * moving as they absorb points, so each one keeps track of how far its centroid has drifted from its indexed position.
+ * The search widens every pruning bound by the largest drift, which keeps the answer exact, and the tree is rebuilt
+ * once the drift (or the number of micro-clusters added and removed since the last build) grows large enough
+ * to hurt pruning. Micro-clusters created after the last build are kept in a small pending list which is scanned linearly.
+ *
+ * @author melissam
+ *
+ */
+public class VPTreeNearestClusterSearch implements NearestClusterSearch {
+
+	/** Ranges of this size or smaller are scanned linearly. */
+	private static final int LEAF_SIZE = 8;
+
+	/** Rebuild once the largest drift goes above this factor of the mean vantage point radius. */
+	private static final double DRIFT_FACTOR = 0.1;
+
+	/** Rebuild once the number of added and removed micro-clusters goes above 1/REBUILD_RATIO of the tree size. */
+	private static final int REBUILD_RATIO = 16;
+
+	/** Lower limit on the number of added and removed micro-clusters that trigger a rebuild. */
+	private static final int MIN_REBUILD_CHANGES = 8;
+
+	/** Initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Micro-cluster held in each slot, null if the slot is free or its micro-cluster was removed. */
+	private MicroCluster[] items;
+
+	/** The indexed position of the centroid of each slot. */
+	private double[][] positions;
+
+	/** Distance of each micro-cluster's current centroid from its indexed position. */
+	private double[] drift;
+
+	/** Whether the slot is part of the current tree. */
+	private boolean[] inTree;
+
+	/** Position of each slot in the pending list, -1 if not pending. */
+	private int[] pendingPosition;
+
+	/** Slot of each micro-cluster. */
+	private Map<MicroCluster, Integer> slots;
+
+	/** Number of slots that have ever been used. */
+	private int slotCount;
+
+	/** Slots that can be reused. */
+	private int[] freeSlots;
+	private int freeCount;
+
+	/** Slots added since the last build. */
+	private int[] pending;
+	private int pendingCount;
+
+	/** Number of slots in the tree whose micro-cluster has since been removed. */
+	private int removedInTree;
+
+	/** The tree, stored implicitly: the node for range [lo, hi) has its vantage point at order[lo]. */
+	private int[] order;
+	private int treeSize;
+
+	/** Median distance from the vantage point at order[lo]; inner child is [lo+1, split[lo]), outer child is [split[lo], hi). */
+	private double[] mu;
+	private int[] split;
+
+	/** Scratch space for distances to the vantage point during a build. */
+	private double[] buildDistances;
+
+	/** Statistics on the vantage point radii of the last build. */
+	private double muSum;
+	private int internalNodes;
+
+	/** Largest drift since the last build and the drift which triggers a rebuild. */
+	private double maxDrift;
+	private double driftTolerance;
+
+	/** Search stack. */
+	private int[] stackLo;
+	private int[] stackHi;
+	private double[] stackBound;
+
+	/** Used to choose vantage points. */
+	private Random random;
+
+	/** Distance of the last nearest micro-cluster found. */
+	private double nearestDistance;
+
+
+	public VPTreeNearestClusterSearch(){
+
+		this.items = new MicroCluster[INITIAL_CAPACITY];
+		this.positions = new double[INITIAL_CAPACITY][];
+		this.drift = new double[INITIAL_CAPACITY];
+		this.inTree = new boolean[INITIAL_CAPACITY];
+		this.pendingPosition = new int[INITIAL_CAPACITY];
+		this.freeSlots = new int[INITIAL_CAPACITY];
+		this.pending = new int[INITIAL_CAPACITY];
+
+		this.slots = new IdentityHashMap<MicroCluster, Integer>();
+
+		this.order = new int[0];
+		this.mu = new double[0];
+		this.split = new int[0];
+		this.buildDistances = new double[0];
+		this.stackLo = new int[0];
+		this.stackHi = new int[0];
+		this.stackBound = new double[0];
+
+		this.random = new Random(1);
+		this.nearestDistance = Double.MAX_VALUE;
+		this.driftTolerance = Double.MAX_VALUE;
+
+	}
+
+
+	@Override
+	public void add(MicroCluster cluster) {
+
+		int slot = allocateSlot();
+
+		items[slot] = cluster;
+		inTree[slot] = false;
+		drift[slot] = 0;
+		slots.put(cluster, slot);
+
+		pendingPosition[slot] = pendingCount;
+		pending[pendingCount++] = slot;
+
+	}
+
+
+	@Override
+	public void remove(MicroCluster cluster) {
+
+		Integer _slot = slots.remove(cluster);
+		if (_slot == null) return;
+
+		int slot = _slot;
+		items[slot] = null;
+
+		if (inTree[slot]){
+
+			// the position is still needed for the tree bounds, the slot is freed on the next build
+			++removedInTree;
+
+		}else{
+
+			// remove from the pending list
+			int last = pending[--pendingCount];
+			pending[pendingPosition[slot]] = last;
+			pendingPosition[last] = pendingPosition[slot];
+			pendingPosition[slot] = -1;
+
+			freeSlots[freeCount++] = slot;
+		}
+
+	}
+
+
+	@Override
+	public void update(MicroCluster cluster) {
+
+		Integer slot = slots.get(cluster);
+		if (slot == null || !inTree[slot]) return;
+
+		double distance = cluster.getDistance(positions[slot]);
+		drift[slot] = distance;
+		if (distance > maxDrift) maxDrift = distance;
+
+	}
+
+
+	@Override
+	public MicroCluster nearest(double[] point) {
+
+		if (needsRebuild()) rebuild();
+
+		MicroCluster nearest = null;
+		nearestDistance = Double.MAX_VALUE;
+
+		// micro-clusters which are not in the tree yet
+		for (int i = 0; i < pendingCount; i++){
+			MicroCluster cluster = items[pending[i]];
+			double distance = cluster.getDistance(point);
+			if (distance < nearestDistance){
+				nearestDistance = distance;
+				nearest = cluster;
+			}
+		}
+
+		if (treeSize == 0) return nearest;
+
+		int top = 0;
+		stackLo[top] = 0; stackHi[top] = treeSize; stackBound[top] = 0; ++top;
+
+		while (top > 0){
+
+			--top;
+			int lo = stackLo[top];
+			int hi = stackHi[top];
+
+			// nothing in this range can be closer than what we already have
+			if (stackBound[top] >= nearestDistance) continue;
+
+			if (hi - lo <= LEAF_SIZE){
+
+				for (int i = lo; i < hi; i++){
+					MicroCluster cluster = items[order[i]];
+					if (cluster == null) continue;
+					double distance = cluster.getDistance(point);
+					if (distance < nearestDistance){
+						nearestDistance = distance;
+						nearest = cluster;
+					}
+				}
+				continue;
+			}
+
+			// the distance of the point to the vantage point's indexed position lies in [low, high]
+			int vantage = order[lo];
+			double low, high;
+			MicroCluster cluster = items[vantage];
+			if (cluster != null){
+
+				double distance = cluster.getDistance(point);
+				if (distance < nearestDistance){
+					nearestDistance = distance;
+					nearest = cluster;
+				}
+
+				low = distance - drift[vantage];
+				high = distance + drift[vantage];
+
+			}else{
+
+				low = high = distance(point, positions[vantage]);
+			}
+
+			// triangle inequality on indexed positions, widened by the drift of the micro-clusters below
+			double radius = mu[lo];
+			double innerBound = low - radius - maxDrift;
+			double outerBound = radius - high - maxDrift;
+
+			// push the nearer child last so that it is searched first
+			if (low < radius){
+				stackLo[top] = split[lo]; stackHi[top] = hi; stackBound[top] = outerBound; ++top;
+				stackLo[top] = lo + 1; stackHi[top] = split[lo]; stackBound[top] = innerBound; ++top;
+			}else{
+				stackLo[top] = lo + 1; stackHi[top] = split[lo]; stackBound[top] = innerBound; ++top;
+				stackLo[top] = split[lo]; stackHi[top] = hi; stackBound[top] = outerBound; ++top;
+			}
+
+		}
+
+		return nearest;
+	}
+
+
+	@Override
+	public double getNearestDistance() {
+		return nearestDistance;
+	}
+
+
+	// ------------------ Private methods. ---------------------- /
+
+	private boolean needsRebuild(){
+
+		int changes = pendingCount + removedInTree;
+		return changes > Math.max(MIN_REBUILD_CHANGES, treeSize / REBUILD_RATIO) || maxDrift > driftTolerance;
+
+	}
+
+
+	/**
+	 * Rebuild the tree on the current positions of all the live micro-clusters.
+	 */
+	private void rebuild(){
+
+		if (order.length < slotCount){
+			order = new int[slotCount];
+			mu = new double[slotCount];
+			split = new int[slotCount];
+			buildDistances = new double[slotCount];
+			stackLo = new int[slotCount + 2];
+			stackHi = new int[slotCount + 2];
+			stackBound = new double[slotCount + 2];
+		}
+
+		treeSize = 0;
+		freeCount = 0;
+		for (int slot = 0; slot < slotCount; slot++){
+
+			MicroCluster cluster = items[slot];
+			if (cluster != null){
+
+				if (positions[slot] == null) positions[slot] = new double[cluster.getDimension()];
+				cluster.getCenter(positions[slot]);
+
+				drift[slot] = 0;
+				inTree[slot] = true;
+				pendingPosition[slot] = -1;
+				order[treeSize++] = slot;
+
+			}else{
+
+				inTree[slot] = false;
+				freeSlots[freeCount++] = slot;
+			}
+		}
+
+		pendingCount = 0;
+		removedInTree = 0;
+		maxDrift = 0;
+
+		muSum = 0;
+		internalNodes = 0;
+		build(0, treeSize);
+
+		// with no internal nodes there is no pruning to protect, so drift does not matter
+		driftTolerance = internalNodes > 0 ? DRIFT_FACTOR * muSum / internalNodes : Double.MAX_VALUE;
+
+	}
+
+
+	private void build(int lo, int hi){
+
+		if (hi - lo <= LEAF_SIZE) return;
+
+		// choose a random vantage point and move it to the front of the range
+		swap(lo, lo + random.nextInt(hi - lo));
+		double[] vantage = positions[order[lo]];
+
+		for (int i = lo + 1; i < hi; i++){
+			buildDistances[i] = distance(vantage, positions[order[i]]);
+		}
+
+		// split the rest of the range around the median distance
+		int mid = (lo + 1 + hi) >>> 1;
+		select(lo + 1, hi - 1, mid);
+
+		mu[lo] = buildDistances[mid];
+		split[lo] = mid;
+
+		muSum += mu[lo];
+		++internalNodes;
+
+		build(lo + 1, mid);
+		build(mid, hi);
+
+	}
+
+
+	// Quickselect on buildDistances so that position k holds the k-th smallest distance in [left, right]
+	private void select(int left, int right, int k){
+
+		while (right > left){
+
+			swap(left + random.nextInt(right - left + 1), right);
+			double pivot = buildDistances[right];
+
+			int store = left;
+			for (int i = left; i < right; i++){
+				if (buildDistances[i] < pivot){
+					swap(i, store++);
+				}
+			}
+			swap(store, right);
+
+			if (store == k) return;
+			else if (store < k) left = store + 1;
+			else right = store - 1;
+		}
+
+	}
+
+
+	private void swap(int i, int j){
+
+		int slot = order[i];
+		order[i] = order[j];
+		order[j] = slot;
+
+		double distance = buildDistances[i];
+		buildDistances[i] = buildDistances[j];
+		buildDistances[j] = distance;
+
+	}
+
+
+	private int allocateSlot(){
+
+		if (freeCount > 0) return freeSlots[--freeCount];
+
+		if (slotCount == items.length){
+
+			int capacity = items.length * 2;
+
+			MicroCluster[] _items = new MicroCluster[capacity];
+			System.arraycopy(items, 0, _items, 0, slotCount);
+			items = _items;
+
+			double[][] _positions = new double[capacity][];
+			System.arraycopy(positions, 0, _positions, 0, slotCount);
+			positions = _positions;
+
+			double[] _drift = new double[capacity];
+			System.arraycopy(drift, 0, _drift, 0, slotCount);
+			drift = _drift;
+
+			boolean[] _inTree = new boolean[capacity];
+			System.arraycopy(inTree, 0, _inTree, 0, slotCount);
+			inTree = _inTree;
+
+			int[] _pendingPosition = new int[capacity];
+			System.arraycopy(pendingPosition, 0, _pendingPosition, 0, slotCount);
+			pendingPosition = _pendingPosition;
+
+			int[] _pending = new int[capacity];
+			System.arraycopy(pending, 0, _pending, 0, pendingCount);
+			pending = _pending;
+
+			int[] _freeSlots = new int[capacity];
+			System.arraycopy(freeSlots, 0, _freeSlots, 0, freeCount);
+			freeSlots = _freeSlots;
+		}
+
+		return slotCount++;
+
+	}
+
+
+	private static double distance(double[] p1, double[] p2){
+		return DistanceKernels.distance(p1, p2);
+	}
+
+}
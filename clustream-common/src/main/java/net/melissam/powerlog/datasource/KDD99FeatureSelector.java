@@ -30,6 +30,9 @@ public class KDD99FeatureSelector implements FeatureSelector {
 	// keep track of line number
 	private int lineNumber;
 	
+	// number of continuous attributes taken from each line
+	private static final int NUMBER_OF_FEATURES = 34;
+	
 	// class logger
 	private static final Logger LOG = LogManager.getLogger(KDD99FeatureSelector.class);
 	
@@ -124,27 +127,29 @@ public class KDD99FeatureSelector implements FeatureSelector {
 		if (_attributes.length == 42){
 			
 			// choose the items we need
-			fv = new FeatureVector(lineNumber);
-			fv.add(Double.parseDouble(_attributes[0]));
-			fv.add(Double.parseDouble(_attributes[4]));
-			fv.add(Double.parseDouble(_attributes[5]));
-			fv.add(Double.parseDouble(_attributes[7]));
-			fv.add(Double.parseDouble(_attributes[8]));
-			fv.add(Double.parseDouble(_attributes[9]));
-			fv.add(Double.parseDouble(_attributes[10]));
-			fv.add(Double.parseDouble(_attributes[12]));
-			fv.add(Double.parseDouble(_attributes[13]));
-			fv.add(Double.parseDouble(_attributes[14]));
-			fv.add(Double.parseDouble(_attributes[15]));
-			fv.add(Double.parseDouble(_attributes[16]));
-			fv.add(Double.parseDouble(_attributes[17]));
-			fv.add(Double.parseDouble(_attributes[18]));
-			fv.add(Double.parseDouble(_attributes[19]));
+			double[] point = new double[NUMBER_OF_FEATURES];
+			int f = 0;
+			point[f++] = Double.parseDouble(_attributes[0]);
+			point[f++] = Double.parseDouble(_attributes[4]);
+			point[f++] = Double.parseDouble(_attributes[5]);
+			point[f++] = Double.parseDouble(_attributes[7]);
+			point[f++] = Double.parseDouble(_attributes[8]);
+			point[f++] = Double.parseDouble(_attributes[9]);
+			point[f++] = Double.parseDouble(_attributes[10]);
+			point[f++] = Double.parseDouble(_attributes[12]);
+			point[f++] = Double.parseDouble(_attributes[13]);
+			point[f++] = Double.parseDouble(_attributes[14]);
+			point[f++] = Double.parseDouble(_attributes[15]);
+			point[f++] = Double.parseDouble(_attributes[16]);
+			point[f++] = Double.parseDouble(_attributes[17]);
+			point[f++] = Double.parseDouble(_attributes[18]);
+			point[f++] = Double.parseDouble(_attributes[19]);
 			
 			for (int i = 22; i < 41; i++){
-				fv.add(Double.parseDouble(_attributes[i]));
+				point[f++] = Double.parseDouble(_attributes[i]);
 			}
 			
+			fv = new FeatureVector(lineNumber, point);
 			fv.setGroundTruthLabel(_attributes[41]);
 			
 			// LOG.info("Created feature vector with {} attributes.", fv.size());
@@ -4,6 +4,7 @@ import java.util.Collection;
 import java.util.List;
 
 import net.melissam.powerlog.clustering.Cluster;
+import net.melissam.powerlog.clustering.DistanceKernels;
 import net.melissam.powerlog.clustering.FeatureVector;
 
 /**
@@ -21,18 +22,14 @@ public class SSQEvaluation implements ClusterEvaluationMeasure{
 		
         for (FeatureVector fv : points) {
 
+        	double[] point = fv.getValues();
+        	
         	// find the closest cluster
             double minDistance = Double.MAX_VALUE;
             
             for (Cluster cluster : clusters) {
             	
-                double distance = 0.0;
-                double[] center = cluster.getCenter();
-                
-                for (int i = 0; i < center.length; i++) {
-                    double d = fv.getPoint()[i] - center[i];
-                    distance += d * d;
-                }
+                double distance = DistanceKernels.squaredDistance(point, cluster.getCenter());
                 
                 // keep the minimum distance so far
                 minDistance = Math.min(distance, minDistance);
@@ -6,7 +6,8 @@ import java.util.List;
 import net.melissam.powerlog.clustering.*;
 
 /**
- * Snapshot message that is sent to the central node containing the micro-cluster information.
+ * Snapshot message that is sent to the central node containing the micro-cluster information. Micro-clusters from a 
+ * learner keeping its centroids in single precision are sent in single precision, taking half the space.
  * 
  * @author melissam
  *
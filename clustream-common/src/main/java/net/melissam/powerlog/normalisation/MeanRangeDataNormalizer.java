@@ -61,7 +61,7 @@ public class MeanRangeDataNormalizer implements DataNormaliser{
 				}
 			}
 			
-			double[] rawAttributes = fv.getPoint();
+			double[] rawAttributes = fv.getValues();
 			for (int i = 0; i < fv.getDimension(); i++){
 				if (rawAttributes[i] < minValues[i]) minValues[i] = rawAttributes[i];
 				if (rawAttributes[i] > maxValues[i]) maxValues[i] = rawAttributes[i];
@@ -75,9 +75,11 @@ public class MeanRangeDataNormalizer implements DataNormaliser{
 	@Override
 	public void normalise(FeatureVector featureVector) {
 		
-		for (int i = 0; i < featureVector.getDimension(); i++){
-			if (maxValues[i] == minValues[i]) featureVector.set(i, 0.0);
-			else featureVector.set(i, (featureVector.get(i) - minValues[i]) / (maxValues[i] - minValues[i]));
+		// normalise in place
+		double[] values = featureVector.getValues();
+		for (int i = 0; i < values.length; i++){
+			if (maxValues[i] == minValues[i]) values[i] = 0.0;
+			else values[i] = (values[i] - minValues[i]) / (maxValues[i] - minValues[i]);
 		}
 		
 	}
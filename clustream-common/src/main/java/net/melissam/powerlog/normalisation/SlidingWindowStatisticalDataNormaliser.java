@@ -96,9 +96,11 @@ public class SlidingWindowStatisticalDataNormaliser implements DataNormaliser  {
 		
 		assert(featureVector.getDimension() == mean.length);
 		
-		for(int i = 0; i < featureVector.getDimension(); i++){
-			if (sd[i] != 0) featureVector.set(i, (featureVector.get(i) - mean[i]) / sd[i]);
-			else featureVector.set(i, (featureVector.get(i) - mean[i]));
+		// normalise in place
+		double[] values = featureVector.getValues();
+		for(int i = 0; i < values.length; i++){
+			if (sd[i] != 0) values[i] = (values[i] - mean[i]) / sd[i];
+			else values[i] = values[i] - mean[i];
 		}
 	
 	}
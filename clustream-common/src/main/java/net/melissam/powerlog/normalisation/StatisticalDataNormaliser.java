@@ -60,7 +60,7 @@ public class StatisticalDataNormaliser implements DataNormaliser {
 				}
 			}
 			
-			double[] rawAttributes = fv.getPoint();
+			double[] rawAttributes = fv.getValues();
 			for (int i = 0; i < fv.getDimension(); i++){
 				sum[i] += rawAttributes[i];
 			}
@@ -84,9 +84,11 @@ public class StatisticalDataNormaliser implements DataNormaliser {
 		
 		assert(featureVector.getDimension() == mean.length);
 		
-		for(int i = 0; i < featureVector.getDimension(); i++){
-			if (sd[i] != 0) featureVector.set(i, (featureVector.get(i) - mean[i]) / sd[i]);
-			else featureVector.set(i, (featureVector.get(i) - mean[i]));
+		// normalise in place
+		double[] values = featureVector.getValues();
+		for(int i = 0; i < values.length; i++){
+			if (sd[i] != 0) values[i] = (values[i] - mean[i]) / sd[i];
+			else values[i] = values[i] - mean[i];
 		}
 	
 	}
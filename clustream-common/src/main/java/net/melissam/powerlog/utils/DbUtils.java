@@ -184,7 +184,7 @@ public class DbUtils {
 		Connection conn = getConnection();
 		PreparedStatement stmt = conn.prepareStatement("INSERT INTO Feature (id, feature, cluster) VALUES (?, ?, ?)");
 		stmt.setInt(1, vector.getId());
-		stmt.setString(2, new Gson().toJson(vector.getPoint()));
+		stmt.setString(2, new Gson().toJson(vector.getValues()));
 		stmt.setInt(3, cluster);
 		
 		stmt.executeUpdate();
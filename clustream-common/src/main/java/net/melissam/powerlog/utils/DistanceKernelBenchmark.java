@@ -0,0 +1,84 @@
+package net.melissam.powerlog.utils;
+
+import java.util.Random;
+
+import net.melissam.powerlog.clustering.DistanceKernel;
+import net.melissam.powerlog.clustering.DistanceKernels;
+import net.melissam.powerlog.clustering.ScalarDistanceKernel;
+
+/**
+ * Compares the distance kernel in use with the scalar one, for the nearest micro-cluster scan of a point: 
+ * q centroids of dimension d laid out one after the other, as in the micro-cluster store.
+ * 
+ * Run with --add-modules jdk.incubator.vector on Java 17 or later, from the jar, to measure the vectorised kernel.
+ * Arguments: dimension (default 34), number of centroids (default 100), rounds (default 10).
+ * 
+ * @author melissam
+ *
+ */
+public class DistanceKernelBenchmark {
+
+	/** Number of points scanned per round. */
+	private static final int POINTS = 200000;
+	
+	public static void main(String[] args){
+		
+		int dimension = args.length > 0 ? Integer.parseInt(args[0]) : 34;
+		int centroids = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		
+		Random random = new Random(1);
+		double[] centers = new double[centroids * dimension];
+		for (int i = 0; i < centers.length; i++) centers[i] = random.nextGaussian();
+		double[] points = new double[1024 * dimension];
+		for (int i = 0; i < points.length; i++) points[i] = random.nextGaussian();
+		
+		DistanceKernel scalar = new ScalarDistanceKernel();
+		DistanceKernel kernel = DistanceKernels.getKernel();
+		
+		System.out.println(String.format("kernel=%s, dimension=%s, centroids=%s", kernel.getClass().getSimpleName(), dimension, centroids));
+		
+		for (int round = 0; round < rounds; round++){
+			
+			long scalarTime = run(scalar, points, centers, dimension, centroids);
+			long kernelTime = run(kernel, points, centers, dimension, centroids);
+			
+			System.out.println(String.format("round=%s, scalar=%.1fns/distance, kernel=%.1fns/distance, speedup=%.2f", round, 
+					(double)scalarTime / POINTS / centroids, (double)kernelTime / POINTS / centroids, (double)scalarTime / kernelTime));
+		}
+		
+	}
+	
+	
+	// Time the nearest centroid scan of POINTS points, returns the time taken in nanoseconds
+	private static long run(DistanceKernel kernel, double[] points, double[] centers, int dimension, int centroids){
+		
+		long start = System.nanoTime();
+		
+		int checksum = 0;
+		for (int p = 0; p < POINTS; p++){
+			
+			int pointOffset = (p & 1023) * dimension;
+			int nearest = -1;
+			double minDistance = Double.MAX_VALUE;
+			
+			for (int c = 0; c < centroids; c++){
+				double distance = kernel.squaredDistance(points, pointOffset, centers, c * dimension, dimension);
+				if (distance < minDistance){
+					minDistance = distance;
+					nearest = c;
+				}
+			}
+			
+			checksum += nearest;
+		}
+		
+		long time = System.nanoTime() - start;
+		
+		// keep the scan from being optimised away
+		if (checksum == -1) System.out.println(checksum);
+		
+		return time;
+	}
+	
+}
@@ -1,5 +1,7 @@
 package net.melissam.powerlog.utils;
 
+import net.melissam.powerlog.clustering.DistanceKernels;
+
 public class MathUtils {
 
 	// The inverse error function of x
@@ -42,14 +44,6 @@ public class MathUtils {
 	 * @return The distance between the 2 points.
 	 */
 	public static double calculateDistance(double[] p1, double[] p2){
-		
-		double distance = 0.0;
-		for (int i = 0; i < p1.length; i++) {
-			double d = p1[i] - p2[i];
-			distance += d * d;
-		}
-		
-		return Math.sqrt(distance);
-		
+		return DistanceKernels.distance(p1, p2);
 	}
 }
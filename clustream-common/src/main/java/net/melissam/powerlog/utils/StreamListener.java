@@ -1,9 +1,41 @@
 package net.melissam.powerlog.utils;
 
 import net.melissam.powerlog.clustering.FeatureVector;
+import net.melissam.powerlog.clustering.PlacementAction;
 
+/**
+ * Receives the points of a stream as the learner takes them in and places them in micro-clusters.
+ * 
+ * @author melissam
+ *
+ */
 public interface StreamListener {
 
+	/**
+	 * A point has been given to the learner.
+	 * 
+	 * @param featureVector The point.
+	 */
 	void onItemReceived(FeatureVector featureVector);
 	
+	/**
+	 * A point has been placed in a micro-cluster. 
+	 * 
+	 * @param featureVector	The point.
+	 * @param clusterId		The id of the micro-cluster the point is now part of.
+	 * @param action		How the point was placed.
+	 * @param distance		The distance of the point from the closest micro-cluster when it was placed, or from the 
+	 * 						center of its initial micro-cluster for {@link PlacementAction#NEW}.
+	 */
+	void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance);
+	
+	/**
+	 * A micro-cluster which was no longer relevant has been deleted, either to make room for a point placed with 
+	 * {@link PlacementAction#EVICTED} or by a sweep of all such micro-clusters, whose room is then taken by points 
+	 * placed with {@link PlacementAction#NEW}.
+	 * 
+	 * @param clusterId	The id of the deleted micro-cluster.
+	 */
+	void onClusterEvicted(int clusterId);
+	
 }
@@ -0,0 +1,41 @@
+package net.melissam.powerlog.clustering;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernel using the Vector API, which compiles to SIMD instructions of the widest width the CPU supports.
+ * Only built on Java 17 or later, into the META-INF/versions/17 part of the jar.
+ * 
+ * @author melissam
+ *
+ */
+class VectorDistanceKernel implements DistanceKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public double squaredDistance(double[] p1, int offset1, double[] p2, int offset2, int length) {
+
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()){
+			DoubleVector d = DoubleVector.fromArray(SPECIES, p1, offset1 + i).sub(DoubleVector.fromArray(SPECIES, p2, offset2 + i));
+			sum = d.fma(d, sum);
+		}
+
+		double distance = sum.reduceLanes(VectorOperators.ADD);
+
+		// the dimensions left over
+		for (; i < length; i++){
+			double d = p1[offset1 + i] - p2[offset2 + i];
+			distance += d * d;
+		}
+
+		return distance;
+	}
+
+}
@@ -0,0 +1,176 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the nearest neighbour distances and the closest pair kept by the {@link ClosestPairTracker} are those
+ * found by comparing every micro-cluster against every other one, as micro-clusters are added, moved, merged and
+ * removed. With a {@link NSWNearestClusterSearch} the nearest neighbours are approximate, so they are checked to be
+ * actual micro-clusters no closer than the true nearest neighbour, and mostly to be the true nearest neighbour.
+ *
+ * @author melissam
+ *
+ */
+public class ClosestPairTrackerTest {
+
+	private static final int DIMENSION = 5;
+	private static final int OPERATIONS = 2000;
+
+	/** Share of the nearest neighbours found in the graph which must be the true nearest neighbour. */
+	private static final double MIN_RECALL = 0.9;
+
+
+	@Test
+	public void trackerAgreesWithAFullSearch(){
+		run(null);
+	}
+
+
+	@Test
+	public void trackerOnAGraphFindsActualNeighbours(){
+
+		double recall = run(new NSWNearestClusterSearch(NSWNearestClusterSearch.DEFAULT_CONNECTIONS, NSWNearestClusterSearch.DEFAULT_SEARCH_WIDTH, 0));
+		assertTrue("Only " + recall + " of the nearest neighbours found in the graph were the true ones", recall >= MIN_RECALL);
+
+	}
+
+
+	// Apply random changes, telling the graph if any before the tracker as CluStream does; returns the share of exact distances
+	private double run(NSWNearestClusterSearch search){
+
+		Random random = new Random(7);
+
+		ClosestPairTracker tracker = new ClosestPairTracker(search);
+		List<MicroCluster> clusters = new ArrayList<MicroCluster>();
+		long exact = 0;
+		long checked = 0;
+
+		assertFalse(tracker.findClosestPair());
+
+		int ids = 0;
+		for (int operation = 0; operation < OPERATIONS; operation++){
+
+			int choice = random.nextInt(10);
+
+			if (clusters.size() < 2 || choice < 4){
+
+				MicroCluster cluster = new MicroCluster(++ids, point(random), operation, 100, 8);
+				clusters.add(cluster);
+				if (search != null) search.add(cluster);
+				tracker.add(cluster);
+
+			}else if (choice < 8){
+
+				MicroCluster cluster = clusters.get(random.nextInt(clusters.size()));
+				cluster.addFeatureVector(new FeatureVector(operation, point(random)));
+				if (search != null) search.update(cluster);
+				tracker.update(cluster);
+
+			}else if (choice < 9){
+
+				assertTrue(tracker.findClosestPair());
+				MicroCluster merged = tracker.getFirst();
+				MicroCluster other = tracker.getSecond();
+				merged.merge(other);
+				if (search != null) search.update(merged);
+				tracker.update(merged);
+				if (search != null) search.remove(other);
+				tracker.remove(other);
+				clusters.remove(other);
+
+			}else{
+
+				MicroCluster cluster = clusters.remove(random.nextInt(clusters.size()));
+				if (search != null) search.remove(cluster);
+				tracker.remove(cluster);
+			}
+
+			if (search == null){
+				assertAgrees(tracker, clusters);
+			}else{
+				exact += assertActual(tracker, clusters);
+				checked += clusters.size();
+			}
+		}
+
+		return (double)exact / checked;
+
+	}
+
+
+	// Compare the tracker with a full search over the micro-clusters
+	private static void assertAgrees(ClosestPairTracker tracker, List<MicroCluster> clusters){
+
+		double closest = Double.MAX_VALUE;
+
+		for (MicroCluster cluster : clusters){
+
+			double nearest = Double.MAX_VALUE;
+			for (MicroCluster other : clusters){
+				if (other != cluster) nearest = Math.min(nearest, DistanceKernels.distance(cluster.getCenter(), other.getCenter()));
+			}
+
+			assertEquals(nearest, tracker.getNearestDistance(cluster), 1e-9);
+			closest = Math.min(closest, nearest);
+		}
+
+		if (clusters.size() < 2){
+			assertFalse(tracker.findClosestPair());
+		}else{
+			assertTrue(tracker.findClosestPair());
+			assertEquals(closest, tracker.getDistance(), 1e-9);
+			assertEquals(tracker.getDistance(), DistanceKernels.distance(tracker.getFirst().getCenter(), tracker.getSecond().getCenter()), 1e-9);
+		}
+
+	}
+
+
+	// Check the tracker finds actual micro-clusters no closer than the true nearest ones; returns how many are the true ones
+	private static int assertActual(ClosestPairTracker tracker, List<MicroCluster> clusters){
+
+		int exact = 0;
+		for (MicroCluster cluster : clusters){
+
+			double nearest = Double.MAX_VALUE;
+			boolean actual = clusters.size() < 2;
+			double tracked = tracker.getNearestDistance(cluster);
+			for (MicroCluster other : clusters){
+				if (other == cluster) continue;
+				double d = DistanceKernels.distance(cluster.getCenter(), other.getCenter());
+				nearest = Math.min(nearest, d);
+				actual |= Math.abs(d - tracked) < 1e-9;
+			}
+
+			assertTrue("The nearest neighbour distance is not that of a micro-cluster", actual);
+			assertTrue("The nearest neighbour is closer than the true one", tracked >= nearest - 1e-9);
+			if (Math.abs(tracked - nearest) < 1e-9) exact++;
+		}
+
+		if (clusters.size() >= 2){
+			assertTrue(tracker.findClosestPair());
+			assertTrue(clusters.contains(tracker.getFirst()) && clusters.contains(tracker.getSecond()));
+			assertEquals(tracker.getDistance(), DistanceKernels.distance(tracker.getFirst().getCenter(), tracker.getSecond().getCenter()), 1e-9);
+		}
+
+		return exact;
+	}
+
+
+	private static double[] point(Random random){
+
+		double[] point = new double[DIMENSION];
+		for (int i = 0; i < DIMENSION; i++){
+			point[i] = random.nextGaussian() * 10;
+		}
+		return point;
+	}
+
+}
@@ -0,0 +1,187 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+import org.junit.Test;
+
+/**
+ * Checks that once CluStream is initialised, absorbing a point into an existing micro-cluster does not allocate.
+ *
+ * The bytes allocated by the thread are read with the HotSpot ThreadMXBean around each call to
+ * {@link CluStream#cluster(FeatureVector)}, after enough points to initialise the model and let the JIT compile the
+ * hot path. Calls which change the shape of the model are not counted. The points are built in each of the ways a
+ * feature vector can be built, which must not make reading them allocate.
+ *
+ * @author melissam
+ *
+ */
+public class CluStreamAllocationTest {
+
+	private static final int DIMENSION = 34;
+	private static final int CENTERS = 20;
+	private static final int WARM_UP = 60000;
+	private static final int MEASURED = 40000;
+
+	/** Average bytes allocated per absorbed point allowed, for the odd allocation by the JVM itself. */
+	private static final double MAX_BYTES_PER_POINT = 1.0;
+
+
+	/** The ways a feature vector can be built. */
+	private enum Construction {
+
+		/** From an array of values. */
+		ARRAY,
+
+		/** For a dimension, then adding the values one at a time. */
+		SIZED,
+
+		/** Without a dimension, adding the values one at a time and then freezing it. */
+		GROWN
+	}
+
+
+	@Test
+	public void absorbingAPointDoesNotAllocateWithLinearSearch(){
+		assertAbsorbingDoesNotAllocate(NearestClusterSearchType.LINEAR, Construction.SIZED);
+	}
+
+
+	@Test
+	public void absorbingAPointDoesNotAllocateWithVPTreeSearch(){
+		assertAbsorbingDoesNotAllocate(NearestClusterSearchType.VPTREE, Construction.SIZED);
+	}
+
+
+	@Test
+	public void absorbingAPointBuiltFromAnArrayDoesNotAllocate(){
+		assertAbsorbingDoesNotAllocate(NearestClusterSearchType.LINEAR, Construction.ARRAY);
+	}
+
+
+	@Test
+	public void absorbingAPointBuiltByAddingValuesDoesNotAllocate(){
+		assertAbsorbingDoesNotAllocate(NearestClusterSearchType.LINEAR, Construction.GROWN);
+	}
+
+
+	private void assertAbsorbingDoesNotAllocate(NearestClusterSearchType searchType, Construction construction){
+
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		FeatureVector[] featureVectors = createFeatureVectors(WARM_UP + MEASURED, construction);
+
+		CluStream clustream = new CluStream(100, 8, 100000, 1000);
+		clustream.setNearestClusterSearchType(searchType);
+
+		AbsorptionListener listener = new AbsorptionListener();
+		clustream.setStreamListener(listener);
+
+		for (int i = 0; i < WARM_UP; i++){
+			clustream.cluster(featureVectors[i]);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocated = 0;
+		int absorbed = 0;
+
+		for (int i = WARM_UP; i < featureVectors.length; i++){
+
+			listener.absorbed = false;
+
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			clustream.cluster(featureVectors[i]);
+			long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+			if (listener.absorbed){
+				allocated += after - before;
+				absorbed++;
+			}
+		}
+
+		assertTrue("Too few points absorbed to measure, absorbed=" + absorbed, absorbed > MEASURED / 2);
+
+		double bytesPerPoint = (double)allocated / absorbed;
+		assertTrue("Absorbing a point allocated " + bytesPerPoint + " bytes on average with " + searchType + " search and "
+				+ construction + " points",
+				bytesPerPoint < MAX_BYTES_PER_POINT);
+
+	}
+
+
+	// Points around a few fixed centers
+	private static FeatureVector[] createFeatureVectors(int count, Construction construction){
+
+		Random random = new Random(3);
+
+		double[][] centers = new double[CENTERS][DIMENSION];
+		for (double[] center : centers){
+			for (int i = 0; i < DIMENSION; i++){
+				center[i] = random.nextGaussian() * 10;
+			}
+		}
+
+		FeatureVector[] featureVectors = new FeatureVector[count];
+		for (int n = 0; n < count; n++){
+
+			double[] center = centers[n % CENTERS];
+			double[] values = new double[DIMENSION];
+			for (int i = 0; i < DIMENSION; i++){
+				values[i] = center[i] + random.nextGaussian() * 0.5;
+			}
+
+			FeatureVector featureVector;
+			switch (construction){
+			case ARRAY:
+				featureVector = new FeatureVector(n, values);
+				break;
+			case SIZED:
+				featureVector = new FeatureVector(n, DIMENSION);
+				for (double value : values){
+					featureVector.add(value);
+				}
+				break;
+			default:
+				featureVector = new FeatureVector(n);
+				for (double value : values){
+					featureVector.add(value);
+				}
+				featureVector.freeze();
+			}
+
+			featureVector.setGroundTruthLabel("normal.");
+			featureVectors[n] = featureVector;
+		}
+
+		return featureVectors;
+	}
+
+
+	// Records whether the last point was absorbed by an existing micro-cluster
+	private static class AbsorptionListener implements StreamListener {
+
+		private boolean absorbed;
+
+		@Override
+		public void onItemReceived(FeatureVector featureVector){
+		}
+
+		@Override
+		public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
+			if (action == PlacementAction.ABSORBED) absorbed = true;
+		}
+
+		@Override
+		public void onClusterEvicted(int clusterId){
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+import org.junit.Test;
+
+/**
+ * Checks that clustering points in batches places them exactly where clustering them one at a time does, with the
+ * centroids kept in either precision.
+ *
+ * The points drift between a few centers so that micro-clusters are created, absorb points, are deleted and are
+ * merged while the batches are placed, and the batches span several blocks of the distance matrix and several sorts
+ * of the dimension order. The points are on a grid, so that which of two equally close micro-clusters is taken is
+ * checked too.
+ *
+ * @author melissam
+ *
+ */
+public class CluStreamBatchTest {
+
+	private static final int DIMENSION = 12;
+	private static final int CENTERS = 8;
+	private static final int POINTS = 12000;
+	private static final int BATCH_SIZE = 2500;
+
+
+	@Test
+	public void batchPlacementsMatchSinglePlacementsInDoublePrecision(){
+		assertBatchMatchesSingle(StoragePrecision.DOUBLE);
+	}
+
+
+	@Test
+	public void batchPlacementsMatchSinglePlacementsInSinglePrecision(){
+		assertBatchMatchesSingle(StoragePrecision.FLOAT);
+	}
+
+
+	private void assertBatchMatchesSingle(StoragePrecision precision){
+
+		double[][] points = createPoints();
+
+		PlacementListener single = new PlacementListener();
+		CluStream singleClustream = createCluStream(precision, single);
+		for (int n = 0; n < points.length; n++){
+			singleClustream.cluster(new FeatureVector(n, points[n].clone()));
+		}
+
+		PlacementListener batch = new PlacementListener();
+		CluStream batchClustream = createCluStream(precision, batch);
+		for (int from = 0; from < points.length; from += BATCH_SIZE){
+			List<FeatureVector> featureVectors = new ArrayList<FeatureVector>();
+			for (int n = from; n < Math.min(from + BATCH_SIZE, points.length); n++){
+				featureVectors.add(new FeatureVector(n, points[n].clone()));
+			}
+			batchClustream.clusterBatch(featureVectors);
+		}
+
+		assertEquals(POINTS, single.placements.size());
+		for (int n = 0; n < POINTS; n++){
+			assertEquals("Point " + n + " was placed differently in a batch with " + precision + " precision", single.placements.get(n), batch.placements.get(n));
+		}
+
+	}
+
+
+	private static CluStream createCluStream(StoragePrecision precision, StreamListener listener){
+
+		CluStream clustream = new CluStream(40, 2, 1500, 1000);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		clustream.setSeedRadius(1.0);
+		clustream.setStoragePrecision(precision);
+		clustream.setStreamListener(listener);
+		return clustream;
+	}
+
+
+	// Points on a grid around centers which move a little at a time, so that micro-clusters are often equally close
+	private static double[][] createPoints(){
+
+		Random random = new Random(11);
+
+		double[][] centers = new double[CENTERS][DIMENSION];
+		for (double[] center : centers){
+			for (int i = 0; i < DIMENSION; i++){
+				center[i] = random.nextGaussian() * 10;
+			}
+		}
+
+		double[][] points = new double[POINTS][DIMENSION];
+		for (int n = 0; n < POINTS; n++){
+
+			double[] center = centers[random.nextInt(CENTERS)];
+			for (int i = 0; i < DIMENSION; i++){
+				center[i] += random.nextGaussian() * 0.05;
+				points[n][i] = Math.rint(center[i] + random.nextGaussian() * (i + 1) * 0.3);
+			}
+		}
+
+		return points;
+	}
+
+
+	// Records the micro-cluster and action of each placement, in order
+	private static class PlacementListener implements StreamListener {
+
+		private final List<String> placements = new ArrayList<String>();
+
+		@Override
+		public void onItemReceived(FeatureVector featureVector){
+		}
+
+		@Override
+		public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
+			placements.add(clusterId + " " + action + " " + distance);
+		}
+
+		@Override
+		public void onClusterEvicted(int clusterId){
+		}
+	}
+
+}
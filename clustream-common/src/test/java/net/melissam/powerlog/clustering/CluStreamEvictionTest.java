@@ -0,0 +1,99 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+import org.junit.Test;
+
+/**
+ * Checks that the micro-clusters deleted because they are no longer relevant are reported to the stream listener,
+ * and that the points starting new micro-clusters are reported with the right action, whether micro-clusters are
+ * evicted one at a time or by sweeps. The number of micro-clusters must always be the number of points which started
+ * one, less the micro-clusters reported evicted; merges delete one micro-cluster for the one they start.
+ *
+ * @author melissam
+ *
+ */
+public class CluStreamEvictionTest {
+
+	private static final int DIMENSION = 4;
+	private static final int POINTS = 20000;
+	private static final int RELEVANCE_THRESHOLD = 500;
+
+
+	@Test
+	public void evictionsOneAtATimeAreReported(){
+
+		EventListener listener = run(0);
+
+		assertTrue("No micro-cluster was evicted", listener.evicted > 0);
+		assertEquals(listener.evicted, listener.placedEvicted);
+
+	}
+
+
+	@Test
+	public void evictionsBySweepsAreReported(){
+
+		EventListener listener = run(200);
+
+		assertTrue("No micro-cluster was evicted", listener.evicted > 0);
+		assertEquals("Points taking the room left by a sweep must be reported as new", 0, listener.placedEvicted);
+
+	}
+
+
+	private EventListener run(int evictionInterval){
+
+		Random random = new Random(13);
+
+		EventListener listener = new EventListener();
+		CluStream clustream = new CluStream(30, 2, RELEVANCE_THRESHOLD, 1000);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		clustream.setEvictionInterval(evictionInterval);
+		clustream.setStreamListener(listener);
+
+		// the points move steadily away, leaving the micro-clusters behind them no longer relevant
+		for (int n = 0; n < POINTS; n++){
+
+			double[] point = new double[DIMENSION];
+			for (int i = 0; i < DIMENSION; i++){
+				point[i] = n * 0.01 + random.nextGaussian();
+			}
+			clustream.cluster(new FeatureVector(n, point));
+
+			assertEquals(listener.placedNew + listener.placedEvicted - listener.evicted, clustream.getClusters().size());
+		}
+
+		return listener;
+	}
+
+
+	// Counts the new micro-clusters and the evicted ones
+	private static class EventListener implements StreamListener {
+
+		private int placedNew;
+		private int placedEvicted;
+		private int evicted;
+
+		@Override
+		public void onItemReceived(FeatureVector featureVector){
+		}
+
+		@Override
+		public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
+			if (action == PlacementAction.NEW) placedNew++;
+			else if (action == PlacementAction.EVICTED) placedEvicted++;
+		}
+
+		@Override
+		public void onClusterEvicted(int clusterId){
+			evicted++;
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.melissam.powerlog.utils.StreamListener;
+
+import org.junit.Test;
+
+/**
+ * Checks that decaying a micro-cluster leaves its centroid as it is but moves its relevance stamp, and that
+ * CluStream keeps the relevance stamps of decaying micro-clusters current, so that the micro-cluster it evicts is
+ * always the one with the eldest relevance stamp.
+ *
+ * @author melissam
+ *
+ */
+public class DecayingMicroClusterTest {
+
+	private static final double DECAY_RATE = 0.01;
+
+
+	@Test
+	public void decayMovesTheRelevanceStamp(){
+
+		// m = 4, so the stamp is taken at a quantile from a weight of 8 on
+		DecayingMicroCluster cluster = new DecayingMicroCluster(1, new double[]{0, 0}, 1, 2, 4, DECAY_RATE);
+		for (int n = 2; n <= 40; n++){
+			FeatureVector featureVector = new FeatureVector(n, new double[]{n % 3, n % 5});
+			featureVector.setTimestamp(n);
+			cluster.addFeatureVector(featureVector);
+		}
+
+		double[] center = cluster.getCenter().clone();
+		double stamp = cluster.getAverageTimestamp();
+		assertTrue(cluster.getSize() >= 8);
+
+		// the weight falls, but stays above 2m, so the quantile the stamp is taken at grows
+		cluster.decayTo(80);
+		assertTrue(cluster.getSize() >= 8);
+		assertArrayEquals(center, cluster.getCenter(), 1e-9);
+		assertTrue("Decay did not move the relevance stamp", cluster.getAverageTimestamp() > stamp);
+
+		// the weight falls below 2m, so the stamp is the mean timestamp
+		cluster.decayTo(400);
+		assertTrue(cluster.getSize() < 8);
+		assertEquals(cluster.getSumOfTimestamps() / cluster.getSize(), cluster.getAverageTimestamp(), 1e-9);
+
+	}
+
+
+	@Test
+	public void evictionsTakeTheEldestDecayedStamp(){
+
+		Random random = new Random(17);
+
+		final Map<Integer, Double> stamps = new HashMap<Integer, Double>();
+		final int[] evicted = new int[1];
+
+		CluStream clustream = new CluStream(30, 2, 300, 1000);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		clustream.setDecayRate(DECAY_RATE);
+		clustream.setStreamListener(new StreamListener(){
+
+			@Override
+			public void onItemReceived(FeatureVector featureVector){
+			}
+
+			@Override
+			public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
+			}
+
+			// the evicted micro-cluster must have had the eldest relevance stamp before the point arrived
+			@Override
+			public void onClusterEvicted(int clusterId){
+
+				double eldest = Double.MAX_VALUE;
+				for (double stamp : stamps.values()){
+					eldest = Math.min(eldest, stamp);
+				}
+				assertEquals("Micro-cluster " + clusterId + " was evicted ahead of an elder one", eldest, stamps.get(clusterId), 0);
+				evicted[0]++;
+			}
+		});
+
+		// points around a few centers which move steadily away, some of them rarely visited
+		double[][] centers = new double[12][3];
+		for (double[] center : centers){
+			for (int i = 0; i < center.length; i++){
+				center[i] = random.nextGaussian() * 10;
+			}
+		}
+
+		for (int n = 0; n < 20000; n++){
+
+			stamps.clear();
+			for (MicroCluster cluster : clustream.getClusters()){
+				stamps.put(cluster.getId(), cluster.getAverageTimestamp());
+			}
+
+			double[] center = centers[(int)(centers.length * Math.pow(random.nextDouble(), 3))];
+			double[] point = new double[center.length];
+			for (int i = 0; i < center.length; i++){
+				center[i] += 0.01;
+				point[i] = center[i] + random.nextGaussian();
+			}
+			clustream.cluster(new FeatureVector(n, point));
+		}
+
+		assertTrue("No micro-cluster was evicted", evicted[0] > 0);
+
+	}
+
+}
@@ -0,0 +1,236 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.melissam.powerlog.messaging.MicroClusterMessage;
+
+import org.junit.Test;
+
+/**
+ * Checks that micro-clusters are read back as they were serialised, including those serialised before the lineage and
+ * the label counts replaced the list of ids and the set of labels, that a bounded lineage keeps the id of the
+ * micro-cluster first, and that a micro-cluster without a lineage is rejected. Micro-clusters of a model keeping its
+ * centroids in single precision must be sent in half the space, and read back within the single precision bound.
+ *
+ * @author melissam
+ *
+ */
+public class MicroClusterSerializationTest {
+
+	/**
+	 * Micro-cluster serialised with the list of ids and the set of labels: micro-cluster 7 at (1, 2, 3) with a point
+	 * (2, 2, 4) labelled "normal." at 11, merged with micro-cluster 9 at (0, 1, 3) with a point (1, 1, 2) labelled
+	 * "smurf." at 13.
+	 */
+	private static final String ID_LIST_FORM = "micro-cluster-v1.ser";
+
+	/** Dimension of the models sent in messages. */
+	private static final int DIMENSION = 64;
+
+
+	@Test
+	public void microClusterIsReadBack() throws Exception {
+
+		MicroCluster cluster = createCluster(7, 10, "normal.");
+		cluster.merge(createCluster(9, 12, "smurf."));
+
+		MicroCluster read = roundTrip(cluster);
+
+		assertEquals(Integer.valueOf(7), read.getId());
+		assertEquals(Arrays.asList(7, 9), read.getIdList());
+		assertEquals(1, read.getLabelCount("normal."));
+		assertEquals(1, read.getLabelCount("smurf."));
+		assertEquals(cluster.getSize(), read.getSize(), 0);
+		assertArrayEquals(cluster.getCenter(), read.getCenter(), 0);
+		assertEquals(cluster.getAverageTimestamp(), read.getAverageTimestamp(), 0);
+
+	}
+
+
+	@Test
+	public void microClusterWithTheIdListIsReadBack() throws Exception {
+
+		MicroCluster read;
+		InputStream resource = getClass().getResourceAsStream(ID_LIST_FORM);
+		try{
+			read = (MicroCluster)new ObjectInputStream(resource).readObject();
+		}finally{
+			resource.close();
+		}
+
+		assertEquals(Integer.valueOf(7), read.getId());
+		assertEquals(Arrays.asList(7, 9), read.getIdList());
+		assertEquals(new HashSet<String>(Arrays.asList("normal.", "smurf.")), read.getGroundTruthLabels());
+		assertEquals(1, read.getLabelCount("normal."));
+		assertEquals(4, read.getSize(), 0);
+		assertArrayEquals(new double[]{1, 1.5, 3}, read.getCenter(), 1e-12);
+		assertEquals(11.5, read.getAverageTimestamp(), 1e-12);
+
+		// it keeps working as a micro-cluster read in the current form
+		read.merge(createCluster(12, 14, "normal."));
+		assertEquals(Arrays.asList(7, 9, 12), read.getIdList());
+		assertEquals(2, read.getLabelCount("normal."));
+		assertEquals(Arrays.asList(7, 9, 12), roundTrip(read).getIdList());
+
+	}
+
+
+	@Test
+	public void boundedLineageKeepsTheIdFirst() throws Exception {
+
+		MicroCluster cluster = createCluster(50, 10, "normal.");
+		for (int id = 1; id <= 20; id++){
+			cluster.merge(createCluster(id, 10 + id, "normal."));
+			cluster.boundLineage(3, null);
+		}
+
+		MicroCluster read = roundTrip(cluster);
+
+		assertEquals(Integer.valueOf(50), read.getId());
+		assertEquals(Arrays.asList(50, 19, 20), read.getIdList());
+		assertEquals(18, read.getLineage().getSpilled());
+
+	}
+
+
+	@Test(expected = InvalidObjectException.class)
+	public void microClusterWithoutALineageIsRejected() throws Exception {
+
+		MicroCluster cluster = createCluster(7, 10, "normal.");
+		Field lineage = MicroCluster.class.getDeclaredField("lineage");
+		lineage.setAccessible(true);
+		lineage.set(cluster, null);
+
+		roundTrip(cluster);
+
+	}
+
+
+	@Test
+	public void singlePrecisionMessageIsHalfTheSize() throws Exception {
+
+		int doubleSize = serialise(message(createModel(StoragePrecision.DOUBLE))).length;
+		int floatSize = serialise(message(createModel(StoragePrecision.FLOAT))).length;
+
+		assertTrue("The message took " + floatSize + " bytes in single precision against " + doubleSize, floatSize < doubleSize * 0.6);
+
+	}
+
+
+	@Test
+	public void singlePrecisionMicroClustersAreReadBackWithinTheBound() throws Exception {
+
+		List<MicroCluster> clusters = createModel(StoragePrecision.FLOAT);
+		byte[] bytes = serialise(message(clusters));
+		List<MicroCluster> read = ((MicroClusterMessage)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject()).getMicroClusters();
+
+		assertEquals(clusters.size(), read.size());
+		for (int c = 0; c < clusters.size(); c++){
+
+			MicroCluster cluster = clusters.get(c);
+			MicroCluster readCluster = read.get(c);
+
+			assertEquals(DecayingMicroCluster.class, readCluster.getClass());
+			assertEquals(((DecayingMicroCluster)cluster).getLastUpdate(), ((DecayingMicroCluster)readCluster).getLastUpdate());
+			assertEquals(cluster.getIdList(), readCluster.getIdList());
+			assertEquals(cluster.getSize(), readCluster.getSize(), 0);
+			assertEquals(cluster.getSumOfTimestamps(), readCluster.getSumOfTimestamps(), 0);
+
+			// each coordinate is rounded once to a float, and rebuilt with a few double roundings
+			for (int i = 0; i < DIMENSION; i++){
+				double center = cluster.getCenter()[i];
+				assertEquals(center, readCluster.getCenter()[i], Math.abs(center) * (Math.scalb(1.0, -24) + Math.scalb(1.0, -48)));
+			}
+			// the variance is within 2^-24 times itself, less the cancellation in taking it back from the rebuilt CF2x
+			assertEquals(cluster.getDeviation(), readCluster.getDeviation(), cluster.getDeviation() * 1e-6 + Math.scalb(200.0, -26));
+		}
+
+		// micro-clusters read in single precision are sent on in single precision
+		assertEquals(bytes.length, serialise(message(read)).length);
+
+	}
+
+
+	// The micro-clusters of a decaying model far from the origin, one for each center, so that their lineages stay
+	// short and the centroids make up most of a message
+	private static List<MicroCluster> createModel(StoragePrecision precision){
+
+		Random random = new Random(19);
+
+		CluStream clustream = new CluStream(100, 2, Integer.MAX_VALUE, 1000);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		clustream.setSeedRadius(20);
+		clustream.setDecayRate(0.0001);
+		clustream.setStoragePrecision(precision);
+
+		double[][] centers = new double[80][DIMENSION];
+		for (double[] center : centers){
+			for (int i = 0; i < DIMENSION; i++){
+				center[i] = 100 + random.nextGaussian() * 10;
+			}
+		}
+
+		for (int n = 0; n < 20000; n++){
+			double[] center = centers[random.nextInt(centers.length)];
+			double[] point = new double[DIMENSION];
+			for (int i = 0; i < DIMENSION; i++){
+				point[i] = center[i] + random.nextGaussian();
+			}
+			clustream.cluster(new FeatureVector(n, point));
+		}
+
+		return clustream.snapshot();
+	}
+
+
+	private static MicroClusterMessage message(List<MicroCluster> clusters){
+		MicroClusterMessage message = new MicroClusterMessage(1, 1);
+		message.setMicroClusters(new ArrayList<MicroCluster>(clusters));
+		return message;
+	}
+
+
+	private static byte[] serialise(Object object) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+
+	private static MicroCluster createCluster(int id, long timestamp, String label){
+
+		MicroCluster cluster = new MicroCluster(id, new double[]{id, id + 1, id + 2}, timestamp, 2, 100);
+		FeatureVector featureVector = new FeatureVector(id, new double[]{id + 1, id, id + 2});
+		featureVector.setTimestamp(timestamp + 1);
+		featureVector.setGroundTruthLabel(label);
+		cluster.addFeatureVector(featureVector);
+		return cluster;
+	}
+
+
+	private static MicroCluster roundTrip(MicroCluster cluster) throws IOException, ClassNotFoundException {
+
+		return (MicroCluster)new ObjectInputStream(new ByteArrayInputStream(serialise(cluster))).readObject();
+	}
+
+}
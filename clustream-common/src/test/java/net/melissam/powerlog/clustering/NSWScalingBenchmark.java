@@ -0,0 +1,79 @@
+package net.melissam.powerlog.clustering;
+
+import java.util.Random;
+
+/**
+ * Measures the time CluStream takes per point with the {@link NSWNearestClusterSearch} as the number of micro-clusters
+ * grows, to show that the cost per point grows sublinearly with it: neither the nearest micro-cluster search nor the
+ * {@link ClosestPairTracker} scans the micro-clusters.
+ *
+ * The points are spread at random so that most of them start a new micro-cluster, which makes the two closest
+ * micro-clusters merge. The model is filled first, then the time per point is measured for each number of
+ * micro-clusters given on the command line (12500, 25000 and 50000 by default) and compared with the smallest one.
+ *
+ * This is not run by the build; run it with the test classpath, e.g. from clustream-common:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=net.melissam.powerlog.clustering.NSWScalingBenchmark -Dexec.classpathScope=test
+ * </pre>
+ *
+ * @author melissam
+ *
+ */
+public class NSWScalingBenchmark {
+
+	private static final int DIMENSION = 10;
+	private static final int MEASURED = 20000;
+
+
+	public static void main(String[] args){
+
+		int[] sizes = args.length > 0 ? new int[args.length] : new int[]{12500, 25000, 50000};
+		for (int i = 0; i < args.length; i++){
+			sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		double first = 0;
+		for (int maxClusters : sizes){
+
+			double micros = microsPerPoint(maxClusters);
+			if (first == 0) first = micros;
+
+			System.out.println(String.format("%d micro-clusters: %.1f us per point, %.2f times the first for %.2f times the micro-clusters",
+					maxClusters, micros, micros / first, (double)maxClusters / sizes[0]));
+		}
+
+	}
+
+
+	private static double microsPerPoint(int maxClusters){
+
+		Random random = new Random(5);
+
+		CluStream clustream = new CluStream(maxClusters, 2, Integer.MAX_VALUE, 1000);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		clustream.setNearestClusterSearchType(NearestClusterSearchType.NSW);
+
+		// fill the model, and a little more so the merges are under way
+		int filling = maxClusters + maxClusters / 10;
+		FeatureVector[] featureVectors = new FeatureVector[filling + MEASURED];
+		for (int n = 0; n < featureVectors.length; n++){
+			double[] values = new double[DIMENSION];
+			for (int i = 0; i < DIMENSION; i++){
+				values[i] = random.nextGaussian() * 10;
+			}
+			featureVectors[n] = new FeatureVector(n, values);
+		}
+
+		for (int n = 0; n < filling; n++){
+			clustream.cluster(featureVectors[n]);
+		}
+
+		long start = System.nanoTime();
+		for (int n = filling; n < featureVectors.length; n++){
+			clustream.cluster(featureVectors[n]);
+		}
+		return (System.nanoTime() - start) / 1000.0 / MEASURED;
+
+	}
+
+}
@@ -0,0 +1,107 @@
+package net.melissam.powerlog.clustering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that reconciling the shards of a {@link ShardedCluStream} applies the merges to the shards, so that they hold
+ * the reconciled model between them rather than drifting apart from it: every reconciled micro-cluster is in the shard
+ * its id came from, with the same cluster features, and no point is lost or counted twice.
+ *
+ * @author melissam
+ *
+ */
+public class ShardedCluStreamTest {
+
+	private static final int SHARDS = 4;
+	private static final int MAX_CLUSTERS = 20;
+	private static final int DIMENSION = 6;
+	private static final int BATCHES = 30;
+	private static final int BATCH_SIZE = 400;
+
+
+	@Test
+	public void shardsHoldTheReconciledModel(){
+
+		Random random = new Random(3);
+
+		// micro-clusters are never too old to keep, and are seeded from the points, so every point is counted once
+		ShardedCluStream clustream = new ShardedCluStream(SHARDS, MAX_CLUSTERS, 2, Integer.MAX_VALUE, 200);
+		clustream.setInitialisationType(InitialisationType.ONLINE);
+		try{
+
+			double[][] centers = new double[MAX_CLUSTERS * 2][DIMENSION];
+			for (double[] center : centers){
+				for (int i = 0; i < DIMENSION; i++){
+					center[i] = random.nextGaussian() * 20;
+				}
+			}
+
+			int points = 0;
+			for (int batch = 0; batch < BATCHES; batch++){
+
+				List<FeatureVector> featureVectors = new ArrayList<FeatureVector>(BATCH_SIZE);
+				for (int n = 0; n < BATCH_SIZE; n++){
+
+					double[] center = centers[random.nextInt(centers.length)];
+					double[] values = new double[DIMENSION];
+					for (int i = 0; i < DIMENSION; i++){
+						center[i] += random.nextGaussian() * 0.1;
+						values[i] = center[i] + random.nextGaussian();
+					}
+					featureVectors.add(new FeatureVector(points++, values));
+				}
+				clustream.clusterBatch(featureVectors);
+				clustream.reconcile();
+
+				assertShardsHold(clustream, clustream.getClusters(), points);
+			}
+
+		}finally{
+			clustream.shutdown();
+		}
+
+	}
+
+
+	// Check the shards hold the reconciled micro-clusters, each in the shard its id came from, and all the points
+	private static void assertShardsHold(ShardedCluStream clustream, List<MicroCluster> reconciled, int points){
+
+		assertTrue(reconciled.size() <= MAX_CLUSTERS);
+
+		Map<Integer, MicroCluster> live = new HashMap<Integer, MicroCluster>();
+		for (int s = 0; s < SHARDS; s++){
+			for (MicroCluster cluster : clustream.getShardClusters(s)){
+				assertEquals("Micro-cluster " + cluster.getId() + " is not in the shard its id came from", s, (cluster.getId() - 1) % SHARDS);
+				assertEquals("Micro-cluster " + cluster.getId() + " is in two shards", null, live.put(cluster.getId(), cluster));
+			}
+		}
+		assertEquals(reconciled.size(), live.size());
+
+		double size = 0;
+		for (MicroCluster cluster : reconciled){
+
+			MicroCluster shardCluster = live.get(cluster.getId());
+			assertTrue("Micro-cluster " + cluster.getId() + " is in no shard", shardCluster != null);
+			assertEquals(cluster.getIdList(), shardCluster.getIdList());
+			assertEquals(cluster.getSize(), shardCluster.getSize(), 1e-9);
+			assertEquals(cluster.getSumOfTimestamps(), shardCluster.getSumOfTimestamps(), 1e-6);
+			for (int i = 0; i < DIMENSION; i++){
+				assertEquals(cluster.getCenter()[i], shardCluster.getCenter()[i], 1e-9);
+			}
+
+			size += cluster.getSize();
+		}
+
+		assertEquals("Points were lost or counted twice", points, size, 1e-9);
+	}
+
+}
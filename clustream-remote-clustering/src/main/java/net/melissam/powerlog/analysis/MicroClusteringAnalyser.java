@@ -155,7 +155,7 @@ public class MicroClusteringAnalyser {
 			// output the cluster if it is not empty
 			if (cluster.getSize() > 0){
 				
-				System.out.println(cluster.getIdList().get(0) + " - " + gson.toJson(cluster));
+				System.out.println(cluster.getId() + " - " + gson.toJson(cluster));
 				
 				Set<String> featureTypes = new HashSet<String>();
 				
@@ -175,7 +175,7 @@ public class MicroClusteringAnalyser {
 					
 				}
 				
-				clusterFeatures.put(cluster.getIdList().get(0), allFeatures);
+				clusterFeatures.put(cluster.getId(), allFeatures);
 				
 				// output feature types
 				for (String type : featureTypes){
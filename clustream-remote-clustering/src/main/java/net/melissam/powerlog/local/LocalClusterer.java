@@ -17,8 +17,18 @@ import javax.jms.JMSException;
 import net.melissam.powerlog.clustering.CluStream;
 import net.melissam.powerlog.clustering.Cluster;
 import net.melissam.powerlog.clustering.ClustreamModifiedKMeansClusterer;
+import net.melissam.powerlog.clustering.ConcurrentCluStream;
 import net.melissam.powerlog.clustering.FeatureVector;
+import net.melissam.powerlog.clustering.InitialisationType;
 import net.melissam.powerlog.clustering.MicroCluster;
+import net.melissam.powerlog.clustering.ModelSnapshot;
+import net.melissam.powerlog.clustering.NSWNearestClusterSearch;
+import net.melissam.powerlog.clustering.NearestClusterSearchType;
+import net.melissam.powerlog.clustering.OnlineClusterer;
+import net.melissam.powerlog.clustering.PlacementAction;
+import net.melissam.powerlog.clustering.ShardedCluStream;
+import net.melissam.powerlog.clustering.StorageBacking;
+import net.melissam.powerlog.clustering.StoragePrecision;
 import net.melissam.powerlog.datasource.FeatureSelector;
 import net.melissam.powerlog.datasource.KDD99FeatureSelector;
 import net.melissam.powerlog.evaluation.SSQEvaluation;
@@ -27,6 +37,7 @@ import net.melissam.powerlog.normalisation.DataNormaliser;
 import net.melissam.powerlog.normalisation.NormalisationProcess;
 import net.melissam.powerlog.normalisation.SlidingWindowStatisticalDataNormaliser;
 import net.melissam.powerlog.normalisation.StatisticalDataNormaliser;
+import net.melissam.powerlog.utils.StreamListener;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
@@ -41,7 +52,7 @@ import com.google.gson.Gson;
  * @author melissam
  *
  */
-public class LocalClusterer {
+public class LocalClusterer implements StreamListener {
 	
 	// id of local clusterer
 	private int instanceId;	
@@ -68,7 +79,13 @@ public class LocalClusterer {
 	private int initNumber;
 	
 	// the clustering learner
-	private CluStream learner;
+	private OnlineClusterer learner;
+	
+	// number of CluStream shards the learner is split into, 1 for a single CluStream
+	private int shards;
+	
+	// number of features to give to the learner at once, 1 to give them one at a time
+	private int batchSize;
 	
 	// object that sends microclusters to Global clustering
 	private MicroClusterMessageSender sender;
@@ -110,14 +127,40 @@ public class LocalClusterer {
 		
 		this.initNumber = config.getInteger("initNumber", 2000);
 				
-		this.learner = new CluStream(config.getInteger("maxClusters", 100), config.getInteger("maximalBoundaryFactor", 2), config.getInteger("relevanceThreshold", 1000), initNumber);
+		this.batchSize = config.getInteger("batchSize", 1);
+		
+		// shards only run in parallel on batches, point by point they are slower than a single CluStream
+		this.shards = config.getInteger("shards", 1);
+		if (shards > 1 && batchSize <= 1){
+			LOG.warn("Ignoring shards={} as points are clustered one at a time, set batchSize to shard.", shards);
+			this.shards = 1;
+		}
+		if (shards > 1){
+			this.learner = new ShardedCluStream(shards, config.getInteger("maxClusters", 100), config.getInteger("maximalBoundaryFactor", 2), config.getInteger("relevanceThreshold", 1000), initNumber);
+		}else if (config.getBoolean("concurrent", false)){
+			// one model which several threads can feed at once
+			this.learner = new ConcurrentCluStream(config.getInteger("maxClusters", 100), config.getInteger("maximalBoundaryFactor", 2), config.getInteger("relevanceThreshold", 1000), initNumber);
+		}else{
+			this.learner = new CluStream(config.getInteger("maxClusters", 100), config.getInteger("maximalBoundaryFactor", 2), config.getInteger("relevanceThreshold", 1000), initNumber);
+		}
+		this.learner.setNearestClusterSearchType(NearestClusterSearchType.fromName(config.getString("nearestClusterSearch", "linear")));
+		this.learner.setSearchWidth(config.getInteger("nsw.searchWidth", NSWNearestClusterSearch.DEFAULT_SEARCH_WIDTH));
+		this.learner.setInitialisationType(InitialisationType.fromName(config.getString("initialisation", "kmeans")));
+		this.learner.setSeedRadius(config.getDouble("seedRadius", 0.0));
+		this.learner.setDecayRate(config.getDouble("decayRate", 0.0));
+		this.learner.setEvictionInterval(config.getInteger("evictionInterval", 0));
+		this.learner.setLineageCap(config.getInteger("lineageCap", 0));
+		this.learner.setStoragePrecision(StoragePrecision.fromName(config.getString("storagePrecision", "double")));
+		this.learner.setStorageBacking(StorageBacking.fromName(config.getString("storageBacking", "heap")), new File(config.getString("storageFile", "microclusters.store") + "." + instanceId));
+		this.learner.setBackgroundInitialisation(config.getBoolean("backgroundInitialisation", true));
+		this.learner.setStreamListener(this);
 		this.features = 0;
 		
 		this.sender = new MicroClusterMessageSender(this.instanceId, config.getString("mq.broker.host"), config.getInt("mq.broker.port"), config.getString("mq.queue"));
 		
 		this.jsonWriter = new Gson();
 		
-		LOG.info("{localClusterer={}, streamSpeed={}, dataset={}, featureSelectionFactor={}, initNumber={}}", this.instanceId, this.streamSpeed, config.getString("dataset"), featureSelectionFactor, config.getInteger("initNumber", 1000));
+		LOG.info("{localClusterer={}, streamSpeed={}, dataset={}, featureSelectionFactor={}, initNumber={}, nearestClusterSearch={}, batchSize={}, shards={}, concurrent={}, initialisation={}, backgroundInitialisation={}}", this.instanceId, this.streamSpeed, config.getString("dataset"), featureSelectionFactor, config.getInteger("initNumber", 1000), learner.getNearestClusterSearchType(), batchSize, shards, learner instanceof ConcurrentCluStream, learner.getInitialisationType(), config.getBoolean("backgroundInitialisation", true));
 	}
 	
 	public void train(boolean evaluate) throws Exception{
@@ -136,7 +179,6 @@ public class LocalClusterer {
 		this.featureSelector = new KDD99FeatureSelector(this.dataset, 2, instanceId % 2);		
 		
 		FeatureVector fv = null;
-		Map<FeatureVector, Integer> placement = null;
 		
 		// if the normalisation type is instream, then we need to buffer the first initNumber features
 		if (normalisationProcess == NormalisationProcess.INSTREAM){
@@ -162,14 +204,19 @@ public class LocalClusterer {
 				swsdn.normalise(buffered);
 				// add it to a list for evaluation later on
 				if (evaluate) points.add(buffered);
-				// give it to the learner
-				placement = learner.cluster(buffered);
-				handleFeaturePlacement(placement, buffered);
+				// give it to the learner, placements are logged as they are made
+				if (!learner.process(buffered)){
+					LOG.info("featureVector={} used for initialisation.", buffered.getId());
+				}
 			}
 			
 			handleSnapshot(featuresUsed);
 		}		
 
+		// features waiting to be given to the learner as a batch
+		List<FeatureVector> batch = new ArrayList<FeatureVector>(batchSize);
+		int batchStart = featuresUsed;
+
 		// go through all available features
 		while((fv = featureSelector.getNext()) != null){
 			
@@ -192,25 +239,46 @@ public class LocalClusterer {
 			// save point for later if we are evaluating
 			if (evaluate) points.add(fv);
 
-			// give it to the learner
-			placement = learner.cluster(fv);
-			
-			// handle the placement information (log / persist )
-			handleFeaturePlacement(placement, fv);
+			if (batchSize > 1){
+				
+				// wait until the batch is full, then give it to the learner
+				batch.add(fv);
+				if (batch.size() == batchSize){
+					handleBatch(batch, batchStart, featuresUsed);
+					batchStart = featuresUsed;
+				}
+				continue;
+			}
+
+			// give it to the learner, placements are logged as they are made
+			if (!learner.process(fv)){
+				LOG.info("featureVector={} used for initialisation.", fv.getId());
+			}
 			
 			// check if it's time to take a snapshot
 			handleSnapshot(featuresUsed);
 
 		}
+		
+		// give the learner whatever is left of the last batch
+		if (!batch.isEmpty()){
+			handleBatch(batch, batchStart, featuresUsed);
+		}
+		
+		// place any features still buffered whilst the clusters were initialised
+		learner.awaitInitialisation();
 
 		if (learner.getClusters() != null){
-			LOG.info("clusters=" + jsonWriter.toJson(learner.getClusters()));			
-			LOG.info("Starting macro-clustering phase using {} micro-clusters.", learner.getClusters().size());
+			
+			// macro-clustering works on a published version of the model, which does not change underneath it
+			ModelSnapshot model = learner.publish();
+			LOG.info("clusters=" + jsonWriter.toJson(model.getClusters()));			
+			LOG.info("Starting macro-clustering phase using {} micro-clusters (version {}).", model.size(), model.getVersion());
 			
 			long start = System.currentTimeMillis();
 			
 			ClustreamModifiedKMeansClusterer clusterer = new ClustreamModifiedKMeansClusterer();
-			Map<Cluster, List<MicroCluster>> macroClusters = clusterer.doMacroClusterCreation(learner.getClusters(), 5);			
+			Map<Cluster, List<MicroCluster>> macroClusters = clusterer.doMacroClusterCreation(model.getClusters(), 5);			
 			LOG.info("{} macro clusters in {}ms", macroClusters.size(), System.currentTimeMillis() - start);
 									
 			// let's output the results to a results file that is ready for importing into Matlab for visualisation
@@ -308,22 +376,39 @@ public class LocalClusterer {
 		
 	}
 	
-	private void handleFeaturePlacement(Map<FeatureVector, Integer> placement, FeatureVector placed){
+	@Override
+	public void onItemReceived(FeatureVector featureVector){
+		// nothing to do until the feature is placed
+	}
+	
+	@Override
+	public void onItemPlaced(FeatureVector featureVector, int clusterId, PlacementAction action, double distance){
 		
-		// record the cluster id the feature was added to
-		if (placement != null && !placement.isEmpty()){
-
-			FeatureVector fv = null;
-			for (Entry<FeatureVector, Integer> entry : placement.entrySet()){
-				fv = entry.getKey();
-				fv.setInitialCluster(entry.getValue());
-				LOG.info("fv=" + jsonWriter.toJson(fv));
+		// record the cluster id the feature was added to (log / persist)
+		featureVector.setInitialCluster(clusterId);
+		LOG.info("fv=" + jsonWriter.toJson(featureVector));
+		
+	}
+	
+	@Override
+	public void onClusterEvicted(int clusterId){
+		LOG.debug("Micro-cluster " + clusterId + " was evicted.");
+	}
+	
+	private void handleBatch(List<FeatureVector> batch, int batchStart, int featuresUsed){
+		
+		// the learner clusters the whole batch at once, in parallel where it can
+		learner.processBatch(batch);
+		
+		// take a snapshot if the batch went past a snapshot time
+		for (int used = featuresUsed; used > batchStart; used--){
+			if (used >= initNumber && used % streamSpeed == 0){
+				handleSnapshot(used);
+				break;
 			}
-
-		}else{
-			LOG.info("featureVector={} used for initialisation.", placed.getId());
 		}
-
+		
+		batch.clear();
 	}
 	
 	private void handleSnapshot(int featuresUsed){		
@@ -331,12 +416,17 @@ public class LocalClusterer {
 		// decide whether it is time to take a snapshot of the clusters
 		if (featuresUsed >= initNumber && featuresUsed % streamSpeed == 0){
 
-			List<MicroCluster> clusters = learner.getClusters();
-			LOG.info("snapshot-time={}, clusters={}", timestamp, jsonWriter.toJson(clusters));
+			// the published version only copies the micro-clusters which changed since the last one, and the learner
+			// never changes it, so it can be serialised and sent while the learner carries on
+			ModelSnapshot snapshot = learner.publish();
+			LOG.info("snapshot-time={}, version={}, clusters={}", timestamp, snapshot.getVersion(), jsonWriter.toJson(snapshot.getClusters()));
+
+			// checkpoint the cluster features, if they are mapped on a file
+			learner.flush();
 
 			// send to Global
 			try{
-				sender.send(clusters, timestamp);
+				sender.send(snapshot.getClusters(), timestamp);
 			}catch(JMSException ex){
 				LOG.error("Error sending clusters to Global.", ex);
 			}
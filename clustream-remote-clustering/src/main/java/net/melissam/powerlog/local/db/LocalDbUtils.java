@@ -49,7 +49,7 @@ public class LocalDbUtils  extends DbUtils {
 			
 			stmt.setInt(1, featureVector.getId());
 			stmt.setLong(2, featureVector.getTimestamp());
-			stmt.setString(3, gsonWriter.toJson(featureVector.getPoint()));
+			stmt.setString(3, gsonWriter.toJson(featureVector.getValues()));
 			stmt.setString(4, featureVector.getGroundTruthLable());
 			stmt.setInt(5, featureVector.getInitialCluster());
 			
@@ -93,7 +93,7 @@ public class LocalDbUtils  extends DbUtils {
 				int mc = 0;
 				for (MicroCluster cluster : microClusters){
 					
-					sb.append("(").append(timestamp).append(",").append(cluster.getIdList().get(0)).append(",")
+					sb.append("(").append(timestamp).append(",").append(cluster.getId()).append(",")
 								.append(gsonWriter.toJson(cluster.getIdList())).append(",").append(gsonWriter.toJson(cluster.getSumOfValues()))
 								.append(",").append(gsonWriter.toJson(cluster.getSumOfSquaresOfValues())).append(",").append((long)cluster.getSize())
 								.append(")");